@@ -2,6 +2,7 @@ package com.siteminder.challenge;
 
 import java.util.List;
 
+import javax.validation.Valid;
 import javax.validation.constraints.NotEmpty;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -17,6 +18,36 @@ import org.springframework.validation.annotation.Validated;
 public class SmAppConfig {
     @NotEmpty
     private List<SmMailServiceConfig> smMailServiceConfig;
+    
+    @Valid
+    private SmDeliveryConfig delivery = new SmDeliveryConfig();
+    
+    @Valid
+    private SmOutboxConfig outbox = new SmOutboxConfig();
+    
+    @Valid
+    private SmRoutingConfig routing = new SmRoutingConfig();
+    
+    @Valid
+    private SmHedgingConfig hedging = new SmHedgingConfig();
+    
+    @Valid
+    private SmRetryConfig retry = new SmRetryConfig();
+
+    @Valid
+    private SmAttachmentsConfig attachments = new SmAttachmentsConfig();
+
+    @Valid
+    private SmSpoolConfig spool = new SmSpoolConfig();
+
+    @Valid
+    private SmTemplatesConfig templates = new SmTemplatesConfig();
+    
+    // Recipients differing only in the case of their local part are rejected as duplicates.
+    private boolean ignoreLocalPartCase = false;
+    
+    // Serves the requests and delivers the emails on virtual threads, when running on Java 21 or later.
+    private boolean virtualThreads = false;
 
     public List<SmMailServiceConfig> getSmMailServiceConfig() {
         return smMailServiceConfig;
@@ -25,4 +56,84 @@ public class SmAppConfig {
     public void setSmMailServiceConfig(List<SmMailServiceConfig> smMailServiceConfig) {
         this.smMailServiceConfig = smMailServiceConfig;
     }
+
+    public SmDeliveryConfig getDelivery() {
+        return delivery;
+    }
+
+    public void setDelivery(SmDeliveryConfig delivery) {
+        this.delivery = delivery;
+    }
+
+    public SmOutboxConfig getOutbox() {
+        return outbox;
+    }
+
+    public void setOutbox(SmOutboxConfig outbox) {
+        this.outbox = outbox;
+    }
+
+    public SmRoutingConfig getRouting() {
+        return routing;
+    }
+
+    public void setRouting(SmRoutingConfig routing) {
+        this.routing = routing;
+    }
+
+    public SmHedgingConfig getHedging() {
+        return hedging;
+    }
+
+    public void setHedging(SmHedgingConfig hedging) {
+        this.hedging = hedging;
+    }
+
+    public SmRetryConfig getRetry() {
+        return retry;
+    }
+
+    public void setRetry(SmRetryConfig retry) {
+        this.retry = retry;
+    }
+
+    public SmAttachmentsConfig getAttachments() {
+        return attachments;
+    }
+
+    public void setAttachments(SmAttachmentsConfig attachments) {
+        this.attachments = attachments;
+    }
+
+    public SmSpoolConfig getSpool() {
+        return spool;
+    }
+
+    public void setSpool(SmSpoolConfig spool) {
+        this.spool = spool;
+    }
+
+    public SmTemplatesConfig getTemplates() {
+        return templates;
+    }
+
+    public void setTemplates(SmTemplatesConfig templates) {
+        this.templates = templates;
+    }
+
+    public boolean isIgnoreLocalPartCase() {
+        return ignoreLocalPartCase;
+    }
+
+    public void setIgnoreLocalPartCase(boolean ignoreLocalPartCase) {
+        this.ignoreLocalPartCase = ignoreLocalPartCase;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
 }
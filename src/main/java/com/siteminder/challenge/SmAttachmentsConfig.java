@@ -0,0 +1,33 @@
+package com.siteminder.challenge;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+
+/*
+ * Intended to load the configurations of the attachment store from application.properties
+ */
+public class SmAttachmentsConfig {
+    // Directory holding the stored attachments, one file per content hash.
+    @NotBlank
+    private String directory = "attachments";
+
+    // Bytes of Base64 encoded attachments kept in memory. Least recently used ones are dropped beyond it.
+    @Min(0)
+    private long encodedCacheSize = 64 * 1024 * 1024;
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getEncodedCacheSize() {
+        return encodedCacheSize;
+    }
+
+    public void setEncodedCacheSize(long encodedCacheSize) {
+        this.encodedCacheSize = encodedCacheSize;
+    }
+}
@@ -0,0 +1,106 @@
+package com.siteminder.challenge;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+/*
+ * Intended to load the circuit breaker configurations of a mailing service from application.properties
+ */
+public class SmCircuitBreakerConfig {
+    // When disabled, the mailing service is always tried.
+    private boolean enabled = true;
+    
+    // Outcomes of this many most recent calls are used to compute the error and slow call rates.
+    @Min(1)
+    private int windowSize = 20;
+    
+    // Circuit is not opened before this many calls are recorded in the window.
+    @Min(1)
+    private int minimumCalls = 10;
+    
+    // Circuit opens when this percentage of the calls in the window failed.
+    @Min(1)
+    @Max(100)
+    private int failureRateThreshold = 50;
+    
+    // Calls taking longer than this many milliseconds are slow.
+    @Min(1)
+    private long slowCallDuration = 10000;
+    
+    // Circuit opens when this percentage of the calls in the window are slow.
+    @Min(1)
+    @Max(100)
+    private int slowCallRateThreshold = 100;
+    
+    // Open circuit is probed in the background after this many milliseconds.
+    @Min(1)
+    private long openDuration = 30000;
+    
+    // Once a probe succeeds, this many trial calls must succeed to close the circuit.
+    @Min(1)
+    private int halfOpenCalls = 3;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold(int failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    public void setSlowCallDuration(long slowCallDuration) {
+        this.slowCallDuration = slowCallDuration;
+    }
+
+    public int getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    public void setOpenDuration(long openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    public void setHalfOpenCalls(int halfOpenCalls) {
+        this.halfOpenCalls = halfOpenCalls;
+    }
+}
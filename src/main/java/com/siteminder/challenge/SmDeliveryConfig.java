@@ -0,0 +1,106 @@
+package com.siteminder.challenge;
+
+import javax.validation.constraints.Min;
+
+/*
+ * Intended to load the configurations of the mail delivery queue from application.properties
+ */
+public class SmDeliveryConfig {
+    // Maximum number of accepted emails waiting to be delivered.
+    @Min(1)
+    private int queueCapacity = 1000;
+    
+    // Number of worker threads delivering the queued emails.
+    @Min(1)
+    private int workerCount = 8;
+    
+    // Maximum number of queued emails a worker takes at once. A worker only takes the emails
+    // sharing the content of the first one, which are sent together by mail services supporting batches.
+    @Min(1)
+    private int coalesceLimit = 100;
+    
+    // Maximum number of emails accepted in a single batch request.
+    @Min(1)
+    private int batchLimit = 1000;
+    
+    // Time given to the workers to drain the queue on shutdown. In milliseconds.
+    @Min(0)
+    private long shutdownTimeout = 10000;
+
+    // Calls the mail services using non-blocking I/O. Workers hand the emails over and take the next ones,
+    // instead of waiting for the mail services to answer.
+    private boolean asyncIo = false;
+
+    // Number of I/O threads of each mail service, when async I/O is enabled.
+    @Min(1)
+    private int ioThreadCount = 2;
+
+    // Maximum number of emails being delivered at once, when async I/O is enabled.
+    // Workers wait for deliveries to complete beyond this.
+    @Min(1)
+    private int maxInFlight = 10000;
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    public long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    public int getBatchLimit() {
+        return batchLimit;
+    }
+
+    public void setBatchLimit(int batchLimit) {
+        this.batchLimit = batchLimit;
+    }
+
+    public int getCoalesceLimit() {
+        return coalesceLimit;
+    }
+
+    public void setCoalesceLimit(int coalesceLimit) {
+        this.coalesceLimit = coalesceLimit;
+    }
+
+    public boolean isAsyncIo() {
+        return asyncIo;
+    }
+
+    public void setAsyncIo(boolean asyncIo) {
+        this.asyncIo = asyncIo;
+    }
+
+    public int getIoThreadCount() {
+        return ioThreadCount;
+    }
+
+    public void setIoThreadCount(int ioThreadCount) {
+        this.ioThreadCount = ioThreadCount;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+}
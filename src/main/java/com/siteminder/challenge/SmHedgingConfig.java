@@ -0,0 +1,70 @@
+package com.siteminder.challenge;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+/*
+ * Intended to load the configurations of hedged requests from application.properties
+ */
+public class SmHedgingConfig {
+    // When a mail service does not answer within the hedge delay, the emails are sent to the next one
+    // as well. The first success wins and the other request is aborted.
+    private boolean enabled = false;
+    
+    // Hedge delay is this percentile of the recent latencies of the mail service.
+    @DecimalMin("50.0")
+    @DecimalMax("100.0")
+    private double delayPercentile = 95;
+    
+    // Successful calls needed before the percentile is used. Until then the hedge delay is max-delay.
+    @Min(1)
+    private int minimumSamples = 20;
+    
+    // Bounds of the hedge delay. In milliseconds.
+    @Min(0)
+    private long minDelay = 100;
+    
+    @Min(0)
+    private long maxDelay = 2000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public double getDelayPercentile() {
+        return delayPercentile;
+    }
+
+    public void setDelayPercentile(double delayPercentile) {
+        this.delayPercentile = delayPercentile;
+    }
+
+    public int getMinimumSamples() {
+        return minimumSamples;
+    }
+
+    public void setMinimumSamples(int minimumSamples) {
+        this.minimumSamples = minimumSamples;
+    }
+
+    public long getMinDelay() {
+        return minDelay;
+    }
+
+    public void setMinDelay(long minDelay) {
+        this.minDelay = minDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+}
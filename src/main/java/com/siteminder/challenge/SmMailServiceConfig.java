@@ -1,5 +1,7 @@
 package com.siteminder.challenge;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.Pattern;
 
@@ -18,6 +20,50 @@ public class SmMailServiceConfig {
     @NotBlank
     private String apiKey;
     
+    // Maximum number of emails with the same content sent in one request. 1 disables batching.
+    // SendGrid sends a batch as personalizations of a single mail. MailGun sends it as a batch
+    // message with recipient variables, which only suits emails with a single to recipient.
+    @Min(1)
+    private int maxBatchSize = 1;
+    
+    // Share of the traffic given to this mailing service by the weighted-round-robin routing strategy.
+    // 0 keeps it for failover only.
+    @Min(0)
+    private int weight = 1;
+    
+    // Connection pool of the HTTP client used to consume this mailing service.
+    @Min(1)
+    private int maxConnectionsPerRoute = 20;
+    
+    @Min(1)
+    private int maxConnectionsTotal = 50;
+    
+    // Idle pooled connections are evicted after this many milliseconds.
+    @Min(1)
+    private long idleConnectionTimeout = 30000;
+    
+    // Used when the mailing service does not send a Keep-Alive header. In milliseconds.
+    @Min(1)
+    private long keepAlive = 60000;
+    
+    // Timeouts in milliseconds.
+    @Min(0)
+    private int connectTimeout = 5000;
+    
+    @Min(0)
+    private int socketTimeout = 30000;
+    
+    @Min(0)
+    private int connectionRequestTimeout = 5000;
+    
+    // Skips this mailing service while it keeps failing. See SmCircuitBreakerConfig.
+    @Valid
+    private SmCircuitBreakerConfig circuitBreaker = new SmCircuitBreakerConfig();
+    
+    // Paces the calls to this mailing service. See SmRateLimitConfig.
+    @Valid
+    private SmRateLimitConfig rateLimit = new SmRateLimitConfig();
+    
     public String getServiceName() {
         return serviceName;
     }
@@ -40,5 +86,93 @@ public class SmMailServiceConfig {
 
     public void setApiKey(String apiKey) {
         this.apiKey = apiKey;
-    }   
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public int getMaxConnectionsTotal() {
+        return maxConnectionsTotal;
+    }
+
+    public void setMaxConnectionsTotal(int maxConnectionsTotal) {
+        this.maxConnectionsTotal = maxConnectionsTotal;
+    }
+
+    public long getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    public void setIdleConnectionTimeout(long idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    public long getKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(long keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public int getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public SmCircuitBreakerConfig getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(SmCircuitBreakerConfig circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public SmRateLimitConfig getRateLimit() {
+        return rateLimit;
+    }
+
+    public void setRateLimit(SmRateLimitConfig rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
 }
@@ -0,0 +1,68 @@
+package com.siteminder.challenge;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+
+/*
+ * Intended to load the configurations of the durable outbox from application.properties
+ */
+public class SmOutboxConfig {
+    // When disabled, accepted emails are only held in memory until delivered.
+    private boolean enabled = false;
+
+    // Directory holding the journal segments.
+    @NotBlank
+    private String directory = "outbox";
+
+    // Journal rolls over to a new segment file after this many bytes.
+    @Min(1024)
+    private long segmentSize = 64 * 1024 * 1024;
+
+    // Appends arriving within this window share a single fsync. In milliseconds.
+    @Min(0)
+    private long syncInterval = 2;
+
+    // An fsync is issued right away once this many appends are waiting for it.
+    @Min(1)
+    private int syncBatchSize = 128;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public long getSyncInterval() {
+        return syncInterval;
+    }
+
+    public void setSyncInterval(long syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    public int getSyncBatchSize() {
+        return syncBatchSize;
+    }
+
+    public void setSyncBatchSize(int syncBatchSize) {
+        this.syncBatchSize = syncBatchSize;
+    }
+}
@@ -0,0 +1,60 @@
+package com.siteminder.challenge;
+
+import javax.validation.constraints.Min;
+
+/*
+ * Intended to load the rate limits of a mailing service from application.properties.
+ * Set the limits to match the quotas of the mailing service account, so that bursts are paced on our side
+ * instead of being rejected with 429 by the mailing service.
+ */
+public class SmRateLimitConfig {
+    // Requests per second sent to the mailing service. 0 disables the limit.
+    @Min(0)
+    private double requestsPerSecond = 0;
+    
+    // Messages (recipients) per second sent to the mailing service. A batch counts every recipient of every email.
+    // 0 disables the limit.
+    @Min(0)
+    private double messagesPerSecond = 0;
+    
+    // Longest a call waits for the rate limit, or for the Retry-After of a 429 response, before
+    // the next mailing service is tried instead. In milliseconds.
+    @Min(0)
+    private long maxWait = 5000;
+    
+    // Used when a 429 response has no Retry-After header. In milliseconds.
+    @Min(0)
+    private long defaultRetryAfter = 1000;
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    public void setMessagesPerSecond(double messagesPerSecond) {
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public long getDefaultRetryAfter() {
+        return defaultRetryAfter;
+    }
+
+    public void setDefaultRetryAfter(long defaultRetryAfter) {
+        this.defaultRetryAfter = defaultRetryAfter;
+    }
+}
@@ -0,0 +1,93 @@
+package com.siteminder.challenge;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+/*
+ * Intended to load the configurations of delivery retries from application.properties
+ */
+public class SmRetryConfig {
+    // When disabled, emails which could not be sent by any mail service are given up right away.
+    private boolean enabled = true;
+    
+    // Delivery attempts of an email, including the first one.
+    @Min(1)
+    private int maxAttempts = 5;
+    
+    // Backoff before the first retry. It is multiplied by the multiplier for every further retry,
+    // up to the max backoff. Actual backoff is picked at random between half of it and all of it. In milliseconds.
+    @Min(1)
+    private long initialBackoff = 1000;
+    
+    @Min(1)
+    private long maxBackoff = 300000;
+    
+    @DecimalMin("1.0")
+    private double multiplier = 2;
+    
+    // Emails waiting to be retried. Emails failing beyond this are given up.
+    // Only the id of a waiting email is held in memory (about 150 bytes), as it is read back from the outbox when due.
+    @Min(1)
+    private int maxPending = 100000;
+    
+    // Emails waiting to be retried when the outbox is disabled. They are held whole in memory, with their
+    // message bodies, and their attachments in the attachment spool.
+    @Min(1)
+    private int maxPendingInMemory = 1000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public void setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public void setMultiplier(double multiplier) {
+        this.multiplier = multiplier;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    public int getMaxPendingInMemory() {
+        return maxPendingInMemory;
+    }
+
+    public void setMaxPendingInMemory(int maxPendingInMemory) {
+        this.maxPendingInMemory = maxPendingInMemory;
+    }
+}
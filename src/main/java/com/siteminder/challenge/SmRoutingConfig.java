@@ -0,0 +1,54 @@
+package com.siteminder.challenge;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/*
+ * Intended to load the configurations of mail service routing from application.properties
+ */
+public class SmRoutingConfig {
+    // priority: mail services are tried in the configured order.
+    // latency: traffic is weighted towards the mail services with the lowest latency and the highest success rate.
+    // weighted-round-robin: traffic is spread across the mail services in proportion to their weights.
+    // spillover: the first mail service is used until spillover-in-flight calls are in flight on it.
+    public enum Strategy { PRIORITY, LATENCY, WEIGHTED_ROUND_ROBIN, SPILLOVER }
+    
+    @NotNull
+    private Strategy strategy = Strategy.PRIORITY;
+    
+    // Weight of the latest call in the moving averages of latency and success rate.
+    @DecimalMin("0.01")
+    @DecimalMax("1.0")
+    private double ewmaAlpha = 0.2;
+    
+    // In-flight calls on a mail service before the spillover strategy moves on to the next one.
+    // With blocking I/O, there are at most as many calls in flight as delivery workers (hedged calls aside).
+    @Min(1)
+    private int spilloverInFlight = 4;
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public double getEwmaAlpha() {
+        return ewmaAlpha;
+    }
+
+    public void setEwmaAlpha(double ewmaAlpha) {
+        this.ewmaAlpha = ewmaAlpha;
+    }
+
+    public int getSpilloverInFlight() {
+        return spilloverInFlight;
+    }
+
+    public void setSpilloverInFlight(int spilloverInFlight) {
+        this.spilloverInFlight = spilloverInFlight;
+    }
+}
@@ -0,0 +1,45 @@
+package com.siteminder.challenge;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+
+/*
+ * Intended to load the configurations of the attachment spool from application.properties
+ */
+public class SmSpoolConfig {
+    // Directory holding the spool files of large attachments.
+    @NotBlank
+    private String directory = "spool";
+
+    // Attachments up to this many bytes are held in direct memory. Larger ones are spooled to memory mapped files.
+    @Min(0)
+    private long memoryThreshold = 1024 * 1024;
+
+    // Bytes of direct memory held by spooled attachments. Attachments arriving beyond it are spooled to files.
+    @Min(0)
+    private long memoryLimit = 64 * 1024 * 1024;
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    public void setMemoryThreshold(long memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+}
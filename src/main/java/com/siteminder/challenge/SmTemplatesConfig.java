@@ -0,0 +1,33 @@
+package com.siteminder.challenge;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+
+/*
+ * Intended to load the configurations of the email templates from application.properties
+ */
+public class SmTemplatesConfig {
+    // Directory holding the registered templates, one file per template id.
+    @NotBlank
+    private String directory = "templates";
+
+    // Compiled templates kept in memory. Least recently used ones are dropped beyond it, and compiled again when used.
+    @Min(1)
+    private int cacheSize = 256;
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+}
@@ -0,0 +1,63 @@
+package com.siteminder.challenge.attachments;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Base64 encodings of stored attachments, bounded by their total size in bytes.
+ * Least recently used encodings are dropped first. Encodings larger than the whole cache are not kept.
+ */
+public class EncodedAttachmentCache {
+    private final long capacity;
+
+    // Guarded by this cache's monitor.
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+
+    public EncodedAttachmentCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized byte[] get(String id) {
+        byte[] encoded = entries.get(id);
+        if(encoded != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return encoded;
+    }
+
+    public synchronized void put(String id, byte[] encoded) {
+        if(encoded.length > capacity) {
+            return;
+        }
+        byte[] previous = entries.put(id, encoded);
+        size += encoded.length - (previous != null ? previous.length : 0);
+
+        Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+        while(size > capacity && eldest.hasNext()) {
+            size -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,219 @@
+package com.siteminder.challenge.attachments;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.SmAttachmentsConfig;
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.commons.JsonMappers;
+import com.siteminder.challenge.commons.Utils;
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.models.AttachmentsApiResponse;
+import com.siteminder.challenge.models.EmailParams;
+import com.siteminder.challenge.models.StoredAttachmentInfo;
+
+/*
+ * Content addressed store of attachments sent with many emails (terms and conditions, logos).
+ * Attachments are stored once, under the SHA-256 of their content, and emails refer to them by that id.
+ * Storing the same content again gives the same id and keeps a single copy.
+ * A stored attachment never changes. Storing its content again under another filename or content type
+ * gives back the first one, as emails queued or waiting to be retried may already refer to it.
+ * Each attachment is a content file named by its id, and a JSON file describing it.
+ * Stored attachments are kept until they are deleted from the directory.
+ */
+@Component
+public class SmAttachmentStore {
+    private static final Log log = LogFactory.getLog(SmAttachmentStore.class);
+
+    private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final String INFO_SUFFIX = ".json";
+
+    @Autowired
+    SmAppConfig appConfig;
+
+    private Path directory;
+    private EncodedAttachmentCache encodedCache;
+
+    // Stored attachments looked up so far, by id.
+    private final ConcurrentHashMap<String, StoredAttachment> attachments = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void open() throws IOException {
+        SmAttachmentsConfig attachmentsConfig = appConfig.getAttachments();
+        directory = Paths.get(attachmentsConfig.getDirectory());
+        Files.createDirectories(directory);
+        encodedCache = new EncodedAttachmentCache(attachmentsConfig.getEncodedCacheSize());
+    }
+
+    /*
+     * Stores the uploaded attachments and returns their ids.
+     */
+    public ResponseEntity<?> storeAttachments(List<MultipartFile> files) {
+        AttachmentsApiResponse response = new AttachmentsApiResponse(HttpStatus.CREATED.value(),
+                                                                        Constants.ApiStatusMessages.ATTACHMENTS_STORED);
+        try {
+            Utils.validateAttachments(files);
+            for(MultipartFile file : files) {
+                StoredAttachment stored = store(file);
+                response.getAttachments().add(new StoredAttachmentInfo(stored.getId(), stored.getOriginalFilename(),
+                                                                        stored.getContentType(), stored.getSize()));
+            }
+        } catch(ApiResException apiEx) {
+            return Utils.buildApiResponse(apiEx.getStatus(), apiEx.getMessage());
+        } catch(IOException ioEx) {
+            log.error("Unable to store the attachments. Returning appropriate error.", ioEx);
+            return Utils.buildApiResponse(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.ATTACHMENT_FAILED);
+        }
+        return new ResponseEntity<>(response, HttpStatus.CREATED);
+    }
+
+    /*
+     * Stores an attachment. Content is hashed while it is copied into the store, so it is read once.
+     * Files are moved into place only when complete, and the description last, so that a described
+     * attachment always has its whole content.
+     * Content already stored is not stored again. The attachment stored first is returned, with its description.
+     */
+    public StoredAttachment store(MultipartFile file) throws IOException {
+        Path content = Files.createTempFile(directory, "upload-", ".tmp");
+        Path info = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try(InputStream iStream = file.getInputStream();
+                OutputStream oStream = new DigestOutputStream(Files.newOutputStream(content), digest)) {
+                StreamUtils.copy(iStream, oStream);
+            }
+            String id = Hex.encodeHexString(digest.digest());
+            // Only one of the uploads of the same content gets to describe it.
+            synchronized(this) {
+                StoredAttachment existing = get(id);
+                if(existing != null) {
+                    return existing;
+                }
+                
+                StoredAttachmentInfo attachmentInfo = new StoredAttachmentInfo(id, file.getOriginalFilename(),
+                                                                            file.getContentType(), Files.size(content));
+                info = Files.createTempFile(directory, "info-", ".tmp");
+                Files.write(info, JsonMappers.STORED_ATTACHMENT_WRITER.writeValueAsBytes(attachmentInfo));
+
+                Files.move(content, contentPath(id), StandardCopyOption.ATOMIC_MOVE);
+                Files.move(info, infoPath(id), StandardCopyOption.ATOMIC_MOVE);
+                StoredAttachment stored = toStoredAttachment(attachmentInfo);
+                attachments.put(id, stored);
+                return stored;
+            }
+        } catch(NoSuchAlgorithmException nsaEx) {
+            throw new IOException("SHA-256 is not available.", nsaEx);
+        } finally {
+            Files.deleteIfExists(content);
+            if(info != null) {
+                Files.deleteIfExists(info);
+            }
+        }
+    }
+
+    /*
+     * Returns the stored attachment with the given id. Null when there is none.
+     */
+    public StoredAttachment get(String id) {
+        if(id == null || !ID_PATTERN.matcher(id).matches()) {
+            return null;
+        }
+        return attachments.computeIfAbsent(id, this::load);
+    }
+
+    /*
+     * Returns the stored attachments referenced by the email params, in the order they are referenced.
+     */
+    public List<MultipartFile> resolve(EmailParams params) throws ApiResException {
+        List<String> ids = params.getAttachmentIds();
+        if(ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<MultipartFile> resolved = new ArrayList<>(ids.size());
+        for(String id : ids) {
+            StoredAttachment stored = get(id);
+            if(stored == null) {
+                log.error("Unknown attachment id " + id + ". Returning appropriate error.");
+                throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.UNKNOWN_ATTACHMENT);
+            }
+            resolved.add(stored);
+        }
+        return resolved;
+    }
+
+    /*
+     * Returns the uploaded attachments followed by the stored attachments referenced by the email params.
+     */
+    public List<MultipartFile> withStoredAttachments(EmailParams params, List<MultipartFile> uploaded)
+                                                        throws ApiResException {
+        List<MultipartFile> stored = resolve(params);
+        if(stored.isEmpty()) {
+            return uploaded;
+        }
+        List<MultipartFile> all = new ArrayList<>(stored.size() + (uploaded != null ? uploaded.size() : 0));
+        if(uploaded != null) {
+            all.addAll(uploaded);
+        }
+        all.addAll(stored);
+        return all;
+    }
+
+    public EncodedAttachmentCache getEncodedCache() {
+        return encodedCache;
+    }
+
+    private StoredAttachment load(String id) {
+        try {
+            StoredAttachmentInfo attachmentInfo = JsonMappers.STORED_ATTACHMENT_READER.readValue(
+                                                                Files.readAllBytes(infoPath(id)));
+            return toStoredAttachment(attachmentInfo);
+        } catch(NoSuchFileException nsfEx) {
+            return null;
+        } catch(IOException ioEx) {
+            log.error("Unable to read the stored attachment " + id, ioEx);
+            return null;
+        }
+    }
+
+    private StoredAttachment toStoredAttachment(StoredAttachmentInfo attachmentInfo) {
+        String id = attachmentInfo.getId();
+        return new StoredAttachment(id, attachmentInfo.getFilename(), attachmentInfo.getContentType(),
+                                    contentPath(id), attachmentInfo.getSize(), encodedCache);
+    }
+
+    private Path contentPath(String id) {
+        return directory.resolve(id);
+    }
+
+    private Path infoPath(String id) {
+        return directory.resolve(id + INFO_SUFFIX);
+    }
+}
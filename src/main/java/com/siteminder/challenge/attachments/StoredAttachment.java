@@ -0,0 +1,96 @@
+package com.siteminder.challenge.attachments;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.commons.Utils;
+
+/*
+ * Attachment kept in the attachment store, and referenced by emails using its id (SHA-256 of its content).
+ * Content never changes, so its Base64 encoding is computed once and shared by every email sending it.
+ */
+public class StoredAttachment implements MultipartFile {
+    private final String id;
+    private final String originalFilename;
+    private final String contentType;
+    private final Path file;
+    private final long size;
+    private final EncodedAttachmentCache encodedCache;
+
+    public StoredAttachment(String id, String originalFilename, String contentType, Path file, long size,
+                            EncodedAttachmentCache encodedCache) {
+        this.id = id;
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.file = file;
+        this.size = size;
+        this.encodedCache = encodedCache;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /*
+     * Returns the Base64 encoded content, from the cache when it was encoded before.
+     * Returns null when the encoding does not fit in the cache, so that the caller encodes it as a stream instead.
+     */
+    public byte[] getBase64() throws IOException {
+        if(Utils.getBase64Size(size) > encodedCache.getCapacity()) {
+            return null;
+        }
+        byte[] encoded = encodedCache.get(id);
+        if(encoded == null) {
+            encoded = Base64.getEncoder().encode(Files.readAllBytes(file));
+            encodedCache.put(id, encoded);
+        }
+        return encoded;
+    }
+
+    @Override
+    public String getName() {
+        return "attachments";
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        return Files.readAllBytes(file);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Files.newInputStream(file);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        Files.copy(file, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -1,9 +1,9 @@
 package com.siteminder.challenge.clients;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.http.HttpEntity;
@@ -12,11 +12,14 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.siteminder.challenge.SmMailServiceConfig;
 import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.commons.JsonMappers;
 import com.siteminder.challenge.commons.Utils;
 import com.siteminder.challenge.core.ApiResException;
 import com.siteminder.challenge.models.Email;
@@ -25,24 +28,45 @@ import com.siteminder.challenge.models.EmailParams;
 /*
  * Implementation for consuming MailGun mailing service.
  * Extends from abstract mail client and it's own logic for sendMail abstract method.
+ * A batch of emails is sent as a single MailGun batch message. Recipient variables make MailGun
+ * send a separate copy to every recipient, so each recipient only sees their own address.
  */
 public class MailGunClient extends SmMailClient {
-    public MailGunClient(EmailParams emailParams, List<MultipartFile> attachments, SmMailServiceConfig serviceConfig) {
-        super(emailParams, attachments, serviceConfig);
+    public MailGunClient(EmailParams emailParams, List<MultipartFile> attachments, SmMailServiceConfig serviceConfig,
+                            CloseableHttpClient httpClient) {
+        super(emailParams, attachments, serviceConfig, httpClient);
+    }
+    
+    public MailGunClient(List<EmailParams> batch, List<MultipartFile> attachments, SmMailServiceConfig serviceConfig,
+                            CloseableHttpClient httpClient) {
+        super(batch, attachments, serviceConfig, httpClient);
+    }
+    
+    public MailGunClient(PreparedMail preparedMail, SmMailServiceConfig serviceConfig, CloseableHttpClient httpClient) {
+        super(preparedMail, serviceConfig, httpClient);
     }
     
     /*
-     * Validates the email parameters.
-     * Constructs the model required to consume MailGun mailing service.
-     * Consumes the API served MailGun.
+     * Only emails with a single to recipient and without cc or bcc can be batched.
+     * Recipients of a batch message never see each other, which is only right for those emails.
      */
-    public void sendEmail() throws ApiResException {
-        validateEmailParams();  
-        
+    public static boolean isBatchable(EmailParams params) {
+        List<Email> cc = params.getCc();
+        List<Email> bcc = params.getBcc();
+        return params.getTo() != null && params.getTo().size() == 1
+                && (cc == null || cc.isEmpty()) && (bcc == null || bcc.isEmpty());
+    }
+    
+    /*
+     * Constructs the model required to consume MailGun mailing service,
+     * and the request of the API served by MailGun.
+     */
+    @Override
+    protected HttpPost buildRequest() throws ApiResException {
         MultipartEntityBuilder builder = MultipartEntityBuilder.create();
         builder.setMode(HttpMultipartMode.BROWSER_COMPATIBLE);
         constructMailGunEntity(builder);
-        invokeSendApi(builder);
+        return buildMgClientRequest(builder);
     }
     
     /*
@@ -52,16 +76,20 @@ public class MailGunClient extends SmMailClient {
         EmailParams params = getEmailParams();
         List<MultipartFile> attachments = getAttachments();
         
-        constructEmailAddresses(builder, params);
+        if(getBatch().size() > 1) {
+            constructBatchAddresses(builder, params);
+        } else {
+            constructEmailAddresses(builder, params);
+        }
         constructMessage(builder, params);
         
         if(attachments != null && attachments.size() > 0) {
-            constructAttachments(builder, attachments);
+            constructAttachments(builder, params, attachments);
         }
     }
     
     /*
-     * Constructs from, to, cc and bcc email addresses
+     * Constructs from, to, cc and bcc email addresses, along with the Message-ID header of the email.
      */
     private void constructEmailAddresses(/*out*/MultipartEntityBuilder builder, EmailParams params) {
         //Fill from field
@@ -84,65 +112,78 @@ public class MailGunClient extends SmMailClient {
         
         if(bccListStr != null && !bccListStr.isEmpty()) {
             builder.addTextBody(Constants.MailGun.CC, bccListStr);
-        }       
+        }
+        
+        if(params.getMessageId() != null) {
+            builder.addTextBody(Constants.MailGun.MESSAGE_ID, params.getMessageId());
+        }
     }
     
     /*
-     * Validates and constructs subject and message (email body)
+     * Constructs from and to email addresses of a batch message.
+     * To holds the single recipient of every email in the batch. Recipient variables
+     * hold an entry per recipient, which turns the message into a MailGun batch message.
+     * Attachments and message are shared by the whole batch, so they are uploaded once.
+     * Message-ID headers are not set, as the whole batch is a single message.
+     * Recipients of a batch are distinct. Emails to the same recipient are put in separate batches by EmailCoalescer.
+     */
+    private void constructBatchAddresses(/*out*/MultipartEntityBuilder builder, EmailParams params) 
+                                            throws ApiResException {
+        builder.addTextBody(Constants.MailGun.FROM, Utils.getMailGunMailFormat(params.getFrom()));
+        
+        Map<String, Map<String, Object>> recipientVariables = new LinkedHashMap<>();
+        List<EmailParams> batch = getBatch();
+        for(int i = 0; i < batch.size(); i++) {
+            Email to = batch.get(i).getTo().get(0);
+            builder.addTextBody(Constants.MailGun.TO, Utils.getMailGunMailFormat(to));
+            
+            Map<String, Object> variables = new LinkedHashMap<>();
+            variables.put("index", i);
+            recipientVariables.put(to.getEmail(), variables);
+        }
+        
+        try {
+            String variablesJson = JsonMappers.JSON_WRITER.writeValueAsString(recipientVariables);
+            builder.addTextBody(Constants.MailGun.RECIPIENT_VARIABLES, variablesJson, ContentType.APPLICATION_JSON);
+        } catch(JsonProcessingException jpEx) {
+            jpEx.printStackTrace();
+            throw new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.SERVICE_JSON_FAILURE);
+        }
+    }
+    
+    /*
+     * Constructs subject and message (email body), along with its HTML alternative.
+     * Bodies are not encoded here. They are encoded in chunks while the request is written.
      */
     private void constructMessage(/*out*/ MultipartEntityBuilder builder, 
-                                            EmailParams params) throws ApiResException {
+                                            EmailParams params) {
         String subject = params.getSubject();
         String message = params.getMessage();
+        String html = params.getHtml();
         
-        addSize(subject.length() + message.length());
-        
-        builder.addTextBody(Constants.MailGun.SUBJECT, subject);
-        builder.addTextBody(Constants.MailGun.TEXT_MESSAGE, message);       
+        builder.addPart(Constants.MailGun.SUBJECT, new TextContentBody(subject, ContentType.TEXT_PLAIN));
+        if(message != null && !message.isEmpty()) {
+            builder.addPart(Constants.MailGun.TEXT_MESSAGE, new TextContentBody(message, ContentType.TEXT_PLAIN));
+        }
+        if(html != null && !html.isEmpty()) {
+            builder.addPart(Constants.MailGun.HTML_MESSAGE, new TextContentBody(html, ContentType.TEXT_HTML));
+        }
     }   
     
     /*
-     * Validates and constructs attachments  
+     * Constructs attachments. Attachments are validated when the mail is prepared.
+     * Attachments are not read here. They are streamed while the request is written.
+     * Inline attachments are sent as inline files. MailGun uses their filename as their content id.
      */
-    private void constructAttachments(/*out*/ MultipartEntityBuilder builder, 
-                                List<MultipartFile> attachments) throws ApiResException {
+    private void constructAttachments(/*out*/ MultipartEntityBuilder builder, EmailParams params,
+                                List<MultipartFile> attachments) {
         for(MultipartFile file : attachments) {
-            try {
-                byte[] raw = file.getBytes();
-                if(raw == null || raw.length <= 0) {
-                    HttpStatus status = HttpStatus.BAD_REQUEST;
-                    String errMsg = Constants.ApiStatusMessages.INVALID_ATTACHMENT;
-                    throw new ApiResException(status, errMsg);
-                }
-                
-                /*Size calculation should be based on Base64, as the size limitation should be same
-                 * when using MailGun as well as SendGrid.
-                 * SendGrid API accepts attachments as base64 strings.
-                 */
-                addSize(Base64.encodeBase64(raw).length);
-                
-                ContentType contentType =  ContentType.create(file.getContentType());
-                InputStream iStream = file.getInputStream();
-                String fileName = file.getOriginalFilename();
-                builder.addBinaryBody(Constants.MailGun.ATTACHMENT, iStream, contentType, fileName);
-            } catch(IOException ioEx) {
-                ioEx.printStackTrace();
-                HttpStatus status = HttpStatus.INTERNAL_SERVER_ERROR;
-                String fileName = file.getOriginalFilename();
-                String errMsg = Constants.ApiStatusMessages.ATTACHMENT_FAILED + "  " + fileName;                
-                throw new ApiResException(status, errMsg);
-            }
+            ContentType contentType =  ContentType.create(file.getContentType());
+            String name = PreparedMail.isInline(params, file) ? Constants.MailGun.INLINE : Constants.MailGun.ATTACHMENT;
+            builder.addPart(name, new MultipartFileBody(file, contentType));
         }
     }
     
-    /*
-     * Executes the HTTP API of MailGun
-     */
-    private void invokeSendApi(MultipartEntityBuilder builder) throws ApiResException {
-        HttpPost request = buildMgClientRequest(builder);
-        executeHttpRequest(request);
-    }
-    
     /*
      * Constructs the HTTP Request for MailGun API
      */
@@ -0,0 +1,46 @@
+package com.siteminder.challenge.clients;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+/*
+ * Multipart body streaming the content of an attached file.
+ * File is opened only when the request is written, and again on every write, so the
+ * multipart entity stays repeatable and its length is known without reading the file.
+ */
+public class MultipartFileBody extends AbstractContentBody {
+    private final MultipartFile file;
+    
+    public MultipartFileBody(MultipartFile file, ContentType contentType) {
+        super(contentType);
+        this.file = file;
+    }
+    
+    @Override
+    public String getFilename() {
+        return file.getOriginalFilename();
+    }
+    
+    @Override
+    public String getTransferEncoding() {
+        return "binary";
+    }
+    
+    @Override
+    public long getContentLength() {
+        return file.getSize();
+    }
+    
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        try(InputStream iStream = file.getInputStream()) {
+            StreamUtils.copy(iStream, outStream);
+        }
+    }
+}
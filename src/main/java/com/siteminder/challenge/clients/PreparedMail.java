@@ -0,0 +1,135 @@
+package com.siteminder.challenge.clients;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.commons.Utils;
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.models.EmailParams;
+
+/*
+ * An email (or a batch of emails sharing the same content) ready to be sent by any mailing service.
+ * Email params are validated and the mail size is checked once, when the mail is prepared.
+ * Mail service clients only render their own request from it, so trying another mail service
+ * on failure costs only the request itself.
+ * Attachments are kept as references. They are streamed by the clients while the request is written.
+ */
+public class PreparedMail {
+    private final List<EmailParams> batch;
+    private final List<MultipartFile> attachments;
+    private final long size;
+    
+    private PreparedMail(List<EmailParams> batch, List<MultipartFile> attachments, long size) {
+        this.batch = batch;
+        this.attachments = attachments;
+        this.size = size;
+    }
+    
+    /*
+     * Validates the email params (unless validated already) and the attachments.
+     * Every inline attachment must be one of the attachments of the email.
+     * Throws an exception when the mail size (subject, message, HTML and Base64 size of attachments) reaches the limit.
+     */
+    public static PreparedMail prepare(EmailParams params, List<MultipartFile> attachments) throws ApiResException {
+        if(params == null || !params.isValidated()) {
+            Utils.validateEmailParams(params);
+        }
+        
+        List<MultipartFile> files = attachments != null ? attachments : Collections.emptyList();
+        long size = params.getSubject().length() + length(params.getMessage()) + length(params.getHtml());
+        for(MultipartFile file : files) {
+            if(file.getSize() <= 0) {
+                throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_ATTACHMENT);
+            }
+            
+            /*Size calculation should be based on Base64, as the size limitation should be same
+             * when using MailGun as well as SendGrid.
+             * SendGrid API accepts attachments as base64 strings.
+             */
+            size += Utils.getBase64Size(file.getSize());
+        }
+        
+        if(size >= Constants.Limitations.MAX_MAIL_SIZE) {
+            throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.MAIL_SIZE_EXCEEDED);
+        }
+        validateInline(params.getInline(), files);
+        return new PreparedMail(Collections.singletonList(params), files, size);
+    }
+    
+    /*
+     * Same mail, with its attachments read from the given copies instead, e.g. from the outbox once the uploads
+     * are cleaned up. Copies must be in the same order and of the same sizes, so the mail is not checked again.
+     */
+    public PreparedMail withAttachments(List<MultipartFile> copies) {
+        return new PreparedMail(batch, copies != null ? copies : Collections.emptyList(), size);
+    }
+    
+    /*
+     * Tells whether the attachment is shown inline in the HTML of the email.
+     */
+    public static boolean isInline(EmailParams params, MultipartFile file) {
+        List<String> inline = params.getInline();
+        return inline != null && inline.contains(file.getOriginalFilename());
+    }
+    
+    /*
+     * Combines prepared emails sharing the same sender, subject, message and attachments into a batch.
+     * Shared content is taken from the first email.
+     */
+    public static PreparedMail batch(List<PreparedMail> mails) {
+        PreparedMail first = mails.get(0);
+        if(mails.size() == 1) {
+            return first;
+        }
+        
+        List<EmailParams> batch = new ArrayList<>(mails.size());
+        for(PreparedMail mail : mails) {
+            batch.addAll(mail.getBatch());
+        }
+        return new PreparedMail(batch, first.getAttachments(), first.getSize());
+    }
+    
+    // Shared content (sender, subject and message) of the batch.
+    public EmailParams getEmailParams() {
+        return batch.get(0);
+    }
+    
+    public List<EmailParams> getBatch() {
+        return batch;
+    }
+    
+    public List<MultipartFile> getAttachments() {
+        return attachments;
+    }
+    
+    // Size of the mail content. Recipients are not counted.
+    public long getSize() {
+        return size;
+    }
+    
+    private static void validateInline(List<String> inline, List<MultipartFile> files) throws ApiResException {
+        if(inline == null || inline.isEmpty()) {
+            return;
+        }
+        Set<String> filenames = new HashSet<>();
+        for(MultipartFile file : files) {
+            filenames.add(file.getOriginalFilename());
+        }
+        for(String filename : inline) {
+            if(!filenames.contains(filename)) {
+                throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.UNKNOWN_INLINE_ATTACHMENT);
+            }
+        }
+    }
+    
+    private static long length(String text) {
+        return text != null ? text.length() : 0;
+    }
+}
@@ -1,22 +1,18 @@
 package com.siteminder.challenge.clients;
 
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import org.apache.commons.codec.binary.Base64;
 import org.apache.http.HttpHeaders;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.springframework.http.HttpStatus;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.springframework.http.MediaType;
 import org.springframework.web.multipart.MultipartFile;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.siteminder.challenge.SmMailServiceConfig;
 import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.commons.JsonMappers;
 import com.siteminder.challenge.core.ApiResException;
 import com.siteminder.challenge.models.Email;
 import com.siteminder.challenge.models.EmailParams;
@@ -30,33 +26,44 @@ import com.siteminder.challenge.models.sendgrid.SgMail;
  * Extends from abstract mail client and it's own logic for sendMail abstract method.
  */
 public class SendGridClient extends SmMailClient {
-    public SendGridClient(EmailParams emailParams, List<MultipartFile> attachments, SmMailServiceConfig serviceConfig) {
-        super(emailParams, attachments, serviceConfig);
+    private static final String INLINE_DISPOSITION = "inline";
+    
+    public SendGridClient(EmailParams emailParams, List<MultipartFile> attachments, SmMailServiceConfig serviceConfig,
+                            CloseableHttpClient httpClient) {
+        super(emailParams, attachments, serviceConfig, httpClient);
+    }
+    
+    public SendGridClient(List<EmailParams> batch, List<MultipartFile> attachments, SmMailServiceConfig serviceConfig,
+                            CloseableHttpClient httpClient) {
+        super(batch, attachments, serviceConfig, httpClient);
+    }
+    
+    public SendGridClient(PreparedMail preparedMail, SmMailServiceConfig serviceConfig, CloseableHttpClient httpClient) {
+        super(preparedMail, serviceConfig, httpClient);
     }
     
     /*
-     * Validates the email parameters.
-     * Constructs the model required to consume SendGrid mailing service.
-     * Consumes the API served SendGrid.
+     * Constructs the model required to consume SendGrid mailing service,
+     * and the request of the API served by SendGrid.
      */ 
-    public void sendEmail() throws ApiResException {
-        validateEmailParams();
+    @Override
+    protected HttpPost buildRequest() {
         SgMail sgMail = new SgMail();
         constructSendGridModel(sgMail);     
-        invokeSendApi(sgMail);
+        return buildSgClientRequest(sgMail);
     }
     
     /*
      * Constructs the model required to consume SendGrid mailing service.
      */
-    private void constructSendGridModel(/*out*/ SgMail sgMail) throws ApiResException {
+    private void constructSendGridModel(/*out*/ SgMail sgMail) {
         EmailParams params = getEmailParams();
         
         // Set from email
         sgMail.setFrom(params.getFrom());
         
-        // Set the personalization object (to, cc and bcc recipients)       
-        constructPersonalizations(sgMail, params);
+        // Set the personalization objects (to, cc and bcc recipients of every email in the batch)
+        constructPersonalizations(sgMail, getBatch());
         
         // Set mail subject and content
         constructMessage(sgMail, params);
@@ -64,115 +71,94 @@ public class SendGridClient extends SmMailClient {
         // Set the attachments
         List<MultipartFile> inputAttachments = getAttachments();
         if(inputAttachments != null && inputAttachments.size() > 0) {
-            constructAttachments(sgMail, inputAttachments);
+            constructAttachments(sgMail, params, inputAttachments);
         }
     }
     
     /*
-     * Constructs from, to, cc and bcc email addresses
+     * Constructs to, cc and bcc email addresses.
+     * Each email of the batch gets its own personalization, so recipients only see the
+     * addresses of their own email. SendGrid allows up to 1000 personalizations in a mail.
+     * Message-ID of each email is set as a header of its personalization.
      */ 
-    private void constructPersonalizations(/*out*/ SgMail sgMail, EmailParams params) {
-        List<Personalization> personalizations = new ArrayList<>();
-        List<Email> to = params.getTo();
-        List<Email> cc = params.getCc();
-        List<Email> bcc = params.getBcc();      
-        Personalization personalization = new Personalization();
-        personalization.setTo(to); // At this stage, to cannot be null or 0-sized. So, no need to check that.
-        if(cc != null && cc.size() > 0) {
-            personalization.setCc(cc);
-        }
-        if(bcc != null && bcc.size() > 0) {
-            personalization.setBcc(bcc);
+    private void constructPersonalizations(/*out*/ SgMail sgMail, List<EmailParams> batch) {
+        List<Personalization> personalizations = new ArrayList<>(batch.size());
+        for(EmailParams params : batch) {
+            List<Email> to = params.getTo();
+            List<Email> cc = params.getCc();
+            List<Email> bcc = params.getBcc();      
+            Personalization personalization = new Personalization();
+            personalization.setTo(to); // At this stage, to cannot be null or 0-sized. So, no need to check that.
+            if(cc != null && cc.size() > 0) {
+                personalization.setCc(cc);
+            }
+            if(bcc != null && bcc.size() > 0) {
+                personalization.setBcc(bcc);
+            }
+            if(params.getMessageId() != null) {
+                personalization.setHeaders(Collections.singletonMap(Constants.MailHeaders.MESSAGE_ID, 
+                                                                        params.getMessageId()));
+            }
+            personalizations.add(personalization);
         }
-        personalizations.add(personalization);
         sgMail.setPersonalizations(personalizations);
     }
     
     /*
-     * Validates and constructs subject and message (email body)
+     * Constructs subject and message (email body)
      */ 
-    private void constructMessage(SgMail sgMail, EmailParams params) throws ApiResException {
+    private void constructMessage(SgMail sgMail, EmailParams params) {
         String subject = params.getSubject();
-        String message = params.getMessage();
-        
-        addSize(subject.length() + message.length());
         
         sgMail.setSubject(subject);
-        sgMail.setContent(constructContent(message));       
+        sgMail.setContent(constructContent(params.getMessage(), params.getHtml()));       
     }
     
     /*
-     * Constructs message (email body)
+     * Constructs message (email body) and its HTML alternative.
+     * SendGrid requires the plain text content to come before the HTML one.
+     * Bodies are not copied here. They are written as they are while the request is written.
      */
-    private List<Content> constructContent(String message) {
-        List<Content> contentList = new ArrayList<>();
-        Content content = new Content();
-        content.setType(MediaType.TEXT_PLAIN_VALUE); //TODO: Change when supporting different types of content
-        content.setValue(message);
-        contentList.add(content);
+    private List<Content> constructContent(String message, String html) {
+        List<Content> contentList = new ArrayList<>(2);
+        if(message != null && !message.isEmpty()) {
+            contentList.add(new Content(MediaType.TEXT_PLAIN_VALUE, message));
+        }
+        if(html != null && !html.isEmpty()) {
+            contentList.add(new Content(MediaType.TEXT_HTML_VALUE, html));
+        }
         return contentList;
     }
     
     /*
-     * Validates and constructs attachments  
+     * Constructs attachments. Attachments are validated when the mail is prepared.
+     * Attachments are not read here. They are Base64 encoded while the request is written.
+     * Inline attachments are referred to from the HTML by their filename, which is their content id.
      */ 
-    private void constructAttachments(/*out*/ SgMail sgMail, List<MultipartFile> inputAttachments) throws ApiResException {
+    private void constructAttachments(/*out*/ SgMail sgMail, EmailParams params, List<MultipartFile> inputAttachments) {
         List<Attachments> attachmentList = new ArrayList<>();
         for(MultipartFile file : inputAttachments) {
-            try {
-                Attachments attachment = new Attachments();
-                byte[] raw = file.getBytes();
-                if(raw == null || raw.length <= 0) {
-                    HttpStatus status = HttpStatus.BAD_REQUEST;
-                    String errMsg = Constants.ApiStatusMessages.INVALID_ATTACHMENT;
-                    throw new ApiResException(status, errMsg);
-                }
-                
-                byte[] encoded = Base64.encodeBase64(raw);
-                attachment.setType(file.getContentType());
-                attachment.setContent(new String(encoded));
-                attachment.setFilename(file.getOriginalFilename());
-                attachmentList.add(attachment);
-                addSize(encoded.length);
-                
-            } catch(IOException ex) {
-                ex.printStackTrace();
-                HttpStatus status = HttpStatus.INTERNAL_SERVER_ERROR;
-                String errMsg = Constants.ApiStatusMessages.ATTACHMENT_FAILED + "  " + file.getOriginalFilename();              
-                throw new ApiResException(status, errMsg);
+            Attachments attachment = new Attachments();
+            attachment.setType(file.getContentType());
+            attachment.setContent(file);
+            attachment.setFilename(file.getOriginalFilename());
+            if(PreparedMail.isInline(params, file)) {
+                attachment.setDisposition(INLINE_DISPOSITION);
+                attachment.setContentId(file.getOriginalFilename());
             }
+            attachmentList.add(attachment);
         }
         sgMail.setAttachments(attachmentList);
     }   
     
     /*
-     * Executes the HTTP API of SendGrid
-     */ 
-    private void invokeSendApi(SgMail sgMail) throws ApiResException {
-        HttpPost request = buildSgClientRequest(sgMail);
-        executeHttpRequest(request);
-    }
-    
-    /*
-     * Constructs the HTTP Request for MailGun API
+     * Constructs the HTTP Request for SendGrid API.
+     * Mail is serialized straight into the request stream when the request is executed.
      */ 
-    private HttpPost buildSgClientRequest(SgMail sgMail) throws ApiResException {
+    private HttpPost buildSgClientRequest(SgMail sgMail) {
         HttpPost request = new HttpPost(getServiceConfig().getEndPoint());
         request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + getServiceConfig().getApiKey());
-        request.addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);      
-        
-        try {   
-            String sgMailJson = new ObjectMapper().writeValueAsString(sgMail);
-            StringEntity sgMailEntity = new StringEntity(sgMailJson);
-            request.setEntity(sgMailEntity);
-        } catch(JsonProcessingException jsonEx) {
-            jsonEx.printStackTrace();
-            throw new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.SERVICE_JSON_FAILURE);
-        } catch(UnsupportedEncodingException ueEx) {
-            ueEx.printStackTrace();
-            throw new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.SERVICE_ENCODING_FAILURE);
-        }
-        
+        request.setEntity(new StreamingJsonEntity(JsonMappers.SG_MAIL_WRITER, sgMail));
         return request;
     }   
 }
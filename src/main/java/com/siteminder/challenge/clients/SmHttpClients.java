@@ -0,0 +1,187 @@
+package com.siteminder.challenge.clients;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.SmMailServiceConfig;
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.core.ApiResException;
+
+/*
+ * Holds one pooled, long-lived HTTP client per configured mailing service.
+ * Connections to a mailing service are kept alive and reused across sends,
+ * instead of paying a new TCP and TLS handshake for every email.
+ * With async I/O enabled, each mailing service gets a pooled async HTTP client as well. A few I/O threads
+ * of the client keep all the requests to the mailing service in flight.
+ */
+@Component
+public class SmHttpClients {
+    private static final Log log = LogFactory.getLog(SmHttpClients.class);
+
+    @Autowired
+    SmAppConfig appConfig;
+
+    private final Map<String, CloseableHttpClient> httpClients = new ConcurrentHashMap<>();
+    private final Map<String, CloseableHttpAsyncClient> asyncClients = new ConcurrentHashMap<>();
+    private ScheduledExecutorService asyncEvictor;
+
+    /*
+     * Returns the shared HTTP client of the input mailing service config.
+     * Client is created on first use and lives until the application shuts down.
+     */
+    public CloseableHttpClient getHttpClient(SmMailServiceConfig config) {
+        String serviceName = config.getServiceName().toLowerCase();
+        return httpClients.computeIfAbsent(serviceName, name -> createHttpClient(config));
+    }
+
+    /*
+     * Returns the shared async HTTP client of the input mailing service config.
+     * Client is created and started on first use, and lives until the application shuts down.
+     */
+    public CloseableHttpAsyncClient getAsyncClient(SmMailServiceConfig config) throws ApiResException {
+        String serviceName = config.getServiceName().toLowerCase();
+        try {
+            return asyncClients.computeIfAbsent(serviceName, name -> createAsyncClient(name, config));
+        } catch(UncheckedIOException ioEx) {
+            log.error("Unable to create the async HTTP client of " + config.getServiceName() + " mail service.", ioEx);
+            throw new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.SERVICE_API_FAILURE);
+        }
+    }
+
+    /*
+     * Closes all the HTTP clients and their connection pools.
+     */
+    @PreDestroy
+    public void close() {
+        for(Map.Entry<String, CloseableHttpClient> entry : httpClients.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch(IOException ioEx) {
+                log.error("Unable to close the HTTP client of " + entry.getKey() + " mail service.", ioEx);
+            }
+        }
+        httpClients.clear();
+        
+        synchronized(this) {
+            if(asyncEvictor != null) {
+                asyncEvictor.shutdownNow();
+            }
+        }
+        for(Map.Entry<String, CloseableHttpAsyncClient> entry : asyncClients.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch(IOException ioEx) {
+                log.error("Unable to close the async HTTP client of " + entry.getKey() + " mail service.", ioEx);
+            }
+        }
+        asyncClients.clear();
+    }
+
+    // Builds a pooled HTTP client from the connection settings of the mailing service config.
+    private CloseableHttpClient createHttpClient(SmMailServiceConfig config) {
+        PoolingHttpClientConnectionManager connManager = new PoolingHttpClientConnectionManager();
+        connManager.setMaxTotal(config.getMaxConnectionsTotal());
+        connManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeout())
+                .setSocketTimeout(config.getSocketTimeout())
+                .setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+                .build();
+
+        log.info("Creating pooled HTTP client for " + config.getServiceName() + " mail service.");
+        return HttpClients.custom()
+                .setConnectionManager(connManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy(config.getKeepAlive()))
+                .evictExpiredConnections()
+                .evictIdleConnections(config.getIdleConnectionTimeout(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /*
+     * Builds and starts a pooled async HTTP client from the connection settings of the mailing service config.
+     * Connect and socket timeouts are enforced by its I/O reactor. Expired and idle connections are closed
+     * in the background, like the ones of the blocking client.
+     */
+    private CloseableHttpAsyncClient createAsyncClient(String serviceName, SmMailServiceConfig config) {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(appConfig.getDelivery().getIoThreadCount())
+                .setConnectTimeout(config.getConnectTimeout())
+                .setSoTimeout(config.getSocketTimeout())
+                .build();
+        PoolingNHttpClientConnectionManager connManager;
+        try {
+            connManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig,
+                                new CustomizableThreadFactory("sm-io-" + serviceName + "-")));
+        } catch(IOReactorException ioEx) {
+            throw new UncheckedIOException(ioEx);
+        }
+        connManager.setMaxTotal(config.getMaxConnectionsTotal());
+        connManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeout())
+                .setSocketTimeout(config.getSocketTimeout())
+                .setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+                .build();
+
+        log.info("Creating pooled async HTTP client for " + config.getServiceName() + " mail service.");
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(connManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy(config.getKeepAlive()))
+                .setThreadFactory(new CustomizableThreadFactory("sm-io-" + serviceName + "-reactor-"))
+                .build();
+        client.start();
+        
+        scheduleEviction(connManager, config.getIdleConnectionTimeout());
+        return client;
+    }
+
+    private synchronized void scheduleEviction(PoolingNHttpClientConnectionManager connManager, long idleTimeout) {
+        if(asyncEvictor == null) {
+            asyncEvictor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("sm-io-evictor-"));
+        }
+        long period = Math.max(idleTimeout / 2, 1000);
+        asyncEvictor.scheduleWithFixedDelay(() -> {
+            connManager.closeExpiredConnections();
+            connManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Honors the Keep-Alive header of the mailing service. Falls back to the configured duration.
+    private ConnectionKeepAliveStrategy keepAliveStrategy(long defaultKeepAlive) {
+        return (response, context) -> {
+            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return keepAlive > 0 ? keepAlive : defaultKeepAlive;
+        };
+    }
+}
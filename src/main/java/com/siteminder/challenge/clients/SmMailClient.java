@@ -2,23 +2,32 @@ package com.siteminder.challenge.clients;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.util.EntityUtils;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.siteminder.challenge.SmMailServiceConfig;
 import com.siteminder.challenge.commons.Constants;
-import com.siteminder.challenge.commons.Utils;
+import com.siteminder.challenge.commons.SmMetrics;
 import com.siteminder.challenge.core.ApiResException;
-import com.siteminder.challenge.models.Email;
 import com.siteminder.challenge.models.EmailParams;
 
 /*
@@ -28,17 +37,47 @@ import com.siteminder.challenge.models.EmailParams;
  */
 public abstract class SmMailClient {
     private EmailParams emailParams;
+    private List<EmailParams> batch;
     private SmMailServiceConfig serviceConfig;
     private List<MultipartFile> attachments;
-    private long size;
+    private CloseableHttpClient httpClient;
+    private CloseableHttpAsyncClient asyncClient;
+    private PreparedMail preparedMail;
+    
+    // Request in flight, so that it can be aborted from another thread.
+    private volatile HttpPost request;
+    private volatile Future<HttpResponse> asyncResponse;
+    private volatile boolean aborted;
     
     private static final Log log = LogFactory.getLog(SmMailClient.class);
     
-    public SmMailClient(EmailParams emailParams, List<MultipartFile> attachments, SmMailServiceConfig serviceConfig) {
-        this.emailParams = emailParams;
+    // Async requests are spooled in memory up to this size, and into a temporary file beyond it.
+    private static final int SPOOL_MEMORY_THRESHOLD = 256 * 1024;
+    
+    public SmMailClient(EmailParams emailParams, List<MultipartFile> attachments, SmMailServiceConfig serviceConfig,
+                            CloseableHttpClient httpClient) {
+        this(Collections.singletonList(emailParams), attachments, serviceConfig, httpClient);
+    }
+    
+    /*
+     * Client for a batch of emails sharing the same sender, subject, message and attachments.
+     * Shared content is taken from the first email of the batch.
+     */
+    public SmMailClient(List<EmailParams> batch, List<MultipartFile> attachments, SmMailServiceConfig serviceConfig,
+                            CloseableHttpClient httpClient) {
+        this.emailParams = batch.get(0);
+        this.batch = batch;
         this.serviceConfig = serviceConfig;
         this.attachments = attachments;
-        this.size = 0;
+        this.httpClient = httpClient;
+    }
+    
+    /*
+     * Client for an email (or a batch of emails) prepared already. It is not validated again.
+     */
+    public SmMailClient(PreparedMail preparedMail, SmMailServiceConfig serviceConfig, CloseableHttpClient httpClient) {
+        this(preparedMail.getBatch(), preparedMail.getAttachments(), serviceConfig, httpClient);
+        this.preparedMail = preparedMail;
     }
     
     public EmailParams getEmailParams() {
@@ -48,6 +87,14 @@ public abstract class SmMailClient {
     public void setEmailParams(EmailParams emailParams) {
         this.emailParams = emailParams;
     }
+    
+    public List<EmailParams> getBatch() {
+        return batch;
+    }
+
+    public void setBatch(List<EmailParams> batch) {
+        this.batch = batch;
+    }
 
     public SmMailServiceConfig getServiceConfig() {
         return serviceConfig;
@@ -65,43 +112,101 @@ public abstract class SmMailClient {
         this.attachments = attachments;
     }   
     
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public void setHttpClient(CloseableHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+    
+    public CloseableHttpAsyncClient getAsyncClient() {
+        return asyncClient;
+    }
+
+    public void setAsyncClient(CloseableHttpAsyncClient asyncClient) {
+        this.asyncClient = asyncClient;
+    }
+    
     /*
-     * Verify whether the email recipients mentioned are valid and does
-     * not exceed the maximum allowed recipients.
+     * Verify whether the email recipients mentioned are valid and does not exceed the maximum allowed 
+     * recipients, and the mail does not exceed the maximum size. See PreparedMail.
+     * Does nothing when the client is created from a prepared mail.
      */
-    public void validateEmailParams() throws ApiResException {
-        if(emailParams == null) {
-            log.error(Constants.ApiStatusMessages.EMPTY_MAIL_PARAMS);
-            throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.EMPTY_MAIL_PARAMS);
+    public PreparedMail prepare() throws ApiResException {
+        if(preparedMail == null) {
+            List<PreparedMail> mails = new ArrayList<>(batch.size());
+            for(EmailParams params : batch) {
+                mails.add(PreparedMail.prepare(params, attachments));
+            }
+            preparedMail = PreparedMail.batch(mails);
+        }
+        return preparedMail;
+    }
+    
+    
+    /*
+     * Aborts the request in flight, if any. Used when a hedged request to another mailing service
+     * succeeded first. Request fails with an API failure once aborted. Safe to call from any thread.
+     */
+    public void abort() {
+        aborted = true;
+        HttpPost inFlight = request;
+        if(inFlight != null) {
+            inFlight.abort();
+        }
+        Future<HttpResponse> response = asyncResponse;
+        if(response != null) {
+            response.cancel(true);
         }
-        
-        validateEmails();
-        validateMessage();
     }
     
+    public boolean isAborted() {
+        return aborted;
+    }
     
     /*
-     * Executes the given HTTP request.
+     * Executes the given HTTP request using the pooled HTTP client of the mailing service.
+     * Response is always consumed, so that the connection goes back to the pool for reuse.
      * Throws an exception with appropriate error details on failure.
+     * Duration of the call and the reason of its failure are recorded in the metrics of the mailing service.
      */
     public void executeHttpRequest(HttpPost request) throws ApiResException {
         CloseableHttpResponse response = null;
-        try (CloseableHttpClient httpclient = HttpClients.createDefault()) {
-            response = httpclient.execute(request);
+        this.request = request;
+        if(aborted) {
+            // Aborted before the request was built. It fails right away when executed.
+            request.abort();
+        }
+        long start = System.nanoTime();
+        String errorReason = null;
+        try {
+            response = httpClient.execute(request);
             validateHttpResponse(response);
+        } catch(ApiResException apiEx) {
+            errorReason = SmMetrics.reasonOf(apiEx.getStatus().value());
+            throw apiEx;
         } catch(ClientProtocolException cpEx) {
+            errorReason = SmMetrics.REASON_PROTOCOL;
             cpEx.printStackTrace();
             HttpStatus status = HttpStatus.INTERNAL_SERVER_ERROR;
             String errMsg = Constants.ApiStatusMessages.SERVICE_PROTOCOL_FAILURE;
             throw new ApiResException(status, errMsg);
         } catch(IOException ioEx) {
-            ioEx.printStackTrace();
+            errorReason = aborted ? SmMetrics.REASON_ABORTED : SmMetrics.REASON_IO;
+            if(aborted) {
+                log.info("Request to " + serviceConfig.getServiceName() + " mail service is aborted.");
+            } else {
+                log.error("Request to " + serviceConfig.getServiceName() + " mail service failed.", ioEx);
+            }
             HttpStatus status = HttpStatus.INTERNAL_SERVER_ERROR;
             String errMsg = Constants.ApiStatusMessages.SERVICE_API_FAILURE;
             throw new ApiResException(status, errMsg);
         } finally {
+            SmMetrics.recordServiceCall(serviceConfig.getServiceName(), start, errorReason);
             if(response != null) {
                 try {
+                    EntityUtils.consume(response.getEntity());
                     response.close();
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -110,106 +215,196 @@ public abstract class SmMailClient {
         }       
     }
     
+    /*
+     * Sends the email using the async HTTP client of the mailing service, and returns right away.
+     * Returned future completes once the mailing service answers, or completes exceptionally
+     * with an ApiResException carrying the appropriate error details.
+     */
+    public CompletableFuture<Void> sendEmailAsync() {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            prepare();
+            executeHttpRequestAsync(buildTimedRequest(), result);
+        } catch(ApiResException apiEx) {
+            result.completeExceptionally(apiEx);
+        }
+        return result;
+    }
+    
+    /*
+     * Executes the given HTTP request using the async HTTP client of the mailing service.
+     * Request content is spooled by the calling thread. Connection I/O and the response are handled
+     * by the I/O threads of the client, which complete the result.
+     */
+    public void executeHttpRequestAsync(HttpPost request, /*out*/ CompletableFuture<Void> result) 
+                        throws ApiResException {
+        SpooledEntity entity;
+        try {
+            entity = SpooledEntity.spool(request.getEntity(), SPOOL_MEMORY_THRESHOLD);
+        } catch(IOException ioEx) {
+            log.error("Unable to spool the request to " + serviceConfig.getServiceName() + " mail service.", ioEx);
+            throw new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.SERVICE_API_FAILURE);
+        }
+        request.setEntity(entity);
+        this.request = request;
+        
+        long start = System.nanoTime();
+        try {
+            asyncResponse = asyncClient.execute(request, newResponseCallback(entity, start, result));
+        } catch(RuntimeException rtEx) {
+            // Client is not running. Spooled content is not released by any callback then.
+            entity.discard();
+            log.error("Unable to send the request to " + serviceConfig.getServiceName() + " mail service.", rtEx);
+            throw new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.SERVICE_API_FAILURE);
+        }
+        if(aborted) {
+            // Aborted while the request was being built or spooled.
+            asyncResponse.cancel(true);
+        }
+    }
+    
+    /*
+     * Callback run by the I/O threads of the async client. Every outcome completes the result, as the caller
+     * holds resources (in-flight permits, outbox records) until it does.
+     */
+    private FutureCallback<HttpResponse> newResponseCallback(SpooledEntity entity, long start,
+                                                                /*out*/ CompletableFuture<Void> result) {
+        return new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    validateHttpResponse(response);
+                    SmMetrics.recordServiceCall(serviceConfig.getServiceName(), start, null);
+                    result.complete(null);
+                } catch(ApiResException apiEx) {
+                    SmMetrics.recordServiceCall(serviceConfig.getServiceName(), start,
+                                                    SmMetrics.reasonOf(apiEx.getStatus().value()));
+                    result.completeExceptionally(apiEx);
+                } catch(RuntimeException rtEx) {
+                    log.error("Unable to read the response of " + serviceConfig.getServiceName() + " mail service.", rtEx);
+                    SmMetrics.recordServiceCall(serviceConfig.getServiceName(), start, SmMetrics.REASON_PROTOCOL);
+                    result.completeExceptionally(new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR,
+                                                                        Constants.ApiStatusMessages.SERVICE_PROTOCOL_FAILURE));
+                } finally {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    entity.discard();
+                }
+            }
+            
+            @Override
+            public void failed(Exception ex) {
+                entity.discard();
+                String errMsg = Constants.ApiStatusMessages.SERVICE_API_FAILURE;
+                String errorReason = SmMetrics.REASON_IO;
+                if(aborted) {
+                    log.info("Request to " + serviceConfig.getServiceName() + " mail service is aborted.");
+                    errorReason = SmMetrics.REASON_ABORTED;
+                } else if(ex instanceof ClientProtocolException) {
+                    log.error("Request to " + serviceConfig.getServiceName() + " mail service failed.", ex);
+                    errMsg = Constants.ApiStatusMessages.SERVICE_PROTOCOL_FAILURE;
+                    errorReason = SmMetrics.REASON_PROTOCOL;
+                } else {
+                    log.error("Request to " + serviceConfig.getServiceName() + " mail service failed.", ex);
+                }
+                SmMetrics.recordServiceCall(serviceConfig.getServiceName(), start, errorReason);
+                result.completeExceptionally(new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, errMsg));
+            }
+            
+            @Override
+            public void cancelled() {
+                entity.discard();
+                SmMetrics.recordServiceCall(serviceConfig.getServiceName(), start, SmMetrics.REASON_ABORTED);
+                log.info("Request to " + serviceConfig.getServiceName() + " mail service is aborted.");
+                result.completeExceptionally(new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, 
+                                                                    Constants.ApiStatusMessages.SERVICE_API_FAILURE));
+            }
+        };
+    }
+    
     /*
      * Validates the HTTP response form the mailing service consumed and
      * throws an exception with appropriate error details on non success response.
+     * 429 responses carry the Retry-After of the mailing service, so that it is honoured by the caller.
      */
-    public void validateHttpResponse(CloseableHttpResponse response) throws ApiResException {
+    public void validateHttpResponse(HttpResponse response) throws ApiResException {
         int returnCode = response.getStatusLine().getStatusCode();
         if(returnCode != HttpStatus.ACCEPTED.value() && returnCode != HttpStatus.OK.value()) {
             //Error return appropriate error message
             //TODO: Map the error messages and form a generic error message that should be common
             // for different mail services.
             if(returnCode == HttpStatus.UNAUTHORIZED.value() || returnCode == HttpStatus.FORBIDDEN.value()) {
-                HttpStatus status = HttpStatus.valueOf(returnCode);
+                HttpStatus status = toHttpStatus(returnCode);
                 String errMsg = Constants.ApiStatusMessages.SERVICE_AUTH_FAILURE; 
                 log.error(errMsg);
                 throw new ApiResException(status, errMsg);
+            } else if(returnCode == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                long retryAfter = getRetryAfter(response);
+                log.info("Mail service rate limit reached. Retry after " + retryAfter + " ms.");
+                throw new ApiResException(HttpStatus.TOO_MANY_REQUESTS, Constants.ApiStatusMessages.SERVICE_RATE_LIMITED,
+                                            retryAfter);
             } else {
-                HttpStatus status = HttpStatus.valueOf(returnCode);
+                HttpStatus status = toHttpStatus(returnCode);
                 String errMsg = Constants.ApiStatusMessages.SERVICE_API_FAILURE; 
-                log.error(errMsg);
+                log.error(errMsg + " Status " + returnCode + ".");
                 throw new ApiResException(status, errMsg);
             }
         }       
     }
     
     /*
-     * Must be used whenever subject, message or an attachment is added to the email.
-     * Throws an exception when the maximum mail size is reached.
+     * Status of a response of the mailing service. Codes Spring does not know of (e.g. 520 from a CDN in front
+     * of the mailing service) are taken as 502 when they are server errors, and as 500 otherwise.
      */
-    public void addSize(long size) throws ApiResException {
-        this.size += size;
-        
-        if(this.size >= Constants.Limitations.MAX_MAIL_SIZE) {
-            throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.MAIL_SIZE_EXCEEDED);
+    private static HttpStatus toHttpStatus(int returnCode) {
+        HttpStatus status = HttpStatus.resolve(returnCode);
+        if(status != null) {
+            return status;
         }
+        return returnCode >= 500 && returnCode < 600 ? HttpStatus.BAD_GATEWAY : HttpStatus.INTERNAL_SERVER_ERROR;
     }
     
     /*
-     * Abstract method. Each mailing service client must implement it's own logic.
+     * Milliseconds to wait as per the Retry-After header, given either in seconds or as an HTTP date.
+     * Waits longer than a day are cut down to a day, so that they do not overflow once added to the clock.
+     * Returns -1 when the header is missing or cannot be parsed.
      */
-    public abstract void sendEmail() throws ApiResException;    
-    
-    // Validates the email addresses
-    private void validateEmails() throws ApiResException {
-        Email from = emailParams.getFrom();
-        
-        if(from == null) {
-            HttpStatus status = HttpStatus.BAD_REQUEST;
-            String errMsg = Constants.ApiStatusMessages.INVALID_FROM; 
-            log.error(errMsg);
-            throw new ApiResException(status, errMsg);
+    private long getRetryAfter(HttpResponse response) {
+        Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if(header == null || header.getValue() == null) {
+            return -1;
         }
         
-        String fromMail = from.getEmail();
-        if(!Utils.isValidEmailFormat(fromMail)) {
-            HttpStatus status = HttpStatus.BAD_REQUEST;
-            String errMsg = Constants.ApiStatusMessages.INVALID_FROM_EMAIL; 
-            log.error(errMsg);
-            throw new ApiResException(status, errMsg);
+        String value = header.getValue().trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return Math.min(Math.max(seconds, 0), Constants.Limitations.MAX_RETRY_AFTER / 1000) * 1000;
+        } catch(NumberFormatException nfEx) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? -1 : Math.min(Math.max(date.getTime() - System.currentTimeMillis(), 0),
+                                                Constants.Limitations.MAX_RETRY_AFTER);
         }
-        
-        validateRecipients();
     }
     
-    // Validates the to, cc and bcc recipients  
-    private void validateRecipients() throws ApiResException {
-        List<Email> to = emailParams.getTo();
-        List<Email> cc = emailParams.getCc();
-        List<Email> bcc = emailParams.getBcc();
-        
-        if(to == null || to.isEmpty()) {
-            HttpStatus status = HttpStatus.BAD_REQUEST;
-            String errMsg = Constants.ApiStatusMessages.INVALID_TO; 
-            log.error(errMsg);
-            throw new ApiResException(status, errMsg);          
-        }
-        
-        List<String> recipients = new ArrayList<>();
-        Utils.validateRecipientList(to, Constants.ApiStatusMessages.INVALID_TO_EMAIL, recipients);
-        
-        if(cc != null && cc.size() > 0) {
-            Utils.validateRecipientList(cc, Constants.ApiStatusMessages.INVALID_CC_EMAIL, recipients);
-        }
-        
-        if(bcc != null && bcc.size() > 0) {
-            Utils.validateRecipientList(bcc, Constants.ApiStatusMessages.INVALID_BCC_EMAIL, recipients);
-        }       
+    /*
+     * Validates the email parameters, unless the mail is prepared already.
+     * Builds the request of the mailing service and executes it, waiting for the answer.
+     */
+    public void sendEmail() throws ApiResException {
+        prepare();
+        executeHttpRequest(buildTimedRequest());
     }
     
-    // Validates subject and message (email body)   
-    private void validateMessage() throws ApiResException {
-        String message = emailParams.getMessage();
-        if(message == null || message.isEmpty()) {
-            log.error(Constants.ApiStatusMessages.INVALID_MESSAGE);
-            throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_MESSAGE);
-        }
-        
-        String subject = emailParams.getSubject();
-        if(subject == null || subject.isEmpty()) {
-            log.error(Constants.ApiStatusMessages.INVALID_SUBJECT);
-            throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_SUBJECT);
-        }       
+    // Builds the request of the mailing service, recording the time taken to build it.
+    private HttpPost buildTimedRequest() throws ApiResException {
+        long start = System.nanoTime();
+        HttpPost request = buildRequest();
+        SmMetrics.recordRequestBuild(serviceConfig.getServiceName(), start);
+        return request;
     }
+    
+    /*
+     * Abstract method. Each mailing service client must implement it's own logic
+     * to construct the HTTP request of its send API from the prepared mail.
+     */
+    protected abstract HttpPost buildRequest() throws ApiResException;
 }
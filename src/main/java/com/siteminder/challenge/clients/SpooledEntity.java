@@ -0,0 +1,234 @@
+package com.siteminder.challenge.clients;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.FileContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/*
+ * HTTP entity written out in advance, so that the async HTTP client can send it without blocking its I/O threads.
+ * Streaming entities (JSON of SendGrid, multipart form of MailGun) are written by the calling thread, into memory
+ * up to a threshold and into a temporary file beyond it. Large attachments never pile up on the heap then.
+ * Files are transferred straight to the connection, when the connection supports it.
+ * Content length is known once spooled, so the content is not sent chunked.
+ */
+public class SpooledEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+    private static final Log log = LogFactory.getLog(SpooledEntity.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Exactly one of them is set.
+    private final byte[] content;
+    private final Path file;
+    private final long length;
+
+    // Position of the content being produced.
+    private long position;
+    private FileChannel channel;
+    private ByteBuffer readBuffer;
+
+    private SpooledEntity(HttpEntity entity, byte[] content, Path file, long length) {
+        this.content = content;
+        this.file = file;
+        this.length = length;
+        setContentType(entity.getContentType());
+        setContentEncoding(entity.getContentEncoding());
+    }
+
+    /*
+     * Writes the input entity out. Content up to the memory threshold is kept in memory.
+     * Rest goes to a temporary file, which is deleted when the entity is discarded.
+     */
+    public static SpooledEntity spool(HttpEntity entity, int memoryThreshold) throws IOException {
+        ThresholdOutputStream outStream = new ThresholdOutputStream(memoryThreshold);
+        try {
+            entity.writeTo(outStream);
+            outStream.close();
+        } catch(IOException | RuntimeException ex) {
+            outStream.discard();
+            throw ex;
+        }
+        
+        if(outStream.file == null) {
+            byte[] content = outStream.memory.toByteArray();
+            return new SpooledEntity(entity, content, null, content.length);
+        }
+        return new SpooledEntity(entity, null, outStream.file, outStream.count);
+    }
+
+    public boolean isInMemory() {
+        return content != null;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return content != null ? new ByteArrayInputStream(content) : Files.newInputStream(file);
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        if(content != null) {
+            outStream.write(content);
+        } else {
+            Files.copy(file, outStream);
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /*
+     * Called by the I/O thread whenever the connection can take more content. Writes as much as it takes.
+     */
+    @Override
+    public synchronized void produceContent(ContentEncoder encoder, IOControl ioControl) throws IOException {
+        if(content != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(content, (int) position, (int) (length - position));
+            position += encoder.write(buffer);
+        } else if(encoder instanceof FileContentEncoder) {
+            position += ((FileContentEncoder) encoder).transfer(openChannel(), position, length - position);
+        } else {
+            if(readBuffer == null) {
+                readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+                readBuffer.flip();
+            }
+            if(!readBuffer.hasRemaining()) {
+                readBuffer.clear();
+                openChannel().read(readBuffer, position);
+                readBuffer.flip();
+            }
+            int written = encoder.write(readBuffer);
+            position += written;
+        }
+
+        if(position >= length) {
+            encoder.complete();
+        }
+    }
+
+    /*
+     * Called once the request is sent, or failed. Releases the temporary file.
+     * Content is produced from the start again, if it is ever produced after this.
+     */
+    @Override
+    public synchronized void close() {
+        position = 0;
+        readBuffer = null;
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch(IOException ioEx) {
+                log.error("Unable to close the spooled request content.", ioEx);
+            }
+            channel = null;
+        }
+    }
+
+    /*
+     * Deletes the temporary file, if any. Entity cannot be produced or read after this.
+     */
+    public void discard() {
+        close();
+        if(file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch(IOException ioEx) {
+                log.error("Unable to delete the spooled request content " + file + ".", ioEx);
+            }
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if(channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    /*
+     * Keeps the content in memory until it crosses the threshold. Moves it to a temporary file then.
+     */
+    private static class ThresholdOutputStream extends OutputStream {
+        private final int threshold;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private Path file;
+        private OutputStream fileStream;
+        private long count;
+
+        ThresholdOutputStream(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(fileStream == null && count + len > threshold) {
+                file = Files.createTempFile("sm-spool-", ".tmp");
+                fileStream = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+                memory.writeTo(fileStream);
+                memory = null;
+            }
+            if(fileStream != null) {
+                fileStream.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(fileStream != null) {
+                fileStream.close();
+            }
+        }
+        
+        // Deletes the temporary file of a failed write.
+        void discard() {
+            try {
+                close();
+            } catch(IOException ioEx) {
+                // Being deleted anyway.
+            }
+            if(file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch(IOException ioEx) {
+                    log.error("Unable to delete the spooled request content " + file + ".", ioEx);
+                }
+            }
+        }
+    }
+}
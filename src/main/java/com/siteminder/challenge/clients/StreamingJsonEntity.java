@@ -0,0 +1,62 @@
+package com.siteminder.challenge.clients;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/*
+ * HTTP entity which serializes its value as JSON directly into the request stream.
+ * Unlike a StringEntity, the JSON document is never held in memory, so large values
+ * (like Base64 encoded attachments) are written using only the buffers of the generator.
+ * Content is sent chunked, as its length is unknown until it is written.
+ */
+public class StreamingJsonEntity extends AbstractHttpEntity {
+    private final ObjectWriter writer;
+    private final Object value;
+    
+    public StreamingJsonEntity(ObjectWriter writer, Object value) {
+        // The connection stream is managed by the HTTP client. It must stay open once the value is written.
+        this.writer = writer.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.value = value;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        setChunked(true);
+    }
+    
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+    
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+    
+    /*
+     * Only for callers which must read the entity. Buffers the whole document.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTo(buffer);
+        return new ByteArrayInputStream(buffer.toByteArray());
+    }
+    
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        writer.writeValue(outStream, value);
+    }
+    
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -0,0 +1,82 @@
+package com.siteminder.challenge.clients;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+/*
+ * Multipart body writing a text as UTF-8, encoded in small chunks straight into the request stream.
+ * Unlike a StringBody, the encoded text is never held in memory as a whole, which matters for large HTML bodies.
+ * Encoded length is counted from the chars, so the multipart entity still knows its length.
+ */
+public class TextContentBody extends AbstractContentBody {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final String text;
+    private final long length;
+
+    public TextContentBody(String text, ContentType contentType) {
+        super(contentType.withCharset(StandardCharsets.UTF_8));
+        this.text = text;
+        this.length = utf8Length(text);
+    }
+
+    @Override
+    public String getFilename() {
+        return null;
+    }
+
+    @Override
+    public String getTransferEncoding() {
+        return "8bit";
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        // Writer is flushed but not closed, as the request stream is written on after this body.
+        // Text is handed over in chunks, as writing a whole String copies it into a char array first.
+        Writer writer = new OutputStreamWriter(outStream, StandardCharsets.UTF_8);
+        char[] chunk = new char[CHUNK_SIZE];
+        int count = text.length();
+        for(int offset = 0; offset < count; offset += CHUNK_SIZE) {
+            int end = Math.min(count, offset + CHUNK_SIZE);
+            text.getChars(offset, end, chunk, 0);
+            writer.write(chunk, 0, end - offset);
+        }
+        writer.flush();
+    }
+
+    /*
+     * Bytes of the text encoded as UTF-8. Unpaired surrogates are encoded as '?', as the encoder does.
+     */
+    static long utf8Length(String text) {
+        long length = 0;
+        int count = text.length();
+        for(int i = 0; i < count; i++) {
+            char ch = text.charAt(i);
+            if(ch < 0x80) {
+                length += 1;
+            } else if(ch < 0x800) {
+                length += 2;
+            } else if(Character.isHighSurrogate(ch) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if(Character.isSurrogate(ch)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
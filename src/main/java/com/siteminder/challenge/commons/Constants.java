@@ -27,10 +27,27 @@ public final class Constants {
         public static final String MAX_RECIPIENT = "Target recipients crossed the maximum limit.";
         public static final String ATTACHMENT_FAILED = "Unable to attach the file.";
         public static final String SERVICE_API_FAILURE = "Unable to invoke the send API of configured mail service.";
-        public static final String INVALID_MESSAGE = "Invalid message. Message size should not be 0.";
+        public static final String INVALID_MESSAGE = "Invalid message. Message or HTML should be given, and its size should not be 0.";
         public static final String INVALID_SUBJECT = "Invalid subject. Subject size should not be 0.";
         public static final String INVALID_ATTACHMENT = "Invalid attachment. Attachment size should not be 0.";
+        public static final String UNKNOWN_INLINE_ATTACHMENT = "Unknown inline attachment. Names in inline must match the filename of an attachment of the email.";
+        public static final String BATCH_PROCESSED = "Batch processed. Please refer to the results for the status of each email.";
+        public static final String EMPTY_BATCH = "No emails found in the batch. Please provide an array or newline delimited email params.";
+        public static final String BATCH_LIMIT_EXCEEDED = "Batch crossed the maximum number of emails. Remaining emails are ignored.";
+        public static final String OUTBOX_FAILURE = "Unable to record the email in the outbox.";
+        public static final String SERVICE_RATE_LIMITED = "Mail service rate limit reached. It will be tried again later.";
+        public static final String SERVICE_CIRCUIT_OPEN = "Mail service is skipped, as it is failing. It will be tried again once it recovers.";
+        public static final String DELIVERY_QUEUE_FULL = "Mail delivery queue is full. Please retry later.";
         public static final String MAIL_SIZE_EXCEEDED = "Mail size exceeded. Mail size including subject, message and attachments should not exceed 20 MB.";
+        public static final String UNKNOWN_ATTACHMENT = "Unknown attachment id. Attachments must be stored using the attachments API before they are referenced.";
+        public static final String ATTACHMENTS_STORED = "Attachments stored. Refer to them by id in attachment_ids of email params.";
+        public static final String TEMPLATE_STORED = "Template stored. Refer to it by id in template_id of email params.";
+        public static final String INVALID_TEMPLATE = "Invalid template. Subject, and message or HTML are required, and every {{ must be closed by }}.";
+        public static final String TEMPLATE_FAILED = "Unable to store the template.";
+        public static final String INVALID_TEMPLATE_ID = "Invalid template id. Use up to 64 letters, digits, '-' or '_'.";
+        public static final String UNKNOWN_TEMPLATE = "Unknown template id. Templates must be stored using the templates API before they are referenced.";
+        public static final String MISSING_TEMPLATE_VARIABLE = "Template variable is missing in template_variables of email params.";
+        public static final String MALFORMED_FORM_DATA = "Form data is malformed. Expected a multipart/form-data body with a boundary.";
         
         public static final String SERVICE_JSON_FAILURE = "Failure in forming the input to configured mail service.";
         public static final String SERVICE_PROTOCOL_FAILURE = "Error in the HTTP protocol used to connect with configured mail service.";
@@ -40,7 +57,14 @@ public final class Constants {
     
     public final class Limitations {
         public static final short MAX_RECIPIENT = 1000;
+        public static final short MAX_SENDGRID_PERSONALIZATIONS = 1000;
+        public static final short MAX_MAILGUN_BATCH_RECIPIENTS = 1000;
         public static final long MAX_MAIL_SIZE = 20 * 1024 * 1024; // 20 MB     
+        public static final long MAX_RETRY_AFTER = 24 * 60 * 60 * 1000; // 1 day in ms
+    }
+    
+    public final class MailHeaders {
+        public static final String MESSAGE_ID = "Message-ID";
     }
     
     public final class MailGun {
@@ -51,6 +75,10 @@ public final class Constants {
         public static final String ATTACHMENT = "attachment";
         public static final String SUBJECT = "subject";
         public static final String TEXT_MESSAGE = "text";       
+        public static final String HTML_MESSAGE = "html";
+        public static final String INLINE = "inline";
+        public static final String RECIPIENT_VARIABLES = "recipient-variables";
+        public static final String MESSAGE_ID = "h:Message-Id";
         public static final String MAIL_SEPARATOR = ",";
     }
 }
@@ -0,0 +1,77 @@
+package com.siteminder.challenge.commons;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/*
+ * Frees direct and memory mapped buffers right away, instead of waiting for the garbage collector to find them.
+ * Cleaner of a buffer is looked up at runtime: Unsafe.invokeCleaner(ByteBuffer) from Java 9, and
+ * DirectBuffer.cleaner() on Java 8. When neither is available, buffers are left to the garbage collector.
+ * A buffer must not be read after it is freed, by any of its views either.
+ */
+public final class DirectBuffers {
+    private static final Log log = LogFactory.getLog(DirectBuffers.class);
+
+    // Unsafe instance and its invokeCleaner(ByteBuffer), from Java 9.
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    // DirectBuffer.cleaner() and Cleaner.clean(), on Java 8.
+    private static final Method CLEANER;
+    private static final Method CLEAN;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        Method cleaner = null;
+        Method clean = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch(ReflectiveOperationException | RuntimeException unsafeEx) {
+            invokeCleaner = null;
+            try {
+                cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch(ReflectiveOperationException | RuntimeException cleanerEx) {
+                cleaner = null;
+                log.info("Direct buffers cannot be freed explicitly. They are left to the garbage collector.");
+            }
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private DirectBuffers() {
+    }
+
+    /*
+     * Frees the memory (or unmaps the file) of a direct buffer. Buffer must be the one allocated or mapped,
+     * not a duplicate or a slice of it. Heap buffers are ignored.
+     */
+    public static void free(ByteBuffer buffer) {
+        if(buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            if(INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else if(CLEANER != null) {
+                Object cleaner = CLEANER.invoke(buffer);
+                if(cleaner != null) {
+                    CLEAN.invoke(cleaner);
+                }
+            }
+        } catch(ReflectiveOperationException | RuntimeException ex) {
+            log.error("Unable to free a direct buffer. It is left to the garbage collector.", ex);
+        }
+    }
+}
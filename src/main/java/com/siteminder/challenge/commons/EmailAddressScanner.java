@@ -0,0 +1,201 @@
+package com.siteminder.challenge.commons;
+
+/*
+ * Single pass validator of email addresses, as per the Mailbox syntax of RFC 5321 (section 4.1.2).
+ *   Mailbox    = Local-part "@" ( Domain / address-literal )
+ *   Local-part = Dot-string / Quoted-string
+ *   Domain     = sub-domain *("." sub-domain)
+ * Walks the address once, character by character, without allocating.
+ * On top of the RFC, the domain must have at least two labels and the top level label must start
+ * with a letter, as addresses are delivered over the internet (no local or numeric only domains).
+ */
+public final class EmailAddressScanner {
+    private static final int MAX_LOCAL_PART = 64;
+    private static final int MAX_DOMAIN = 255;
+    private static final int MAX_LABEL = 63;
+    // Maximum forward-path (256) without the angle brackets.
+    private static final int MAX_ADDRESS = 254;
+    private static final String IPV6_TAG = "IPv6:";
+    
+    /*
+     * Returns true when the whole string is a valid email address.
+     */
+    public static boolean isValid(String address) {
+        if(address == null) {
+            return false;
+        }
+        
+        int length = address.length();
+        if(length == 0 || length > MAX_ADDRESS) {
+            return false;
+        }
+        
+        int at = address.charAt(0) == '"' ? scanQuotedString(address, length) : scanDotString(address, length);
+        if(at <= 0 || at > MAX_LOCAL_PART || at >= length - 1 || address.charAt(at) != '@') {
+            return false;
+        }
+        
+        int domainStart = at + 1;
+        if(address.charAt(domainStart) == '[') {
+            return scanAddressLiteral(address, domainStart, length);
+        }
+        return scanDomain(address, domainStart, length);
+    }
+    
+    // Dot-string = Atom *("." Atom). Returns the position of '@', or -1.
+    private static int scanDotString(String address, int length) {
+        boolean atomStart = true;
+        for(int i = 0; i < length; i++) {
+            char c = address.charAt(i);
+            if(c == '@') {
+                return atomStart ? -1 : i;
+            } else if(c == '.') {
+                if(atomStart) {
+                    return -1;
+                }
+                atomStart = true;
+            } else if(isAtext(c)) {
+                atomStart = false;
+            } else {
+                return -1;
+            }
+        }
+        return -1;
+    }
+    
+    // Quoted-string = DQUOTE *(qtextSMTP / quoted-pairSMTP) DQUOTE. Returns the position after it, or -1.
+    private static int scanQuotedString(String address, int length) {
+        for(int i = 1; i < length; i++) {
+            char c = address.charAt(i);
+            if(c == '"') {
+                return i + 1 < length ? i + 1 : -1;
+            }
+            if(c == '\\') {
+                if(++i >= length) {
+                    return -1;
+                }
+                c = address.charAt(i);
+            }
+            if(c < 32 || c > 126) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+    
+    // sub-domain = Let-dig [Ldh-str]. Labels are at most 63 characters.
+    private static boolean scanDomain(String address, int start, int length) {
+        if(length - start > MAX_DOMAIN) {
+            return false;
+        }
+        
+        int labelStart = start;
+        int labels = 0;
+        for(int i = start; i < length; i++) {
+            char c = address.charAt(i);
+            if(c == '.') {
+                if(!isLabelEnd(address, labelStart, i)) {
+                    return false;
+                }
+                labels++;
+                labelStart = i + 1;
+            } else if(c == '-') {
+                if(i == labelStart) {
+                    return false;
+                }
+            } else if(!isLetter(c) && !isDigit(c)) {
+                return false;
+            }
+        }
+        
+        return isLabelEnd(address, labelStart, length) && labels >= 1 && isLetter(address.charAt(labelStart));
+    }
+    
+    private static boolean isLabelEnd(String address, int labelStart, int end) {
+        int labelLength = end - labelStart;
+        return labelLength > 0 && labelLength <= MAX_LABEL && address.charAt(end - 1) != '-';
+    }
+    
+    // address-literal = "[" ( IPv4-address-literal / IPv6-address-literal ) "]"
+    private static boolean scanAddressLiteral(String address, int start, int length) {
+        if(address.charAt(length - 1) != ']') {
+            return false;
+        }
+        
+        int end = length - 1;
+        if(address.startsWith(IPV6_TAG, start + 1)) {
+            return scanIpv6(address, start + 1 + IPV6_TAG.length(), end);
+        }
+        return scanIpv4(address, start + 1, end);
+    }
+    
+    // Snum 3("." Snum). Snum is a number from 0 to 255.
+    private static boolean scanIpv4(String address, int start, int end) {
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for(int i = start; i <= end; i++) {
+            char c = i < end ? address.charAt(i) : '.';
+            if(c == '.') {
+                if(digits == 0 || ++octets > 4) {
+                    return false;
+                }
+                value = 0;
+                digits = 0;
+            } else if(isDigit(c) && digits < 3) {
+                value = value * 10 + (c - '0');
+                digits++;
+                if(value > 255) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        return octets == 4;
+    }
+    
+    // IPv6 address, in its full or compressed form. Checked for its characters and group count only.
+    private static boolean scanIpv6(String address, int start, int end) {
+        int groups = 1;
+        int groupLength = 0;
+        for(int i = start; i < end; i++) {
+            char c = address.charAt(i);
+            if(c == ':') {
+                groups++;
+                groupLength = 0;
+            } else if(isHexDigit(c) && ++groupLength <= 4) {
+                continue;
+            } else {
+                return false;
+            }
+        }
+        return end - start >= 2 && groups >= 3 && groups <= 8;
+    }
+    
+    // atext of RFC 5322: ALPHA / DIGIT / "!" / "#" / "$" / "%" / "&" / "'" / "*" / "+" / "-" / "/" / "=" / "?" / "^" / "_" / "`" / "{" / "|" / "}" / "~"
+    private static boolean isAtext(char c) {
+        if(isLetter(c) || isDigit(c)) {
+            return true;
+        }
+        switch(c) {
+            case '!': case '#': case '$': case '%': case '&': case '\'': case '*': case '+': case '-':
+            case '/': case '=': case '?': case '^': case '_': case '`': case '{': case '|': case '}': case '~':
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
@@ -0,0 +1,31 @@
+package com.siteminder.challenge.commons;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.siteminder.challenge.models.EmailParams;
+import com.siteminder.challenge.models.EmailTemplate;
+import com.siteminder.challenge.models.StoredAttachmentInfo;
+import com.siteminder.challenge.models.sendgrid.SgMail;
+import com.siteminder.challenge.outbox.OutboxEntry;
+
+/*
+ * Holds the JSON readers and writers used in this project.
+ * Readers and writers are immutable and thread-safe. They are built once, so the serializers and
+ * deserializers of each type are looked up once and shared by every request.
+ */
+public final class JsonMappers {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    
+    public static final ObjectReader EMAIL_PARAMS_READER = mapper.readerFor(EmailParams.class);
+    public static final ObjectReader JSON_TREE_READER = mapper.readerFor(JsonNode.class);
+    public static final ObjectWriter SG_MAIL_WRITER = mapper.writerFor(SgMail.class);
+    public static final ObjectReader OUTBOX_ENTRY_READER = mapper.readerFor(OutboxEntry.class);
+    public static final ObjectWriter OUTBOX_ENTRY_WRITER = mapper.writerFor(OutboxEntry.class);
+    public static final ObjectReader STORED_ATTACHMENT_READER = mapper.readerFor(StoredAttachmentInfo.class);
+    public static final ObjectWriter STORED_ATTACHMENT_WRITER = mapper.writerFor(StoredAttachmentInfo.class);
+    public static final ObjectReader EMAIL_TEMPLATE_READER = mapper.readerFor(EmailTemplate.class);
+    public static final ObjectWriter EMAIL_TEMPLATE_WRITER = mapper.writerFor(EmailTemplate.class);
+    public static final ObjectWriter JSON_WRITER = mapper.writer();
+}
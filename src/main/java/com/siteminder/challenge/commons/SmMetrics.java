@@ -0,0 +1,164 @@
+package com.siteminder.challenge.commons;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * Meters of the send path, registered in the global registry like the rest of the meters of this project.
+ * With the actuator, the global registry feeds the Prometheus registry scraped from /actuator/prometheus.
+ * Latencies and sizes publish histograms, so that percentiles can be aggregated across instances.
+ * Meters are registered on first use and kept by name and tag values. Global registry hands out a new meter before
+ * it reaches the registries under it, so a meter must not be used by another thread until it is registered.
+ */
+public final class SmMetrics {
+    // Outcomes of a call to a mailing service, and the reasons of its errors.
+    public static final String SUCCESS = "success";
+    public static final String ERROR = "error";
+    public static final String REASON_AUTH = "auth";
+    public static final String REASON_RATE_LIMITED = "rate_limited";
+    public static final String REASON_REJECTED = "rejected";
+    public static final String REASON_UNAVAILABLE = "unavailable";
+    public static final String REASON_PROTOCOL = "protocol";
+    public static final String REASON_IO = "io";
+    public static final String REASON_ABORTED = "aborted";
+
+    // Failover target of the emails left once every mailing service is tried.
+    private static final String NO_SERVICE = "none";
+
+    private static final ConcurrentHashMap<List<String>, Meter> meters = new ConcurrentHashMap<>();
+
+    private SmMetrics() {
+    }
+
+    /*
+     * Time taken to parse the email params of an email.
+     */
+    public static void recordParse(long startNanos) {
+        SmMetrics.<Timer>meter(key -> Timer.builder("smchallenge.email.parse")
+                .description("Time taken to parse the email params of an email")
+                .register(Metrics.globalRegistry), "smchallenge.email.parse")
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * Time taken to render and validate an email, its attachments and its size.
+     */
+    public static void recordValidate(long startNanos) {
+        SmMetrics.<Timer>meter(key -> Timer.builder("smchallenge.email.validate")
+                .description("Time taken to render and validate an email, its attachments and its size")
+                .register(Metrics.globalRegistry), "smchallenge.email.validate")
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * Size of the accepted emails: subject, message, HTML and the Base64 size of the attachments.
+     */
+    public static void recordMailSize(long size) {
+        SmMetrics.<DistributionSummary>meter(key -> DistributionSummary.builder("smchallenge.email.size")
+                .description("Size of the accepted emails, with the Base64 size of their attachments")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1L)
+                .maximumExpectedValue(Constants.Limitations.MAX_MAIL_SIZE)
+                .register(Metrics.globalRegistry), "smchallenge.email.size")
+                .record(size);
+    }
+
+    /*
+     * Time taken by a mailing service client to build its request.
+     */
+    public static void recordRequestBuild(String serviceName, long startNanos) {
+        SmMetrics.<Timer>meter(key -> Timer.builder("smchallenge.mail.request.build")
+                .description("Time taken to build the request of the mailing service")
+                .tag("service", key.get(1))
+                .register(Metrics.globalRegistry), "smchallenge.mail.request.build", serviceName.toLowerCase())
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * Time taken by a call to a mailing service, from sending the request to reading the response status.
+     * Error reasons of failed calls are counted on their own.
+     */
+    public static void recordServiceCall(String serviceName, long startNanos, String errorReason) {
+        String service = serviceName.toLowerCase();
+        SmMetrics.<Timer>meter(key -> Timer.builder("smchallenge.mail.service.request")
+                .description("Time taken by the calls to the mailing service")
+                .tag("service", key.get(1))
+                .tag("outcome", key.get(2))
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry),
+                "smchallenge.mail.service.request", service, errorReason == null ? SUCCESS : ERROR)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if(errorReason != null) {
+            SmMetrics.<Counter>meter(key -> Counter.builder("smchallenge.mail.service.errors")
+                    .description("Failed calls to the mailing service, by reason")
+                    .tag("service", key.get(1))
+                    .tag("reason", key.get(2))
+                    .register(Metrics.globalRegistry), "smchallenge.mail.service.errors", service, errorReason)
+                    .increment();
+        }
+    }
+
+    /*
+     * Emails failed over from a mailing service to the next one. Target is null when none is left.
+     */
+    public static void recordFailover(String fromServiceName, String toServiceName, int emailCount) {
+        SmMetrics.<Counter>meter(key -> Counter.builder("smchallenge.mail.service.failover")
+                .description("Emails failed over from the mailing service to the next one")
+                .tag("from", key.get(1))
+                .tag("to", key.get(2))
+                .register(Metrics.globalRegistry), "smchallenge.mail.service.failover",
+                fromServiceName.toLowerCase(), toServiceName != null ? toServiceName.toLowerCase() : NO_SERVICE)
+                .increment(emailCount);
+    }
+
+    /*
+     * Calls hedged with the next mailing service, as the current one did not answer within the hedge delay.
+     */
+    public static void recordHedge(String serviceName, String hedgeServiceName) {
+        SmMetrics.<Counter>meter(key -> Counter.builder("smchallenge.mail.service.hedge")
+                .description("Calls hedged with the next mailing service")
+                .tag("from", key.get(1))
+                .tag("to", key.get(2))
+                .register(Metrics.globalRegistry), "smchallenge.mail.service.hedge",
+                serviceName.toLowerCase(), hedgeServiceName.toLowerCase())
+                .increment();
+    }
+
+    /*
+     * Reason of an error answer of a mailing service, by its status code.
+     */
+    public static String reasonOf(int statusCode) {
+        if(statusCode == 401 || statusCode == 403) {
+            return REASON_AUTH;
+        } else if(statusCode == 429) {
+            return REASON_RATE_LIMITED;
+        } else if(statusCode >= 400 && statusCode < 500) {
+            return REASON_REJECTED;
+        }
+        return REASON_UNAVAILABLE;
+    }
+
+    /*
+     * Returns the meter kept under the given name and tag values, registering it on first use.
+     * Threads using the meter meanwhile wait until it is registered.
+     */
+    @SuppressWarnings("unchecked")
+    private static <M extends Meter> M meter(Function<List<String>, M> register, String... nameAndTagValues) {
+        List<String> key = Arrays.asList(nameAndTagValues);
+        Meter meter = meters.get(key);
+        if(meter == null) {
+            meter = meters.computeIfAbsent(key, register);
+        }
+        return (M) meter;
+    }
+}
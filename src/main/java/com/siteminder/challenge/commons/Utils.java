@@ -4,18 +4,27 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
-import org.apache.commons.validator.GenericValidator;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.web.multipart.MultipartFile;
 
 import com.siteminder.challenge.core.ApiResException;
 import com.siteminder.challenge.models.ApiResponse;
 import com.siteminder.challenge.models.Email;
+import com.siteminder.challenge.models.EmailParams;
 
 /*
  * Implementation of all common utility methods
  */
 public final class Utils {
+    private static final Log log = LogFactory.getLog(Utils.class);
+    
     /*
      * Constructs an API response from input status and message parameters.
      */
@@ -28,23 +37,57 @@ public final class Utils {
      * Validates the format of an email address
      */
     public static boolean isValidEmailFormat(String email) {
-        boolean res = false;
+        return EmailAddressScanner.isValid(email);
+    }
+    
+    /*
+     * Verify whether the email recipients mentioned are valid and does
+     * not exceed the maximum allowed recipients.
+     */
+    public static void validateEmailParams(EmailParams emailParams) throws ApiResException {
+        validateEmailParams(emailParams, false);
+    }
+    
+    /*
+     * Same as above. When ignoreLocalPartCase is set, recipients differing only in the case
+     * of their local part (before @) are considered duplicates as well.
+     */
+    public static void validateEmailParams(EmailParams emailParams, boolean ignoreLocalPartCase) 
+                                                throws ApiResException {
+        if(emailParams == null) {
+            log.error(Constants.ApiStatusMessages.EMPTY_MAIL_PARAMS);
+            throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.EMPTY_MAIL_PARAMS);
+        }
         
-        if(email == null || email.isEmpty() ) {
-            return res;
+        validateEmails(emailParams, ignoreLocalPartCase);
+        validateMessage(emailParams);
+        emailParams.setValidated(true);
+    }
+    
+    /*
+     * Verify that none of the attachments are zero sized.
+     */
+    public static void validateAttachments(List<MultipartFile> attachments) throws ApiResException {
+        if(attachments == null) {
+            return;
         }
-        if(GenericValidator.isEmail(email)) {
-            res = true;
+        
+        for(MultipartFile file : attachments) {
+            if(file.isEmpty()) {
+                String errMsg = Constants.ApiStatusMessages.INVALID_ATTACHMENT;
+                log.error(errMsg + " " + file.getOriginalFilename());
+                throw new ApiResException(HttpStatus.BAD_REQUEST, errMsg);
+            }
         }
-        return res;
     }
     
     /*
      * Validates the recipient list.
      * Throws exception on finding duplicate recipients and invalid email address formats.
+     * Recipients are compared in their normalized form. See normalizeEmail.
      */ 
-    public static void validateRecipientList(List<Email> listToCheck, String msgToReturn,
-                                                /*out*/ List<String> activeRecipients) throws ApiResException {
+    public static void validateRecipientList(List<Email> listToCheck, String msgToReturn, boolean ignoreLocalPartCase,
+                                                /*out*/ Set<String> activeRecipients) throws ApiResException {
         for(Email emailEntry : listToCheck) {
             String email = emailEntry.getEmail();
             if(!Utils.isValidEmailFormat(email)) {
@@ -52,9 +95,9 @@ public final class Utils {
                 throw new ApiResException(HttpStatus.BAD_REQUEST, msgToReturn + " " + email);
             }
             
-            if(!activeRecipients.contains(email)) {
-                activeRecipients.add(email);
-            } else {
+            String normalizedEmail = normalizeEmail(email, ignoreLocalPartCase);
+            emailEntry.setNormalizedEmail(normalizedEmail);
+            if(!activeRecipients.add(normalizedEmail)) {
                 throw new ApiResException(HttpStatus.BAD_REQUEST, 
                                             Constants.ApiStatusMessages.DUPLICATE_RECEPIENT + " " + email);
             }
@@ -66,13 +109,52 @@ public final class Utils {
     }
     
     /*
-     * Converts the Email object to MailGun email format
+     * Normalized form of an email address, used to find duplicate recipients.
+     * Domain is case-insensitive, so it is always lower-cased. Local part is case-sensitive
+     * as per RFC 5321, but most mail servers ignore its case. So, it is lower-cased only on request.
+     */
+    public static String normalizeEmail(String email, boolean ignoreLocalPartCase) {
+        if(ignoreLocalPartCase) {
+            return email.toLowerCase(Locale.ROOT);
+        }
+        
+        int at = email.lastIndexOf('@');
+        String domain = email.substring(at + 1);
+        String lowerDomain = domain.toLowerCase(Locale.ROOT);
+        if(lowerDomain.equals(domain)) {
+            return email;
+        }
+        return email.substring(0, at + 1) + lowerDomain;
+    }
+    
+    /*
+     * Length of the Base64 encoding (with padding) of the given number of bytes.
+     * Mail size limits are based on the Base64 size, as SendGrid accepts attachments as Base64 strings.
+     */
+    public static long getBase64Size(long size) {
+        return 4 * ((size + 2) / 3);
+    }
+    
+    /*
+     * Generates a unique Message-ID header for an email from the input sender address.
+     * Right side of the id is the domain of the sender, as suggested by RFC 5322.
+     */
+    public static String generateMessageId(String fromEmail) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String domain = fromEmail.substring(fromEmail.lastIndexOf('@') + 1);
+        return "<" + Long.toHexString(System.currentTimeMillis()) + "." + Long.toHexString(random.nextLong())
+                + "." + Long.toHexString(random.nextLong()) + "@" + domain + ">";
+    }
+    
+    /*
+     * Converts the Email object to MailGun email format.
+     * Expects a validated address. It is not validated again.
      */
     public static String getMailGunMailFormat(Email emailObj) {
         String outString = null;
         String email = emailObj.getEmail();
         
-        if(email != null && isValidEmailFormat(email)) {
+        if(email != null && !email.isEmpty()) {
             String name = emailObj.getName();
             if (name != null && !name.isEmpty()) {
                 outString = name + " <" + email + ">";
@@ -105,5 +187,70 @@ public final class Utils {
         outString = String.join(",", mailGunMailList);
         
         return outString;
-    }   
+    }
+    
+    // Validates the email addresses
+    private static void validateEmails(EmailParams emailParams, boolean ignoreLocalPartCase) throws ApiResException {
+        Email from = emailParams.getFrom();
+        
+        if(from == null) {
+            HttpStatus status = HttpStatus.BAD_REQUEST;
+            String errMsg = Constants.ApiStatusMessages.INVALID_FROM; 
+            log.error(errMsg);
+            throw new ApiResException(status, errMsg);
+        }
+        
+        String fromMail = from.getEmail();
+        if(!Utils.isValidEmailFormat(fromMail)) {
+            HttpStatus status = HttpStatus.BAD_REQUEST;
+            String errMsg = Constants.ApiStatusMessages.INVALID_FROM_EMAIL; 
+            log.error(errMsg);
+            throw new ApiResException(status, errMsg);
+        }
+        
+        validateRecipients(emailParams, ignoreLocalPartCase);
+    }
+    
+    // Validates the to, cc and bcc recipients  
+    private static void validateRecipients(EmailParams emailParams, boolean ignoreLocalPartCase) throws ApiResException {
+        List<Email> to = emailParams.getTo();
+        List<Email> cc = emailParams.getCc();
+        List<Email> bcc = emailParams.getBcc();
+        
+        if(to == null || to.isEmpty()) {
+            HttpStatus status = HttpStatus.BAD_REQUEST;
+            String errMsg = Constants.ApiStatusMessages.INVALID_TO; 
+            log.error(errMsg);
+            throw new ApiResException(status, errMsg);          
+        }
+        
+        // Sized for all the recipients, so that the set never rehashes. Lookups are O(1) on average.
+        int count = to.size() + (cc == null ? 0 : cc.size()) + (bcc == null ? 0 : bcc.size());
+        Set<String> recipients = new HashSet<>((int) (count / 0.75f) + 1);
+        Utils.validateRecipientList(to, Constants.ApiStatusMessages.INVALID_TO_EMAIL, ignoreLocalPartCase, recipients);
+        
+        if(cc != null && cc.size() > 0) {
+            Utils.validateRecipientList(cc, Constants.ApiStatusMessages.INVALID_CC_EMAIL, ignoreLocalPartCase, recipients);
+        }
+        
+        if(bcc != null && bcc.size() > 0) {
+            Utils.validateRecipientList(bcc, Constants.ApiStatusMessages.INVALID_BCC_EMAIL, ignoreLocalPartCase, recipients);
+        }       
+    }
+    
+    // Validates subject and message (email body). Either the plain text message or its HTML alternative is enough.
+    private static void validateMessage(EmailParams emailParams) throws ApiResException {
+        String message = emailParams.getMessage();
+        String html = emailParams.getHtml();
+        if((message == null || message.isEmpty()) && (html == null || html.isEmpty())) {
+            log.error(Constants.ApiStatusMessages.INVALID_MESSAGE);
+            throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_MESSAGE);
+        }
+        
+        String subject = emailParams.getSubject();
+        if(subject == null || subject.isEmpty()) {
+            log.error(Constants.ApiStatusMessages.INVALID_SUBJECT);
+            throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_SUBJECT);
+        }       
+    }
 }
@@ -0,0 +1,97 @@
+package com.siteminder.challenge.commons;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/*
+ * Virtual threads of Java 21, looked up at runtime. The project is built for Java 8, so the same build
+ * runs on older JDKs (without virtual threads) and on newer ones (with them).
+ * A virtual thread blocked on I/O does not hold a platform thread, so a thread per request or per
+ * mailing service call costs next to nothing.
+ */
+public final class VirtualThreads {
+    private static final Log log = LogFactory.getLog(VirtualThreads.class);
+
+    // Thread.ofVirtual(), Thread.Builder.name(String, long), Thread.Builder.factory() and
+    // Executors.newThreadPerTaskExecutor(ThreadFactory). Null when not supported.
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builderClass.getMethod("name", String.class, long.class);
+            factory = builderClass.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch(ReflectiveOperationException roEx) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /*
+     * Factory of virtual threads named with the given prefix and a counter.
+     * Throws UnsupportedOperationException before Java 21.
+     */
+    public static ThreadFactory newThreadFactory(String namePrefix) {
+        if(!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later.");
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch(ReflectiveOperationException roEx) {
+            throw new UnsupportedOperationException("Virtual threads are not available.", roEx);
+        }
+    }
+
+    /*
+     * Executor starting a new virtual thread for every task. Throws UnsupportedOperationException before Java 21.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, newThreadFactory(namePrefix));
+        } catch(ReflectiveOperationException roEx) {
+            throw new UnsupportedOperationException("Virtual threads are not available.", roEx);
+        }
+    }
+
+    /*
+     * Returns a virtual thread per task executor when virtual threads are enabled and supported.
+     * Returns null otherwise, so that the caller falls back to its platform threads.
+     */
+    public static ExecutorService newExecutorIfEnabled(boolean enabled, String namePrefix) {
+        if(!enabled) {
+            return null;
+        }
+        try {
+            return newThreadPerTaskExecutor(namePrefix);
+        } catch(UnsupportedOperationException uoEx) {
+            log.error("Virtual threads need Java 21 or later. Running on " + System.getProperty("java.version")
+                        + ". Platform threads are used instead.");
+            return null;
+        }
+    }
+}
@@ -12,11 +12,19 @@ public class ApiResException extends Exception {
     private HttpStatus status;
     private String message;
     
+    // Milliseconds to wait before trying again, as asked by a mailing service. -1 when not given.
+    private long retryAfter = -1;
+    
     public ApiResException(HttpStatus status, String message) {
         super(message);
         this.message = message;
         this.status = status;
     }
+    
+    public ApiResException(HttpStatus status, String message, long retryAfter) {
+        this(status, message);
+        this.retryAfter = retryAfter;
+    }
 
     public HttpStatus getStatus() {
         return status;
@@ -32,5 +40,34 @@ public class ApiResException extends Exception {
 
     public void setMessage(String message) {
         this.message = message;
-    }   
+    }
+    
+    /*
+     * Whether the failure may go away on its own, so that trying again later is worth it.
+     * Timeouts, rate limits and server errors (including connection failures and open circuits) are retryable.
+     * Everything else, i.e. bad requests and authorization failures, fails the same way every time.
+     */
+    public boolean isRetryable() {
+        if(status == null) {
+            return false;
+        }
+        switch(status) {
+            case REQUEST_TIMEOUT:
+            case TOO_MANY_REQUESTS:
+                return true;
+            case NOT_IMPLEMENTED:
+            case HTTP_VERSION_NOT_SUPPORTED:
+                return false;
+            default:
+                return status.is5xxServerError();
+        }
+    }
+    
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(long retryAfter) {
+        this.retryAfter = retryAfter;
+    }
 }
@@ -0,0 +1,169 @@
+package com.siteminder.challenge.core;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.siteminder.challenge.SmCircuitBreakerConfig;
+
+/*
+ * Circuit breaker of a mailing service.
+ * Closed: calls are allowed. Outcomes of the most recent calls are kept in a rolling window.
+ *         Circuit opens when the failure rate or the slow call rate of the window crosses its threshold.
+ * Open: calls are rejected right away, so the next mailing service is tried without waiting for timeouts.
+ *       Once the open duration is over, the mailing service is probed in the background.
+ * Half-open: probe succeeded. A few trial calls are allowed. Circuit closes when all of them succeed,
+ *            and opens again on the first failure.
+ */
+public class CircuitBreaker {
+    private static final Log log = LogFactory.getLog(CircuitBreaker.class);
+    
+    // Ordinal is exposed as the state metric.
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+    
+    private final String serviceName;
+    private final SmCircuitBreakerConfig config;
+    
+    // Rolling window of outcomes. Ring buffer of the last windowSize calls.
+    private final boolean[] failures;
+    private final boolean[] slowCalls;
+    private int next;
+    private int calls;
+    private int failureCount;
+    private int slowCallCount;
+    
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+    
+    public CircuitBreaker(String serviceName, SmCircuitBreakerConfig config) {
+        this.serviceName = serviceName;
+        this.config = config;
+        this.failures = new boolean[config.getWindowSize()];
+        this.slowCalls = new boolean[config.getWindowSize()];
+    }
+    
+    public String getServiceName() {
+        return serviceName;
+    }
+    
+    public synchronized State getState() {
+        return state;
+    }
+    
+    /*
+     * Returns true when a call to the mailing service is allowed.
+     * Every allowed call must be followed by a call to record.
+     */
+    public synchronized boolean allowRequest() {
+        if(!config.isEnabled()) {
+            return true;
+        }
+        
+        switch(state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if(halfOpenPermits > 0) {
+                    halfOpenPermits--;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+    
+    /*
+     * Records the outcome of a call allowed by allowRequest.
+     */
+    public synchronized void record(boolean failure, long durationMillis) {
+        if(!config.isEnabled()) {
+            return;
+        }
+        
+        if(state == State.HALF_OPEN) {
+            if(failure) {
+                open();
+            } else if(++halfOpenSuccesses >= config.getHalfOpenCalls()) {
+                close();
+            }
+        } else if(state == State.CLOSED) {
+            addToWindow(failure, durationMillis >= config.getSlowCallDuration());
+            if(calls >= config.getMinimumCalls()
+                    && (failureCount * 100 >= config.getFailureRateThreshold() * calls
+                        || slowCallCount * 100 >= config.getSlowCallRateThreshold() * calls)) {
+                open();
+            }
+        }
+        // Outcomes of calls completing after the circuit opened are ignored.
+    }
+    
+    /*
+     * Returns true when the circuit is open for longer than the open duration,
+     * and the mailing service should be probed.
+     */
+    public synchronized boolean isProbeDue() {
+        return state == State.OPEN && System.currentTimeMillis() - openedAt >= config.getOpenDuration();
+    }
+    
+    /*
+     * Records the outcome of a background probe.
+     * On success, a few trial calls are allowed. On failure, the circuit stays open for another open duration.
+     */
+    public synchronized void recordProbe(boolean success) {
+        if(state != State.OPEN) {
+            return;
+        }
+        
+        if(success) {
+            state = State.HALF_OPEN;
+            halfOpenPermits = config.getHalfOpenCalls();
+            halfOpenSuccesses = 0;
+        } else {
+            openedAt = System.currentTimeMillis();
+        }
+    }
+    
+    // Percentage of failed calls in the window.
+    public synchronized double getFailureRate() {
+        return calls == 0 ? 0 : failureCount * 100.0 / calls;
+    }
+    
+    private void addToWindow(boolean failure, boolean slow) {
+        if(calls == failures.length) {
+            failureCount -= failures[next] ? 1 : 0;
+            slowCallCount -= slowCalls[next] ? 1 : 0;
+        } else {
+            calls++;
+        }
+        
+        failures[next] = failure;
+        slowCalls[next] = slow;
+        failureCount += failure ? 1 : 0;
+        slowCallCount += slow ? 1 : 0;
+        next = (next + 1) % failures.length;
+    }
+    
+    private void open() {
+        log.error("Circuit of " + serviceName + " mail service is open. It is skipped until it recovers.");
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        resetWindow();
+    }
+    
+    private void close() {
+        log.info("Circuit of " + serviceName + " mail service is closed.");
+        state = State.CLOSED;
+        resetWindow();
+    }
+    
+    private void resetWindow() {
+        next = 0;
+        calls = 0;
+        failureCount = 0;
+        slowCallCount = 0;
+        halfOpenPermits = 0;
+        halfOpenSuccesses = 0;
+    }
+}
@@ -0,0 +1,63 @@
+package com.siteminder.challenge.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Takes the queued emails of a delivery worker.
+ * Along with the next queued email, the worker only takes the emails right behind it sharing its content,
+ * as those are sent in a single request. Emails with other content are left to the other workers, so that
+ * a burst of different emails is spread across all of them.
+ * First email found with other content is already out of the queue. It is held, and taken first next time.
+ */
+public class CoalescingDrain {
+    private final BlockingQueue<EmailDelivery> queue;
+    private final int coalesceLimit;
+    
+    // Taken from the queue by the last drain, but not sharing the content of the emails it took.
+    private EmailDelivery held;
+    
+    public CoalescingDrain(BlockingQueue<EmailDelivery> queue, int coalesceLimit) {
+        this.queue = queue;
+        this.coalesceLimit = coalesceLimit;
+    }
+    
+    /*
+     * Takes the next email, waiting up to the given timeout for one, and the emails behind it sharing its content
+     * (up to the coalesce limit). Returns an empty list when there is no email.
+     */
+    public List<EmailDelivery> take(long timeout, TimeUnit unit) throws InterruptedException {
+        List<EmailDelivery> deliveries = new ArrayList<>();
+        EmailDelivery first = held;
+        held = null;
+        if(first == null) {
+            first = queue.poll(timeout, unit);
+            if(first == null) {
+                return deliveries;
+            }
+        }
+        
+        deliveries.add(first);
+        while(deliveries.size() < coalesceLimit) {
+            EmailDelivery next = queue.poll();
+            if(next == null) {
+                break;
+            }
+            if(!EmailCoalescer.haveSameContent(first, next)) {
+                held = next;
+                break;
+            }
+            deliveries.add(next);
+        }
+        return deliveries;
+    }
+    
+    /*
+     * Whether an email taken from the queue is held for the next drain.
+     */
+    public boolean isHolding() {
+        return held != null;
+    }
+}
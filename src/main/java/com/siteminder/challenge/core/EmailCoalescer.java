@@ -0,0 +1,236 @@
+package com.siteminder.challenge.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.attachments.StoredAttachment;
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.commons.Utils;
+import com.siteminder.challenge.models.Email;
+import com.siteminder.challenge.models.EmailParams;
+
+/*
+ * Coalescing stage of the delivery workers.
+ * Groups queued emails sharing the same sender, subject, message, HTML and attachments into batches,
+ * so that a mail service which supports it can send a whole batch in one request.
+ */
+public final class EmailCoalescer {
+    private static final Log log = LogFactory.getLog(EmailCoalescer.class);
+    
+    /*
+     * Splits the deliveries into batches of emails with the same content.
+     * A batch holds at most maxBatchSize emails and at most MAX_RECIPIENT recipients in total.
+     * An email sent to a recipient already in the batch starts the next batch, so that every email is sent
+     * on its own, whichever the mail service.
+     * Order of the deliveries is kept within a batch.
+     */
+    public static List<List<EmailDelivery>> coalesce(List<EmailDelivery> deliveries, int maxBatchSize) {
+        return coalesce(deliveries, maxBatchSize, params -> true);
+    }
+    
+    /*
+     * Same as above, but only the emails accepted by the batchable test are coalesced.
+     * Every other email goes in a batch of its own.
+     */
+    public static List<List<EmailDelivery>> coalesce(List<EmailDelivery> deliveries, int maxBatchSize,
+                                                        Predicate<EmailParams> batchable) {
+        List<List<EmailDelivery>> batches = new ArrayList<>();
+        if(maxBatchSize <= 1) {
+            for(EmailDelivery delivery : deliveries) {
+                batches.add(singleton(delivery));
+            }
+            return batches;
+        }
+        
+        Map<ContentKey, List<EmailDelivery>> groups = new LinkedHashMap<>();
+        for(EmailDelivery delivery : deliveries) {
+            String attachmentsDigest = batchable.test(delivery.getEmailParams()) ? attachmentsDigest(delivery) : null;
+            if(attachmentsDigest == null) {
+                batches.add(singleton(delivery));
+            } else {
+                ContentKey key = new ContentKey(delivery.getEmailParams(), attachmentsDigest);
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(delivery);
+            }
+        }
+        
+        for(List<EmailDelivery> group : groups.values()) {
+            List<EmailDelivery> batch = new ArrayList<>();
+            Set<String> recipients = new HashSet<>();
+            for(EmailDelivery delivery : group) {
+                List<String> addresses = recipientAddresses(delivery.getEmailParams());
+                if(!batch.isEmpty() && (batch.size() >= maxBatchSize
+                                            || recipients.size() + addresses.size() > Constants.Limitations.MAX_RECIPIENT
+                                            || !disjoint(recipients, addresses))) {
+                    batches.add(batch);
+                    batch = new ArrayList<>();
+                    recipients.clear();
+                }
+                batch.add(delivery);
+                recipients.addAll(addresses);
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+    
+    /*
+     * Whether the next email shares the content of the first one, so that both may be sent in one batch.
+     */
+    public static boolean haveSameContent(EmailDelivery first, EmailDelivery next) {
+        String firstDigest = attachmentsDigest(first);
+        String nextDigest = firstDigest != null ? attachmentsDigest(next) : null;
+        return nextDigest != null && new ContentKey(first.getEmailParams(), firstDigest)
+                                            .equals(new ContentKey(next.getEmailParams(), nextDigest));
+    }
+    
+    /*
+     * Counts the to, cc and bcc recipients of an email.
+     */
+    public static int countRecipients(EmailParams params) {
+        return size(params.getTo()) + size(params.getCc()) + size(params.getBcc());
+    }
+    
+    private static int size(List<Email> emails) {
+        return emails == null ? 0 : emails.size();
+    }
+    
+    /*
+     * Addresses of the to, cc and bcc recipients of an email, compared ignoring their case.
+     * Emails read back from the outbox are not normalized yet, and ignoring the case of the local part
+     * as well only splits batches more often.
+     */
+    private static List<String> recipientAddresses(EmailParams params) {
+        List<String> addresses = new ArrayList<>(countRecipients(params));
+        addAddresses(params.getTo(), addresses);
+        addAddresses(params.getCc(), addresses);
+        addAddresses(params.getBcc(), addresses);
+        return addresses;
+    }
+    
+    private static void addAddresses(List<Email> emails, /*out*/ List<String> addresses) {
+        if(emails != null) {
+            for(Email email : emails) {
+                addresses.add(Utils.normalizeEmail(email.getEmail(), true));
+            }
+        }
+    }
+    
+    private static boolean disjoint(Set<String> recipients, List<String> addresses) {
+        for(String address : addresses) {
+            if(recipients.contains(address)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /*
+     * Digest identifying the attachments of an email: file names, content types and contents.
+     * Computed once per email. Empty when there are no attachments.
+     * Returns null when an attachment cannot be read, so that the email is not coalesced.
+     */
+    private static String attachmentsDigest(EmailDelivery delivery) {
+        List<MultipartFile> attachments = delivery.getAttachments();
+        if(attachments == null || attachments.isEmpty()) {
+            return "";
+        }
+        if(delivery.getAttachmentsDigest() != null) {
+            return delivery.getAttachmentsDigest();
+        }
+        
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            for(MultipartFile file : attachments) {
+                digest.update(String.valueOf(file.getOriginalFilename()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(String.valueOf(file.getContentType()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                if(file instanceof StoredAttachment) {
+                    // Id of a stored attachment is the digest of its content already.
+                    digest.update(((StoredAttachment) file).getId().getBytes(StandardCharsets.US_ASCII));
+                    digest.update((byte) 0);
+                    continue;
+                }
+                try(InputStream iStream = file.getInputStream()) {
+                    int read;
+                    while((read = iStream.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+                digest.update((byte) 0);
+            }
+            delivery.setAttachmentsDigest(Hex.encodeHexString(digest.digest()));
+            return delivery.getAttachmentsDigest();
+        } catch(IOException | NoSuchAlgorithmException ex) {
+            log.error("Unable to read the attachments of a queued email. It is sent on its own.", ex);
+            return null;
+        }
+    }
+    
+    private static List<EmailDelivery> singleton(EmailDelivery delivery) {
+        List<EmailDelivery> batch = new ArrayList<>(1);
+        batch.add(delivery);
+        return batch;
+    }
+    
+    /*
+     * Identifies the shared content of an email: sender, subject, message, HTML and attachments.
+     */
+    private static class ContentKey {
+        private final String fromEmail;
+        private final String fromName;
+        private final String subject;
+        private final String message;
+        private final String html;
+        private final List<String> inline;
+        private final String attachmentsDigest;
+        
+        ContentKey(EmailParams params, String attachmentsDigest) {
+            Email from = params.getFrom();
+            this.fromEmail = from.getEmail();
+            this.fromName = from.getName();
+            this.subject = params.getSubject();
+            this.message = params.getMessage();
+            this.html = params.getHtml();
+            this.inline = params.getInline();
+            this.attachmentsDigest = attachmentsDigest;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!(obj instanceof ContentKey)) {
+                return false;
+            }
+            ContentKey other = (ContentKey) obj;
+            return Objects.equals(fromEmail, other.fromEmail) && Objects.equals(fromName, other.fromName)
+                    && Objects.equals(subject, other.subject) && Objects.equals(message, other.message)
+                    && Objects.equals(html, other.html) && Objects.equals(inline, other.inline)
+                    && attachmentsDigest.equals(other.attachmentsDigest);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(fromEmail, fromName, subject, message, html, inline, attachmentsDigest);
+        }
+    }
+}
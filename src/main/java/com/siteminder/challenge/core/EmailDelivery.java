@@ -0,0 +1,88 @@
+package com.siteminder.challenge.core;
+
+import java.util.List;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.clients.PreparedMail;
+import com.siteminder.challenge.models.EmailParams;
+
+/*
+ * An accepted email waiting in the delivery queue.
+ * Id identifies the email in the outbox. It is 0 when the outbox is disabled.
+ */
+public class EmailDelivery {
+    private long id;
+    private EmailParams emailParams;
+    private List<MultipartFile> attachments;
+    private ApiResException error;
+    private String attachmentsDigest;
+    private PreparedMail preparedMail;
+    private int attempts;
+
+    public EmailDelivery(long id, EmailParams emailParams, List<MultipartFile> attachments) {
+        this.id = id;
+        this.emailParams = emailParams;
+        this.attachments = attachments;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public EmailParams getEmailParams() {
+        return emailParams;
+    }
+
+    public void setEmailParams(EmailParams emailParams) {
+        this.emailParams = emailParams;
+    }
+
+    public List<MultipartFile> getAttachments() {
+        return attachments;
+    }
+
+    public void setAttachments(List<MultipartFile> attachments) {
+        this.attachments = attachments;
+    }
+
+    // Error of the last attempt to send this email. Null when it is sent.
+    public ApiResException getError() {
+        return error;
+    }
+
+    public void setError(ApiResException error) {
+        this.error = error;
+    }
+    
+    // Validated and size checked email, ready to be sent by any mailing service. Prepared once before sending.
+    public PreparedMail getPreparedMail() {
+        return preparedMail;
+    }
+    
+    public void setPreparedMail(PreparedMail preparedMail) {
+        this.preparedMail = preparedMail;
+    }
+    
+    // Delivery attempts made so far.
+    public int getAttempts() {
+        return attempts;
+    }
+    
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+    
+    // Identifies the attachments when coalescing emails. Computed on first use.
+    public String getAttachmentsDigest() {
+        return attachmentsDigest;
+    }
+    
+    public void setAttachmentsDigest(String attachmentsDigest) {
+        this.attachmentsDigest = attachmentsDigest;
+    }
+}
@@ -0,0 +1,76 @@
+package com.siteminder.challenge.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.siteminder.challenge.SmRateLimitConfig;
+
+/*
+ * Rate limiter of a mailing service, shared by all the delivery workers.
+ * Paces the calls using a token bucket of requests and a token bucket of messages (recipients), either of which
+ * may be disabled. Mailing service can also be paused for a while, i.e. for the Retry-After of a 429 response.
+ * Nothing here takes a lock. See TokenBucket.
+ */
+public class RateLimiter {
+    private final SmRateLimitConfig config;
+    private final TokenBucket requests;
+    private final TokenBucket messages;
+    private final AtomicLong pausedUntil;
+    
+    public RateLimiter(SmRateLimitConfig config) {
+        this.config = config;
+        this.requests = config.getRequestsPerSecond() > 0 ? new TokenBucket(config.getRequestsPerSecond()) : null;
+        this.messages = config.getMessagesPerSecond() > 0 ? new TokenBucket(config.getMessagesPerSecond()) : null;
+        this.pausedUntil = new AtomicLong(System.nanoTime());
+    }
+    
+    /*
+     * Takes a request and the given number of messages, and waits until they are due.
+     * Returns false right away, without taking anything, when they would not be due within the max wait.
+     */
+    public boolean acquire(int messageCount) throws InterruptedException {
+        long maxWait = TimeUnit.MILLISECONDS.toNanos(config.getMaxWait());
+        long pause = pausedUntil.get() - System.nanoTime();
+        if(pause > maxWait) {
+            return false;
+        }
+        
+        long wait = Math.max(pause, 0);
+        if(requests != null) {
+            long requestWait = requests.tryReserve(1, maxWait);
+            if(requestWait < 0) {
+                return false;
+            }
+            wait = Math.max(wait, requestWait);
+        }
+        if(messages != null) {
+            long messageWait = messages.tryReserve(messageCount, maxWait);
+            if(messageWait < 0) {
+                if(requests != null) {
+                    requests.refund(1);
+                }
+                return false;
+            }
+            wait = Math.max(wait, messageWait);
+        }
+        
+        if(wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return true;
+    }
+    
+    /*
+     * Holds off every call to the mailing service for the given number of milliseconds.
+     * A negative duration means the mailing service did not say, and the default Retry-After is used.
+     */
+    public void pause(long millis) {
+        long duration = millis < 0 ? config.getDefaultRetryAfter() : millis;
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(duration);
+        pausedUntil.accumulateAndGet(until, (current, next) -> next - current > 0 ? next : current);
+    }
+    
+    public long getMaxWait() {
+        return config.getMaxWait();
+    }
+}
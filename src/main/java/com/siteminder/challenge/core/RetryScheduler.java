@@ -0,0 +1,177 @@
+package com.siteminder.challenge.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.siteminder.challenge.SmRetryConfig;
+import com.siteminder.challenge.outbox.SmOutbox;
+
+/*
+ * Holds the emails waiting to be retried, and hands them back for delivery once their backoff is over.
+ * Backoff grows exponentially with the attempts of an email, with random jitter, so that emails failing
+ * together are not retried together. A Retry-After asked by a mail service is honoured as the minimum.
+ * Pending retries are small entries in a single delay queue, drained by a single thread.
+ * No thread or timer is held per retry.
+ * With the outbox journaling the emails, an entry only holds the id of its email, which is read back from the outbox
+ * when due. Otherwise the whole email is held, so far fewer emails are let wait.
+ */
+public class RetryScheduler {
+    private static final Log log = LogFactory.getLog(RetryScheduler.class);
+    
+    private final SmRetryConfig config;
+    private final SmOutbox outbox;
+    private final Consumer<EmailDelivery> dispatcher;
+    private final int maxPending;
+    private final DelayQueue<PendingRetry> retries = new DelayQueue<>();
+    private Thread thread;
+    private volatile boolean running;
+    
+    /*
+     * Due emails are given to the dispatcher, on the thread of the scheduler.
+     * Emails are held in memory while they wait.
+     */
+    public RetryScheduler(SmRetryConfig config, Consumer<EmailDelivery> dispatcher) {
+        this(config, null, dispatcher);
+    }
+    
+    /*
+     * Same as above, but when the outbox journals the emails, only their ids are held while they wait.
+     */
+    public RetryScheduler(SmRetryConfig config, SmOutbox outbox, Consumer<EmailDelivery> dispatcher) {
+        this.config = config;
+        this.outbox = outbox != null && outbox.isJournaled() ? outbox : null;
+        this.dispatcher = dispatcher;
+        this.maxPending = this.outbox != null ? config.getMaxPending() : config.getMaxPendingInMemory();
+    }
+    
+    public void start() {
+        running = true;
+        thread = new Thread(this::dispatchDueRetries, "sm-retry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /*
+     * Stops dispatching. Returns the emails still waiting to be retried.
+     * Emails waiting in the outbox are only returned with their ids.
+     */
+    public List<EmailDelivery> stop() {
+        running = false;
+        if(thread != null) {
+            thread.interrupt();
+        }
+        
+        // drainTo only takes the due ones.
+        PendingRetry[] pending = retries.toArray(new PendingRetry[0]);
+        retries.clear();
+        List<EmailDelivery> deliveries = new ArrayList<>(pending.length);
+        for(PendingRetry retry : pending) {
+            deliveries.add(retry.delivery != null ? retry.delivery : new EmailDelivery(retry.id, null, null));
+        }
+        return deliveries;
+    }
+    
+    /*
+     * Whether the email should be retried: its last error is worth retrying and it has attempts left.
+     * Attempts made so far are taken from the email.
+     */
+    public boolean isRetryable(EmailDelivery delivery) {
+        ApiResException error = delivery.getError();
+        return error != null && error.isRetryable() && delivery.getAttempts() < config.getMaxAttempts();
+    }
+    
+    /*
+     * Schedules a retry of a retryable email. Returns false when there are too many emails waiting already,
+     * and the email should be given up.
+     * Once the scheduler is stopped, emails are not scheduled. Emails in the outbox are left to it, as it recovers
+     * them on the next start. Others are given up.
+     */
+    public boolean schedule(EmailDelivery delivery) {
+        if(!running) {
+            if(outbox == null) {
+                log.error("Retries are stopped. Email is given up.");
+            }
+            return outbox != null;
+        }
+        if(retries.size() >= maxPending) {
+            log.error("Too many emails waiting to be retried. Email is given up.");
+            return false;
+        }
+        
+        long backoff = getBackoff(delivery.getAttempts(), delivery.getError().getRetryAfter());
+        long dueAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+        retries.add(new PendingRetry(outbox == null ? delivery : null, delivery.getId(), delivery.getAttempts(), dueAt));
+        return true;
+    }
+    
+    public int getPendingCount() {
+        return retries.size();
+    }
+    
+    /*
+     * Backoff in milliseconds after the given number of attempts.
+     * Picked at random between half and all of initial-backoff * multiplier ^ (attempts - 1), up to max-backoff.
+     */
+    long getBackoff(int attempts, long retryAfter) {
+        double exponential = config.getInitialBackoff() * Math.pow(config.getMultiplier(), Math.max(attempts - 1, 0));
+        long backoff = (long) Math.min(exponential, config.getMaxBackoff());
+        long jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff - backoff / 2 + 1);
+        return Math.max(jittered, retryAfter);
+    }
+    
+    private void dispatchDueRetries() {
+        while(running) {
+            try {
+                PendingRetry retry = retries.take();
+                EmailDelivery delivery = retry.delivery;
+                if(delivery == null) {
+                    delivery = outbox.reload(retry.id);
+                    if(delivery == null) {
+                        continue;
+                    }
+                    delivery.setAttempts(retry.attempts);
+                }
+                dispatcher.accept(delivery);
+            } catch(InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch(RuntimeException rtEx) {
+                log.error("Unexpected error in dispatching an email to be retried.", rtEx);
+            }
+        }
+    }
+    
+    // Entry of the delay queue. Kept small, as there may be many of them.
+    // Email is null when it is read back from the outbox by its id.
+    private static final class PendingRetry implements Delayed {
+        private final EmailDelivery delivery;
+        private final long id;
+        private final int attempts;
+        private final long dueAt;
+        
+        PendingRetry(EmailDelivery delivery, long id, int attempts, long dueAt) {
+            this.delivery = delivery;
+            this.id = id;
+            this.attempts = attempts;
+            this.dueAt = dueAt;
+        }
+        
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt - ((PendingRetry) other).dueAt, 0);
+        }
+    }
+}
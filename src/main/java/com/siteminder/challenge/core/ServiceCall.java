@@ -0,0 +1,41 @@
+package com.siteminder.challenge.core;
+
+import com.siteminder.challenge.SmMailServiceConfig;
+import com.siteminder.challenge.clients.SmMailClient;
+
+/*
+ * A call to a mailing service which may be aborted from another thread, i.e. the loser of a hedged request.
+ * Abort may come before the client of the call is created. The client is aborted as soon as it is set then.
+ */
+class ServiceCall {
+    private final SmMailServiceConfig config;
+    private volatile SmMailClient client;
+    private volatile boolean aborted;
+    
+    ServiceCall(SmMailServiceConfig config) {
+        this.config = config;
+    }
+    
+    SmMailServiceConfig getConfig() {
+        return config;
+    }
+    
+    void setClient(SmMailClient client) {
+        this.client = client;
+        if(aborted) {
+            client.abort();
+        }
+    }
+    
+    boolean isAborted() {
+        return aborted;
+    }
+    
+    void abort() {
+        aborted = true;
+        SmMailClient current = client;
+        if(current != null) {
+            current.abort();
+        }
+    }
+}
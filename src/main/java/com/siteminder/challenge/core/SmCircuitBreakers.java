@@ -0,0 +1,101 @@
+package com.siteminder.challenge.core;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.siteminder.challenge.SmMailServiceConfig;
+import com.siteminder.challenge.clients.SmHttpClients;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/*
+ * Holds one circuit breaker per configured mailing service.
+ * Open circuits are probed in the background. A probe is a plain GET on the end point of the mailing service.
+ * Any response other than a server error means the service is reachable again.
+ * State (0 closed, 1 half-open, 2 open) and failure rate of each circuit are exposed as metrics.
+ */
+@Component
+public class SmCircuitBreakers {
+    private static final Log log = LogFactory.getLog(SmCircuitBreakers.class);
+    private static final long PROBE_CHECK_INTERVAL = 1000;
+    
+    @Autowired
+    SmHttpClients httpClients;
+    
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final Map<String, SmMailServiceConfig> configs = new ConcurrentHashMap<>();
+    private ScheduledExecutorService prober;
+    
+    @PostConstruct
+    public void startProber() {
+        prober = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("sm-circuit-probe-"));
+        prober.scheduleWithFixedDelay(this::probeOpenCircuits, PROBE_CHECK_INTERVAL, PROBE_CHECK_INTERVAL,
+                                        TimeUnit.MILLISECONDS);
+    }
+    
+    @PreDestroy
+    public void stopProber() {
+        prober.shutdownNow();
+    }
+    
+    /*
+     * Returns the circuit breaker of the input mailing service config.
+     * Circuit breaker is created on first use.
+     */
+    public CircuitBreaker getCircuitBreaker(SmMailServiceConfig config) {
+        String serviceName = config.getServiceName().toLowerCase();
+        return circuitBreakers.computeIfAbsent(serviceName, name -> createCircuitBreaker(name, config));
+    }
+    
+    private CircuitBreaker createCircuitBreaker(String serviceName, SmMailServiceConfig config) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(serviceName, config.getCircuitBreaker());
+        configs.put(serviceName, config);
+        
+        Gauge.builder("smchallenge.mail.service.circuit.state", circuitBreaker, cb -> cb.getState().ordinal())
+                .description("Circuit state of the mail service: 0 closed, 1 half-open, 2 open")
+                .tag("service", serviceName)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("smchallenge.mail.service.circuit.failure.rate", circuitBreaker, CircuitBreaker::getFailureRate)
+                .description("Percentage of failed calls in the rolling window of the circuit")
+                .tag("service", serviceName)
+                .register(Metrics.globalRegistry);
+        return circuitBreaker;
+    }
+    
+    private void probeOpenCircuits() {
+        for(CircuitBreaker circuitBreaker : circuitBreakers.values()) {
+            if(circuitBreaker.isProbeDue()) {
+                boolean success = probe(configs.get(circuitBreaker.getServiceName()));
+                log.info("Circuit of " + circuitBreaker.getServiceName() + " mail service probed. Reachable: " + success);
+                circuitBreaker.recordProbe(success);
+            }
+        }
+    }
+    
+    private boolean probe(SmMailServiceConfig config) {
+        HttpGet request = new HttpGet(config.getEndPoint());
+        try(CloseableHttpResponse response = httpClients.getHttpClient(config).execute(request)) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode() < 500;
+        } catch(IOException | RuntimeException ex) {
+            return false;
+        }
+    }
+}
@@ -1,42 +1,241 @@
 package com.siteminder.challenge.core;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 
+import com.siteminder.challenge.models.BatchApiResponse;
+import com.siteminder.challenge.models.BatchItemResponse;
+import com.siteminder.challenge.models.Email;
 import com.siteminder.challenge.models.EmailParams;
+import com.siteminder.challenge.models.EmailTemplate;
 import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.SmDeliveryConfig;
+import com.siteminder.challenge.SmHedgingConfig;
 import com.siteminder.challenge.SmMailServiceConfig;
+import com.siteminder.challenge.attachments.SmAttachmentStore;
 import com.siteminder.challenge.clients.MailGunClient;
+import com.siteminder.challenge.clients.PreparedMail;
 import com.siteminder.challenge.clients.SendGridClient;
+import com.siteminder.challenge.clients.SmHttpClients;
+import com.siteminder.challenge.clients.SmMailClient;
 import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.commons.JsonMappers;
+import com.siteminder.challenge.commons.SmMetrics;
 import com.siteminder.challenge.commons.Utils;
+import com.siteminder.challenge.commons.VirtualThreads;
+import com.siteminder.challenge.outbox.SmOutbox;
+import com.siteminder.challenge.routing.SmMailServiceRouter;
+import com.siteminder.challenge.templates.SmTemplateStore;
 
 /*
  * Implementation of SmMailService (SiteMinder Mail Service)
  * Exposes a REST API to send email using SendGrid or MailGun mail service.
+ * Emails are validated, recorded in the outbox and queued on the request thread.
+ * A dedicated pool of workers drains the queue and delivers the emails using the mail services.
+ * Failover across the mail services is composed of futures. With blocking I/O, every call completes on the
+ * worker making it. With async I/O, calls are handed over to the async HTTP clients, and the failover
+ * carries on whenever the mail services answer.
  */
 @Component
 public class SmMailService {
     private static final Log log = LogFactory.getLog(SmMailService.class);
     
+    // Emails of a batch request are recorded in the outbox in chunks of this size.
+    private static final int BATCH_CHUNK_SIZE = 100;
+    
     @Autowired
     SmAppConfig appConfig;
     
+    @Autowired
+    SmHttpClients httpClients;
+    
+    @Autowired
+    SmOutbox outbox;
+    
+    @Autowired
+    SmAttachmentStore attachmentStore;
+    
+    @Autowired
+    SmTemplateStore templateStore;
+    
+    @Autowired
+    SmCircuitBreakers circuitBreakers;
+    
+    @Autowired
+    SmMailServiceRouter router;
+    
+    @Autowired
+    SmRateLimiters rateLimiters;
+    
+    // Read by the tests, to see which emails are queued.
+    BlockingQueue<EmailDelivery> deliveryQueue;
+    private ExecutorService deliveryWorkers;
+    private ExecutorService hedgeExecutor;
+    private ScheduledExecutorService hedgeTimer;
+    private RetryScheduler retryScheduler;
+    private volatile boolean running;
+    
+    // Async I/O only. Continuations never run on the I/O threads of the async HTTP clients.
+    private boolean asyncIo;
+    private ExecutorService asyncExecutor;
+    private Semaphore inFlight;
+    private Executor continuationExecutor = Runnable::run;
+    
+    /*
+     * Creates the bounded delivery queue and starts the workers draining it.
+     */
+    @PostConstruct
+    public void startDeliveryWorkers() {
+        SmDeliveryConfig deliveryConfig = appConfig.getDelivery();
+        ExecutorService async = null;
+        if(deliveryConfig.isAsyncIo()) {
+            // Spools the requests, waits for the rate limits and carries on the failover once the mail services answer.
+            async = Executors.newFixedThreadPool(deliveryConfig.getWorkerCount(), new CustomizableThreadFactory("sm-async-"));
+        }
+        ExecutorService hedge = null;
+        ScheduledExecutorService timer = null;
+        if(appConfig.getHedging().isEnabled()) {
+            timer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("sm-hedge-timer-"));
+            // Runs both calls of a hedged request. Blocking calls need a thread each.
+            hedge = async != null ? async : VirtualThreads.newExecutorIfEnabled(appConfig.isVirtualThreads(), "sm-hedge-");
+            if(hedge == null) {
+                hedge = Executors.newCachedThreadPool(new CustomizableThreadFactory("sm-hedge-"));
+            }
+        }
+        start(async, hedge, timer);
+        
+        // On virtual threads, a blocked worker costs next to nothing. Worker count can be sized to the number
+        // of mail service calls to keep in flight, instead of to the platform threads the host can afford.
+        deliveryWorkers = VirtualThreads.newExecutorIfEnabled(appConfig.isVirtualThreads(), "sm-delivery-");
+        if(deliveryWorkers == null) {
+            deliveryWorkers = Executors.newFixedThreadPool(deliveryConfig.getWorkerCount(),
+                                                            new CustomizableThreadFactory("sm-delivery-"));
+        }
+        for(int i = 0; i < deliveryConfig.getWorkerCount(); i++) {
+            deliveryWorkers.execute(this::deliverQueuedEmails);
+        }
+        if(appConfig.getRetry().isEnabled()) {
+            retryScheduler = new RetryScheduler(appConfig.getRetry(), outbox, this::requeueEmail);
+            retryScheduler.start();
+        }
+        
+        List<EmailDelivery> recovered = outbox.takeRecovered();
+        if(!recovered.isEmpty()) {
+            Thread replay = new Thread(() -> requeueEmails(recovered), "sm-outbox-replay");
+            replay.setDaemon(true);
+            replay.start();
+        }
+    }
+    
+    /*
+     * Creates the delivery queue and starts accepting emails. Calls run on the given executors: async I/O is used
+     * when an async executor is given, and calls are hedged when a hedge executor and timer are given.
+     * Workers are started by the caller. Tests start the service alone, with executors of their own, so that
+     * they decide when queued emails are taken, and when calls and hedge delays complete.
+     */
+    void start(ExecutorService async, ExecutorService hedge, ScheduledExecutorService timer) {
+        SmDeliveryConfig deliveryConfig = appConfig.getDelivery();
+        deliveryQueue = new ArrayBlockingQueue<>(deliveryConfig.getQueueCapacity());
+        asyncIo = async != null;
+        if(asyncIo) {
+            asyncExecutor = async;
+            continuationExecutor = async;
+            inFlight = new Semaphore(deliveryConfig.getMaxInFlight());
+        }
+        hedgeExecutor = hedge;
+        hedgeTimer = hedge != null ? timer : null;
+        running = true;
+    }
+    
+    /*
+     * Stops accepting emails and gives the workers some time to drain the queue.
+     * With async I/O, emails still in flight are given the same time to complete.
+     * Emails waiting to be retried are left in the outbox, to be delivered on the next start.
+     * Without the outbox, they are given up.
+     */
+    @PreDestroy
+    public void stopDeliveryWorkers() throws InterruptedException {
+        running = false;
+        if(retryScheduler != null) {
+            List<EmailDelivery> pending = retryScheduler.stop();
+            if(outbox.isJournaled()) {
+                if(!pending.isEmpty()) {
+                    log.info(pending.size() + " emails waiting to be retried are left in the outbox.");
+                }
+            } else if(!pending.isEmpty()) {
+                log.error(pending.size() + " emails waiting to be retried are given up, as the outbox is disabled.");
+                for(EmailDelivery delivery : pending) {
+                    outbox.complete(delivery);
+                }
+            }
+        }
+        if(deliveryWorkers != null) {
+            deliveryWorkers.shutdown();
+            if(!deliveryWorkers.awaitTermination(appConfig.getDelivery().getShutdownTimeout(), TimeUnit.MILLISECONDS)) {
+                log.error(deliveryQueue.size() + " queued emails are not delivered before shutdown.");
+                deliveryWorkers.shutdownNow();
+            }
+        }
+        if(inFlight != null && !inFlight.tryAcquire(appConfig.getDelivery().getMaxInFlight(),
+                                                    appConfig.getDelivery().getShutdownTimeout(), TimeUnit.MILLISECONDS)) {
+            log.error("Emails still in flight at shutdown are left in the outbox.");
+        }
+        if(hedgeTimer != null) {
+            hedgeTimer.shutdownNow();
+        }
+        if(hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+        if(asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+        }
+    }
+    
     /*
      * Validates and constructs email parameters.
-     * Sends the email to recipients mentiones in email parameters.
+     * Queues the email to be sent to recipients mentioned in email parameters.
+     * Returns as soon as the email is queued. Delivery happens in the background.
      */
     public ResponseEntity<?> sendEmail(String emailParams, List<MultipartFile> attachments) {
         // 1. Error if the email parameters are not specified.
@@ -46,18 +245,297 @@ public class SmMailService {
         }
         
         // 2. Construct EmailParams from JSON string. Return appropriate error message on failure.
-        // 3. If sendMail fails, convert the ApiResException and return appropriate error response.
+        // 3. Validate and queue the email. If it fails, convert the ApiResException and return appropriate error response.
         try {
-            EmailParams params = constructEmailParams(emailParams);
-            sendEmail(params, attachments);
+            long start = System.nanoTime();
+            EmailParams params;
+            try {
+                params = constructEmailParams(emailParams);
+            } finally {
+                SmMetrics.recordParse(start);
+            }
+            start = System.nanoTime();
+            PreparedMail prepared;
+            try {
+                templateStore.render(params);
+                Utils.validateEmailParams(params, appConfig.isIgnoreLocalPartCase());
+                Utils.validateAttachments(attachments);
+                // Mail size is checked before the email is accepted, including the stored attachments it refers to.
+                prepared = PreparedMail.prepare(params, attachmentStore.withStoredAttachments(params, attachments));
+            } finally {
+                SmMetrics.recordValidate(start);
+            }
+            SmMetrics.recordMailSize(prepared.getSize());
+            queueEmail(accept(prepared, attachments));
         } catch(ApiResException apiEx) {
             return Utils.buildApiResponse(apiEx.getStatus(), apiEx.getMessage());
         }
         
-        // 4. If sendMail succeeds, send successful response        
+        // 4. If the email is queued, send successful response        
         return Utils.buildApiResponse(HttpStatus.ACCEPTED, Constants.ApiStatusMessages.SEND_SUCCESS);
     }
     
+    /*
+     * Validates and queues every email of a batch independently.
+     * Body is either a JSON array or newline delimited JSON of email params. It is parsed as a stream.
+     * Returns the status of every email in the batch.
+     */
+    public ResponseEntity<?> sendEmailBatch(InputStream emailParamsStream) {
+        BatchApiResponse batchResponse = new BatchApiResponse(HttpStatus.ACCEPTED.value(),
+                                                                Constants.ApiStatusMessages.BATCH_PROCESSED);
+        List<BatchItemResponse> results = batchResponse.getResults();
+        List<PreparedMail> chunk = new ArrayList<>();
+        List<BatchItemResponse> chunkResults = new ArrayList<>();
+        int batchLimit = appConfig.getDelivery().getBatchLimit();
+        int index = 0;
+        // Emails of the batch rendered from the same template with the same variables share their subject and message.
+        Map<List<Object>, EmailTemplate> rendered = new HashMap<>();
+        
+        try(MappingIterator<JsonNode> items = JsonMappers.JSON_TREE_READER.readValues(emailParamsStream)) {
+            while(items.hasNextValue()) {
+                JsonNode item = items.nextValue();
+                if(index >= batchLimit) {
+                    results.add(new BatchItemResponse(index, HttpStatus.BAD_REQUEST.value(),
+                                                        Constants.ApiStatusMessages.BATCH_LIMIT_EXCEEDED));
+                    break;
+                }
+                
+                BatchItemResponse result = new BatchItemResponse(index++, HttpStatus.ACCEPTED.value(),
+                                                                    Constants.ApiStatusMessages.SEND_SUCCESS);
+                results.add(result);
+                try {
+                    long start = System.nanoTime();
+                    EmailParams params;
+                    try {
+                        params = JsonMappers.EMAIL_PARAMS_READER.readValue(item);
+                    } finally {
+                        SmMetrics.recordParse(start);
+                    }
+                    start = System.nanoTime();
+                    PreparedMail prepared;
+                    try {
+                        templateStore.render(params, rendered);
+                        Utils.validateEmailParams(params, appConfig.isIgnoreLocalPartCase());
+                        prepared = PreparedMail.prepare(params, attachmentStore.resolve(params));
+                    } finally {
+                        SmMetrics.recordValidate(start);
+                    }
+                    SmMetrics.recordMailSize(prepared.getSize());
+                    chunk.add(prepared);
+                    chunkResults.add(result);
+                } catch(JsonProcessingException jsonEx) {
+                    setStatus(result, HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_MAIL_PARAMS);
+                } catch(ApiResException apiEx) {
+                    setStatus(result, apiEx.getStatus(), apiEx.getMessage());
+                }
+                
+                if(chunk.size() >= BATCH_CHUNK_SIZE) {
+                    queueEmails(chunk, chunkResults);
+                }
+            }
+        } catch(IOException ioEx) {
+            // Malformed JSON. Emails after this point cannot be read.
+            log.error("Error in parsing the email batch. Returning appropriate error for the remaining emails.");
+            results.add(new BatchItemResponse(index, HttpStatus.BAD_REQUEST.value(),
+                                                Constants.ApiStatusMessages.INVALID_MAIL_PARAMS));
+        }
+        queueEmails(chunk, chunkResults);
+        
+        if(results.isEmpty()) {
+            return Utils.buildApiResponse(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.EMPTY_BATCH);
+        }
+        return new ResponseEntity<>(batchResponse, HttpStatus.ACCEPTED);
+    }
+    
+    /*
+     * Records a chunk of batched emails in the outbox and queues them.
+     * Updates the status of each email and clears the chunk.
+     */
+    private void queueEmails(/*in-out*/ List<PreparedMail> chunk, /*in-out*/ List<BatchItemResponse> chunkResults) {
+        if(chunk.isEmpty()) {
+            return;
+        }
+        
+        try {
+            List<EmailParams> paramsList = new ArrayList<>(chunk.size());
+            for(PreparedMail prepared : chunk) {
+                paramsList.add(prepared.getEmailParams());
+            }
+            List<EmailDelivery> deliveries = outbox.acceptAll(paramsList);
+            for(int i = 0; i < deliveries.size(); i++) {
+                EmailDelivery delivery = deliveries.get(i);
+                delivery.setPreparedMail(chunk.get(i).withAttachments(delivery.getAttachments()));
+                try {
+                    queueEmail(delivery);
+                } catch(ApiResException apiEx) {
+                    setStatus(chunkResults.get(i), apiEx.getStatus(), apiEx.getMessage());
+                }
+            }
+        } catch(ApiResException apiEx) {
+            for(BatchItemResponse result : chunkResults) {
+                setStatus(result, apiEx.getStatus(), apiEx.getMessage());
+            }
+        }
+        
+        chunk.clear();
+        chunkResults.clear();
+    }
+    
+    private void setStatus(BatchItemResponse result, HttpStatus status, String message) {
+        result.setStatusCode(status.value());
+        result.setMessage(message);
+    }
+    
+    /*
+     * Records the prepared email in the outbox. Email is delivered as prepared here, reading its attachments
+     * from the copies the outbox made of them, as the uploads are cleaned up once the request completes.
+     */
+    private EmailDelivery accept(PreparedMail prepared, List<MultipartFile> attachments) throws ApiResException {
+        EmailDelivery delivery = outbox.accept(prepared.getEmailParams(), attachments);
+        delivery.setPreparedMail(prepared.withAttachments(delivery.getAttachments()));
+        return delivery;
+    }
+    
+    /*
+     * Adds the email to the delivery queue.
+     * Fails immediately when the queue is full, so that the caller can back off and retry.
+     */
+    private void queueEmail(EmailDelivery delivery) throws ApiResException {
+        if(!running || !deliveryQueue.offer(delivery)) {
+            // The caller is told to retry, so this email must not be recovered from the outbox later.
+            outbox.complete(delivery);
+            log.error(Constants.ApiStatusMessages.DELIVERY_QUEUE_FULL);
+            throw new ApiResException(HttpStatus.SERVICE_UNAVAILABLE, Constants.ApiStatusMessages.DELIVERY_QUEUE_FULL);
+        }
+    }
+    
+    /*
+     * Puts the emails recovered from the outbox back into the delivery queue.
+     */
+    private void requeueEmails(List<EmailDelivery> deliveries) {
+        log.info("Re-queueing " + deliveries.size() + " emails recovered from the outbox.");
+        for(EmailDelivery delivery : deliveries) {
+            requeueEmail(delivery);
+            if(Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+    
+    /*
+     * Puts an email back into the delivery queue, i.e. a recovered email or an email to be retried.
+     * Waits for space in the queue instead of rejecting it. Email stays in the outbox, if it is not queued
+     * before shutdown.
+     */
+    private void requeueEmail(EmailDelivery delivery) {
+        try {
+            while(running && !deliveryQueue.offer(delivery, 1, TimeUnit.SECONDS)) {
+                // Queue is full. Wait for the workers to catch up.
+            }
+        } catch(InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /*
+     * Worker loop. Takes the next queued email, along with the emails behind it sharing its content
+     * (up to the coalesce limit), and delivers them.
+     * Keeps draining the queue after shutdown is requested, until the queue is empty.
+     */
+    private void deliverQueuedEmails() {
+        CoalescingDrain drain = new CoalescingDrain(deliveryQueue, appConfig.getDelivery().getCoalesceLimit());
+        while(running || !deliveryQueue.isEmpty() || drain.isHolding()) {
+            try {
+                List<EmailDelivery> deliveries = drain.take(1, TimeUnit.SECONDS);
+                if(!deliveries.isEmpty()) {
+                    deliverEmails(deliveries);
+                }
+            } catch(InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    /*
+     * Delivers queued emails. With blocking I/O, the worker waits until they are delivered.
+     * With async I/O, the worker only waits when too many emails are in flight already, and the emails
+     * are completed by whichever thread completes their last call.
+     */
+    private void deliverEmails(List<EmailDelivery> deliveries) throws InterruptedException {
+        int permits = 0;
+        if(inFlight != null) {
+            permits = Math.min(deliveries.size(), appConfig.getDelivery().getMaxInFlight());
+            inFlight.acquire(permits);
+        }
+        for(EmailDelivery delivery : deliveries) {
+            delivery.setAttempts(delivery.getAttempts() + 1);
+        }
+        
+        CompletableFuture<List<EmailDelivery>> sent;
+        try {
+            sent = sendEmails(deliveries);
+        } catch(RuntimeException rtEx) {
+            sent = failedFuture(rtEx);
+        }
+        
+        int acquired = permits;
+        CompletableFuture<Void> delivered = sent.handle((rejected, ex) -> {
+            try {
+                completeDeliveries(deliveries, rejected, ex);
+            } finally {
+                if(acquired > 0) {
+                    inFlight.release(acquired);
+                }
+            }
+            return null;
+        });
+        if(!asyncIo) {
+            delivered.join();
+        }
+    }
+    
+    /*
+     * Failures are logged, as the callers are already answered.
+     * Emails failing for a reason worth retrying are scheduled to be retried later.
+     * Rest of the emails are completed in the outbox, whether sent or given up.
+     */
+    private void completeDeliveries(List<EmailDelivery> deliveries, List<EmailDelivery> rejected, Throwable error) {
+        Set<EmailDelivery> retries = new HashSet<>();
+        try {
+            if(error != null) {
+                log.error("Unexpected error in delivering the queued emails.", unwrap(error));
+                return;
+            }
+            for(EmailDelivery delivery : rejected) {
+                ApiResException apiEx = delivery.getError();
+                if(retryScheduler != null && retryScheduler.isRetryable(delivery)) {
+                    retries.add(delivery);
+                } else {
+                    log.error("Unable to deliver the queued email. " + apiEx.getStatus() + " - " + apiEx.getMessage());
+                }
+            }
+        } catch(RuntimeException rtEx) {
+            log.error("Unexpected error in delivering the queued emails.", rtEx);
+        } finally {
+            for(EmailDelivery delivery : deliveries) {
+                if(!retries.contains(delivery)) {
+                    outbox.complete(delivery);
+                }
+            }
+        }
+        
+        // Scheduled only after the rest are completed, as a retry may be taken by another worker right away.
+        for(EmailDelivery delivery : retries) {
+            ApiResException apiEx = delivery.getError();
+            log.info("Unable to deliver the queued email in attempt " + delivery.getAttempts() + ". "
+                        + apiEx.getStatus() + " - " + apiEx.getMessage() + " It will be retried.");
+            if(!retryScheduler.schedule(delivery)) {
+                outbox.complete(delivery);
+            }
+        }
+    }
+    
     /*
      * Validates the input string and constructs EmailParams object. 
      */
@@ -65,7 +543,7 @@ public class SmMailService {
         EmailParams params = null;
         
         try {
-            params = new ObjectMapper().readValue(emailParams, EmailParams.class);
+            params = JsonMappers.EMAIL_PARAMS_READER.readValue(emailParams);
         } catch (JsonParseException | JsonMappingException jsonEx) {
             log.error("Error in parsing email params JSON. Returning appropriate error.");
             jsonEx.printStackTrace();
@@ -79,58 +557,452 @@ public class SmMailService {
     }
     
     /*
-     * Parses through the available mail services in the defined priority order
-     * and executes the send APIs of those services until at-least one invocation gets successful.  
+     * Parses through the available mail services in the order given by the router and executes the send APIs
+     * of those services until every email is sent, or all the services are tried.
+     * Emails are prepared (validated and size checked) once. Mail services only render their requests from them.
+     * Emails sharing the same content are sent in batches by services supporting it.
+     * Every batch is routed on its own, so that the routing sees the calls already made for the previous batches.
+     * With hedging enabled, a batch is sent to the next mail service as well when the current one is slow.
+     * Completes with the emails which could not be sent, each holding the error of its last attempt.
      */ 
-    private void sendEmail(EmailParams params, List<MultipartFile> attachments) throws ApiResException {
-        List<SmMailServiceConfig> mailServiceConfigs = appConfig.getSmMailServiceConfig();
-        ApiResException ex = null;
-        
-        for(SmMailServiceConfig config : mailServiceConfigs) {
+    private CompletableFuture<List<EmailDelivery>> sendEmails(List<EmailDelivery> deliveries) {
+        List<EmailDelivery> pending = new ArrayList<>(deliveries.size());
+        // Failures are recorded by the threads completing the calls.
+        List<EmailDelivery> rejected = Collections.synchronizedList(new ArrayList<>());
+        for(EmailDelivery delivery : deliveries) {
             try {
-                sendEmailUsingService(config, params, attachments);
-                ex = null; // Reset the ex thrown in the previous iterartion. (Makes sense only after the 1st iteration)
+                prepareEmail(delivery);
+                pending.add(delivery);
             } catch(ApiResException apiEx) {
-                ex = apiEx;
+                delivery.setError(apiEx);
+                rejected.add(delivery);
             }
-
-            // Don't try sending mail with other mail services, if the failure is due to BadRequest.
-            if(ex != null) {
-                HttpStatus respStatus = ex.getStatus();
-                if(HttpStatus.BAD_REQUEST.equals(respStatus)) {
-                    log.error("Mail service API invocation failed.");
-                    throw ex;
+        }
+        
+        List<CompletableFuture<?>> sends = new ArrayList<>();
+        while(!pending.isEmpty()) {
+            List<SmMailServiceConfig> mailServiceConfigs = router.route();
+            if(mailServiceConfigs.isEmpty()) {
+                sends.add(sendEmails(mailServiceConfigs, 0, pending, rejected));
+                break;
+            }
+            
+            // Next batch is the one the first routed mail service would send. The rest wait for their own routing.
+            SmMailServiceConfig config = mailServiceConfigs.get(0);
+            List<List<EmailDelivery>> batches = EmailCoalescer.coalesce(pending, maxBatchSize(config), batchable(config));
+            sends.add(sendEmails(mailServiceConfigs, 0, batches.get(0), rejected));
+            pending = new ArrayList<>(pending.size() - batches.get(0).size());
+            for(List<EmailDelivery> batch : batches.subList(1, batches.size())) {
+                pending.addAll(batch);
+            }
+        }
+        
+        return CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[sends.size()])).thenApply(done -> rejected);
+    }
+    
+    /*
+     * Sends the pending emails using the mail service at the given index of the routing order.
+     * Emails which failed are sent using the next mail service, once every call to this one is complete.
+     * All the calls to a mail service are in flight at once with async I/O. With blocking I/O,
+     * every call completes before the next one is made.
+     */
+    private CompletableFuture<List<EmailDelivery>> sendEmails(List<SmMailServiceConfig> mailServiceConfigs, int index,
+                                        List<EmailDelivery> pending, /*out*/ List<EmailDelivery> rejected) {
+        if(index > 0 && !pending.isEmpty()) {
+            // Emails failed with the previous mail service. Failing over to the next one, if there is any left.
+            SmMetrics.recordFailover(mailServiceConfigs.get(index - 1).getServiceName(),
+                                        index < mailServiceConfigs.size() ? mailServiceConfigs.get(index).getServiceName()
+                                                                            : null,
+                                        pending.size());
+        }
+        if(pending.isEmpty() || index >= mailServiceConfigs.size()) {
+            // Tried all mailing services. Emails still pending hold the error of the last tried service.
+            rejected.addAll(pending);
+            return CompletableFuture.completedFuture(rejected);
+        }
+        
+        SmMailServiceConfig config = mailServiceConfigs.get(index);
+        SmMailServiceConfig hedgeConfig = index + 1 < mailServiceConfigs.size() ? mailServiceConfigs.get(index + 1) : null;
+        List<EmailDelivery> failed = Collections.synchronizedList(new ArrayList<>());
+        List<List<EmailDelivery>> batches = EmailCoalescer.coalesce(pending, maxBatchSize(config), batchable(config));
+        CompletableFuture<?>[] sends = new CompletableFuture<?>[batches.size()];
+        for(int i = 0; i < batches.size(); i++) {
+            sends[i] = sendBatch(config, batches.get(i), hedgeConfig, failed, rejected);
+        }
+        
+        return CompletableFuture.allOf(sends).thenComposeAsync(
+                    done -> sendEmails(mailServiceConfigs, index + 1, new ArrayList<>(failed), rejected),
+                    continuationExecutor);
+    }
+    
+    /*
+     * Sends a batch of emails sharing the same content. Records the failures, if any.
+     * Completes once every email of the batch is sent or failed. Never completes exceptionally.
+     */
+    private CompletableFuture<Void> sendBatch(SmMailServiceConfig config, List<EmailDelivery> batch, 
+                                                SmMailServiceConfig hedgeConfig, 
+                                                /*out*/ List<EmailDelivery> failed, /*out*/ List<EmailDelivery> rejected) {
+        return sendEmailUsingService(config, batch, hedgeConfig)
+                .handle((done, ex) -> ex == null ? null : toApiResException(ex))
+                .thenComposeAsync(apiEx -> {
+                    if(apiEx == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    if(batch.size() > 1 && HttpStatus.BAD_REQUEST.equals(apiEx.getStatus())) {
+                        // Don't let one bad email fail the whole batch. Send them one by one.
+                        CompletableFuture<?>[] sends = new CompletableFuture<?>[batch.size()];
+                        for(int i = 0; i < batch.size(); i++) {
+                            sends[i] = sendBatch(config, Collections.singletonList(batch.get(i)), null, failed, rejected);
+                        }
+                        return CompletableFuture.allOf(sends);
+                    }
+                    for(EmailDelivery delivery : batch) {
+                        recordFailure(delivery, apiEx, failed, rejected);
+                    }
+                    return CompletableFuture.completedFuture(null);
+                }, continuationExecutor);
+    }
+    
+    // Don't try sending mail with other mail services, if the failure is due to BadRequest.
+    private void recordFailure(EmailDelivery delivery, ApiResException apiEx,
+                                /*out*/ List<EmailDelivery> failed, /*out*/ List<EmailDelivery> rejected) {
+        delivery.setError(apiEx);
+        if(HttpStatus.BAD_REQUEST.equals(apiEx.getStatus())) {
+            log.error("Mail service API invocation failed.");
+            rejected.add(delivery);
+        } else {
+            failed.add(delivery);
+        }
+    }
+    
+    // Prepares the email, unless it is prepared already. Emails are prepared when accepted, so only the emails
+    // read back from the outbox (recovered on startup, or retried) are prepared here.
+    // Message-ID is given when the email is accepted, and read back with the email from the outbox.
+    // Only emails journaled without one get a new Message-ID here.
+    private void prepareEmail(EmailDelivery delivery) throws ApiResException {
+        if(delivery.getPreparedMail() == null) {
+            delivery.setPreparedMail(PreparedMail.prepare(delivery.getEmailParams(), delivery.getAttachments()));
+            EmailParams params = delivery.getEmailParams();
+            if(params.getMessageId() == null) {
+                params.setMessageId(Utils.generateMessageId(params.getFrom().getEmail()));
+            }
+        }
+    }
+    
+    // Batches are only built for the mail services which support them.
+    private int maxBatchSize(SmMailServiceConfig config) {
+        if(Constants.MailService.SENDGRID.equalsIgnoreCase(config.getServiceName())) {
+            return Math.min(config.getMaxBatchSize(), Constants.Limitations.MAX_SENDGRID_PERSONALIZATIONS);
+        } else if(Constants.MailService.MAILGUN.equalsIgnoreCase(config.getServiceName())) {
+            // Batched MailGun emails have a single recipient each.
+            return Math.min(config.getMaxBatchSize(), Constants.Limitations.MAX_MAILGUN_BATCH_RECIPIENTS);
+        }
+        return 1;
+    }
+    
+    // MailGun batch messages only suit emails with a single recipient.
+    private Predicate<EmailParams> batchable(SmMailServiceConfig config) {
+        if(Constants.MailService.MAILGUN.equalsIgnoreCase(config.getServiceName())) {
+            return MailGunClient::isBatchable;
+        }
+        return params -> true;
+    }
+    
+    /*
+     * Sends a batch of emails, hedged with the next mailing service when hedging is enabled and the batch suits it.
+     * Request to the next mailing service is only made when the current one does not answer within the hedge delay.
+     * First success wins and the other request is aborted. Both may have reached their mailing services by then,
+     * but both carry the same Message-ID, so that the copies can be told apart as duplicates.
+     * Completes with the error of the current mailing service when both fail.
+     */
+    CompletableFuture<Void> sendEmailUsingService(SmMailServiceConfig config, List<EmailDelivery> batch,
+                                                    SmMailServiceConfig hedgeConfig) {
+        if(!isHedgeable(config, batch, hedgeConfig)) {
+            return sendEmailUsingService(config, batch, (ServiceCall) null);
+        }
+        
+        ServiceCall primary = new ServiceCall(config);
+        CompletableFuture<Void> primaryResult = startServiceCall(primary, batch);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        // Set by whichever comes first: the answer of the current mailing service, or the hedge delay.
+        AtomicBoolean decided = new AtomicBoolean();
+        
+        ScheduledFuture<?> hedgeTimeout = hedgeTimer.schedule(() -> {
+            if(!decided.compareAndSet(false, true)) {
+                return;
+            }
+            log.info("No answer from " + config.getServiceName() + " mail service within the hedge delay. Hedging with "
+                        + hedgeConfig.getServiceName() + " mail service.");
+            SmMetrics.recordHedge(config.getServiceName(), hedgeConfig.getServiceName());
+            ServiceCall hedge = new ServiceCall(hedgeConfig);
+            CompletableFuture<Void> hedgeResult = startServiceCall(hedge, batch);
+            completeOnFirstSuccess(primary, primaryResult, hedge, hedgeResult, result);
+        }, getHedgeDelay(config), TimeUnit.MILLISECONDS);
+        
+        primaryResult.whenComplete((done, ex) -> {
+            if(decided.compareAndSet(false, true)) {
+                // Answered within the hedge delay.
+                hedgeTimeout.cancel(false);
+                if(ex == null) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(ex);
+                }
+            }
+        });
+        return result;
+    }
+    
+    /*
+     * Completes the result on the first success, and aborts the other call.
+     * Completes with the error of the primary call when both fail.
+     */
+    private void completeOnFirstSuccess(ServiceCall primary, CompletableFuture<Void> primaryResult,
+                                            ServiceCall hedge, CompletableFuture<Void> hedgeResult,
+                                            /*out*/ CompletableFuture<Void> result) {
+        AtomicReference<Throwable> primaryError = new AtomicReference<>();
+        AtomicInteger failures = new AtomicInteger();
+        primaryResult.whenComplete((done, ex) -> {
+            if(ex == null) {
+                if(result.complete(null)) {
+                    hedge.abort();
                 }
             } else {
-                // No exception means successfull queue of mailing request. So return.
-                return;
+                primaryError.set(ex);
+                if(failures.incrementAndGet() == 2) {
+                    result.completeExceptionally(ex);
+                }
+            }
+        });
+        hedgeResult.whenComplete((done, ex) -> {
+            if(ex == null) {
+                if(result.complete(null)) {
+                    primary.abort();
+                }
+            } else if(failures.incrementAndGet() == 2) {
+                result.completeExceptionally(primaryError.get());
             }
+        });
+    }
+    
+    /*
+     * Only batches which the next mailing service can send as they are get hedged. Both requests must carry
+     * the Message-ID of every email, which MailGun batch messages do not.
+     */
+    private boolean isHedgeable(SmMailServiceConfig config, List<EmailDelivery> batch, SmMailServiceConfig hedgeConfig) {
+        if(hedgeTimer == null || hedgeConfig == null) {
+            return false;
+        }
+        if(batch.size() == 1) {
+            return true;
+        }
+        return batch.size() <= maxBatchSize(hedgeConfig)
+                && !Constants.MailService.MAILGUN.equalsIgnoreCase(config.getServiceName())
+                && !Constants.MailService.MAILGUN.equalsIgnoreCase(hedgeConfig.getServiceName());
+    }
+    
+    // Percentile of the recent latencies of the mailing service, within the configured bounds.
+    private long getHedgeDelay(SmMailServiceConfig config) {
+        SmHedgingConfig hedging = appConfig.getHedging();
+        long delay = router.getLatencyPercentile(config, hedging.getDelayPercentile(), hedging.getMinimumSamples());
+        if(delay < 0) {
+            return hedging.getMaxDelay();
+        }
+        return Math.min(Math.max(delay, hedging.getMinDelay()), hedging.getMaxDelay());
+    }
+    
+    // Sends the batch on the hedge executor, so that a blocking call does not hold up the other call.
+    private CompletableFuture<Void> startServiceCall(ServiceCall call, List<EmailDelivery> batch) {
+        return CompletableFuture.supplyAsync(() -> sendEmailUsingService(call.getConfig(), batch, call), hedgeExecutor)
+                .thenCompose(Function.identity());
+    }
+    
+    /*
+     * Sends a batch of emails sharing the same content using the input mailing service config.
+     * Calls are paced by the rate limiter of the mailing service. Fails with 429 when the rate limit would
+     * not let the batch through within the max wait, so that the next mailing service is tried.
+     * A 429 response pauses the mailing service for its Retry-After. Batch is tried once more, if that is
+     * within the max wait.
+     */
+    private CompletableFuture<Void> sendEmailUsingService(SmMailServiceConfig config, List<EmailDelivery> batch, 
+                                                            ServiceCall call) {
+        RateLimiter rateLimiter = rateLimiters.getRateLimiter(config);
+        return sendPacedEmail(config, batch, call, rateLimiter, countRecipients(batch), 1);
+    }
+    
+    private CompletableFuture<Void> sendPacedEmail(SmMailServiceConfig config, List<EmailDelivery> batch, 
+                                                    ServiceCall call, RateLimiter rateLimiter, int messageCount, 
+                                                    int attempt) {
+        try {
+            acquire(rateLimiter, messageCount);
+        } catch(ApiResException apiEx) {
+            return failedFuture(apiEx);
+        }
+        
+        return sendEmailUsingCircuit(config, batch, call)
+                .handle((done, ex) -> ex == null ? null : toApiResException(ex))
+                .thenComposeAsync(apiEx -> {
+                    if(apiEx == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    if(!HttpStatus.TOO_MANY_REQUESTS.equals(apiEx.getStatus())) {
+                        return failedFuture(apiEx);
+                    }
+                    rateLimiter.pause(apiEx.getRetryAfter());
+                    if(attempt > 1 || (call != null && call.isAborted())) {
+                        return failedFuture(apiEx);
+                    }
+                    return sendPacedEmail(config, batch, call, rateLimiter, messageCount, attempt + 1);
+                }, continuationExecutor);
+    }
+    
+    // Waits for the rate limiter of the mailing service. Fails with 429 when it would take too long.
+    private void acquire(RateLimiter rateLimiter, int messageCount) throws ApiResException {
+        try {
+            if(!rateLimiter.acquire(messageCount)) {
+                throw new ApiResException(HttpStatus.TOO_MANY_REQUESTS, Constants.ApiStatusMessages.SERVICE_RATE_LIMITED);
+            }
+        } catch(InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+            throw new ApiResException(HttpStatus.SERVICE_UNAVAILABLE, Constants.ApiStatusMessages.SERVICE_API_FAILURE);
+        }
+    }
+    
+    // Every recipient of every email is a message for the mailing service.
+    private int countRecipients(List<EmailDelivery> batch) {
+        int count = 0;
+        for(EmailDelivery delivery : batch) {
+            EmailParams params = delivery.getEmailParams();
+            count += size(params.getTo()) + size(params.getCc()) + size(params.getBcc());
+        }
+        return count;
+    }
+    
+    private int size(List<Email> emails) {
+        return emails == null ? 0 : emails.size();
+    }
+    
+    /*
+     * Sends a batch of emails using the input mailing service config.
+     * Fails right away when the circuit of the mailing service is open. Otherwise the outcome is recorded
+     * in the circuit and in the routing stats. Bad requests and 429s are not failures of the mailing service.
+     * Neither are aborted calls of hedged requests. They only lost to the other call.
+     */
+    private CompletableFuture<Void> sendEmailUsingCircuit(SmMailServiceConfig config, List<EmailDelivery> batch, 
+                                                            ServiceCall call) {
+        CircuitBreaker circuitBreaker = circuitBreakers.getCircuitBreaker(config);
+        if(!circuitBreaker.allowRequest()) {
+            return failedFuture(new ApiResException(HttpStatus.SERVICE_UNAVAILABLE, 
+                                                        Constants.ApiStatusMessages.SERVICE_CIRCUIT_OPEN));
         }
         
-        // Tried all mailing services. Not able to send e-mails using any of the mailing services.
-        // Return the error details returned by the last tried mailing service.
-        if(ex != null) {
-            throw ex;
+        router.begin(config);
+        long start = System.nanoTime();
+        CompletableFuture<Void> sent;
+        try {
+            sent = sendEmailUsingService(config, toPreparedMail(batch), call);
+        } catch(RuntimeException rtEx) {
+            sent = failedFuture(rtEx);
         }
+        
+        return sent.whenComplete((done, ex) -> {
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            boolean failure = ex != null && isServiceFailure(unwrap(ex), call);
+            circuitBreaker.record(failure, duration);
+            router.end(config, failure, duration);
+            if(ex == null) {
+                for(EmailDelivery delivery : batch) {
+                    delivery.setError(null);
+                }
+            }
+        });
+    }
+    
+    private boolean isServiceFailure(Throwable error, ServiceCall call) {
+        if(error instanceof ApiResException) {
+            HttpStatus status = ((ApiResException) error).getStatus();
+            return !HttpStatus.BAD_REQUEST.equals(status) && !HttpStatus.TOO_MANY_REQUESTS.equals(status)
+                        && (call == null || !call.isAborted());
+        }
+        return true;
     }
     
     /*
-     * Sends the email using the input mailing service config.
+     * Renders the prepared mail using the client of the mailing service and sends it.
+     * With blocking I/O, the returned future is complete already.
      */
-    private void sendEmailUsingService(SmMailServiceConfig config, EmailParams params, List<MultipartFile> attachments)
-                        throws ApiResException {
+    private CompletableFuture<Void> sendEmailUsingService(SmMailServiceConfig config, PreparedMail mail, 
+                                                            ServiceCall call) {
+        SmMailClient client;
+        try {
+            client = newClient(config, mail);
+        } catch(ApiResException apiEx) {
+            return failedFuture(apiEx);
+        }
+        
+        if(call != null) {
+            call.setClient(client);
+        }
+        try {
+            if(asyncIo) {
+                return client.sendEmailAsync();
+            }
+            client.sendEmail();
+            return CompletableFuture.completedFuture(null);
+        } catch(ApiResException apiEx) {
+            return failedFuture(apiEx);
+        }
+    }
+    
+    /*
+     * Creates the client of the mailing service for the prepared mail, along with its async HTTP client
+     * with async I/O. Tests replace it with a client of their own.
+     */
+    SmMailClient newClient(SmMailServiceConfig config, PreparedMail mail) throws ApiResException {
+        SmMailClient client;
         if(Constants.MailService.SENDGRID.equalsIgnoreCase(config.getServiceName())) {
             log.info("Consuming SendGrid mail service...");
-            SendGridClient sgClient = new SendGridClient(params, attachments, config);
-            sgClient.sendEmail();
+            client = new SendGridClient(mail, config, httpClients.getHttpClient(config));
         } else if(Constants.MailService.MAILGUN.equalsIgnoreCase(config.getServiceName())) {
             log.info("Consuming MailGun mail service...");
-            MailGunClient mgClient = new MailGunClient(params, attachments, config);
-            mgClient.sendEmail();
+            client = new MailGunClient(mail, config, httpClients.getHttpClient(config));
         } else {
             // It should never come here.
             log.error("It should not come here. Some breaking change in code. Returning a generic error.");
             throw new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.UNEXPECTED_MAIL_SERVICE);
-        }       
+        }
+        if(asyncIo) {
+            client.setAsyncClient(httpClients.getAsyncClient(config));
+        }
+        return client;
+    }
+    
+    private PreparedMail toPreparedMail(List<EmailDelivery> batch) {
+        List<PreparedMail> mails = new ArrayList<>(batch.size());
+        for(EmailDelivery delivery : batch) {
+            mails.add(delivery.getPreparedMail());
+        }
+        return PreparedMail.batch(mails);
+    }
+    
+    // Error of a failed call, without the wrapping of the dependent futures.
+    private Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+    
+    // Unexpected errors of a call are turned into API failures.
+    private ApiResException toApiResException(Throwable ex) {
+        Throwable error = unwrap(ex);
+        if(error instanceof ApiResException) {
+            return (ApiResException) error;
+        }
+        log.error("Unexpected error in calling the mail service.", error);
+        return new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.SERVICE_API_FAILURE);
+    }
+    
+    private static <T> CompletableFuture<T> failedFuture(Throwable ex) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(ex);
+        return future;
     }
 }
@@ -1,9 +1,12 @@
 package com.siteminder.challenge.core;
 
+import java.io.InputStream;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestPart;
@@ -11,6 +14,9 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.siteminder.challenge.attachments.SmAttachmentStore;
+import com.siteminder.challenge.templates.SmTemplateStore;
+
 /*
  * Implementation of SmMailService (SiteMinder Mail Service) REST controller.
  */
@@ -19,10 +25,43 @@ public class SmMailServiceController {
     @Autowired
     private SmMailService mailService;
     
+    @Autowired
+    private SmAttachmentStore attachmentStore;
+    
+    @Autowired
+    private SmTemplateStore templateStore;
+    
     @RequestMapping(value = "/emails", method = RequestMethod.POST)
     public @ResponseBody ResponseEntity<?> sendEmails(
                         @RequestPart("email_params") String emailParams, 
                          @RequestPart("attachments") List<MultipartFile> attachments) {
         return mailService.sendEmail(emailParams, attachments);
     }
+    
+    /*
+     * Accepts many emails in one request. Body is a JSON array or newline delimited JSON of email params.
+     * Body is parsed as a stream, so the whole batch is never held in memory.
+     */
+    @RequestMapping(value = "/emails/batch", method = RequestMethod.POST)
+    public @ResponseBody ResponseEntity<?> sendEmailBatch(InputStream emailParamsStream) {
+        return mailService.sendEmailBatch(emailParamsStream);
+    }
+    
+    /*
+     * Stores attachments sent with many emails. Emails refer to them by the returned ids (attachment_ids).
+     */
+    @RequestMapping(value = "/attachments", method = RequestMethod.POST)
+    public @ResponseBody ResponseEntity<?> storeAttachments(
+                        @RequestPart("attachments") List<MultipartFile> attachments) {
+        return attachmentStore.storeAttachments(attachments);
+    }
+    
+    /*
+     * Stores an email template under the given id. Emails refer to it by that id (template_id).
+     * Body is the JSON of the template, holding its subject and message.
+     */
+    @RequestMapping(value = "/templates/{id}", method = RequestMethod.PUT)
+    public @ResponseBody ResponseEntity<?> storeTemplate(@PathVariable("id") String id, @RequestBody String template) {
+        return templateStore.storeTemplate(id, template);
+    }
 }
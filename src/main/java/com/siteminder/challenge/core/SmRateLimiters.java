@@ -0,0 +1,25 @@
+package com.siteminder.challenge.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+import com.siteminder.challenge.SmMailServiceConfig;
+
+/*
+ * Holds one rate limiter per configured mailing service, shared by all the delivery workers.
+ */
+@Component
+public class SmRateLimiters {
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    
+    /*
+     * Returns the rate limiter of the input mailing service config.
+     * Rate limiter is created on first use.
+     */
+    public RateLimiter getRateLimiter(SmMailServiceConfig config) {
+        return rateLimiters.computeIfAbsent(config.getServiceName().toLowerCase(), 
+                                            name -> new RateLimiter(config.getRateLimit()));
+    }
+}
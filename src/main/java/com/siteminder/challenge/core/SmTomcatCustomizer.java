@@ -0,0 +1,44 @@
+package com.siteminder.challenge.core;
+
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.stereotype.Component;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.commons.VirtualThreads;
+
+/*
+ * Serves every request of the REST API on its own virtual thread, when virtual threads are enabled.
+ * Request threads are no longer bounded by server.tomcat.max-threads then. Concurrent connections
+ * are still bounded by server.tomcat.max-connections.
+ */
+@Component
+public class SmTomcatCustomizer implements WebServerFactoryCustomizer<TomcatServletWebServerFactory> {
+    private static final Log log = LogFactory.getLog(SmTomcatCustomizer.class);
+
+    @Autowired
+    SmAppConfig appConfig;
+
+    @Override
+    public void customize(TomcatServletWebServerFactory factory) {
+        ExecutorService executor = VirtualThreads.newExecutorIfEnabled(appConfig.isVirtualThreads(), "sm-http-");
+        if(executor == null) {
+            return;
+        }
+
+        factory.addConnectorCustomizers(connector -> {
+            ProtocolHandler handler = connector.getProtocolHandler();
+            if(handler instanceof AbstractProtocol) {
+                ((AbstractProtocol<?>) handler).setExecutor(executor);
+                log.info("Requests on port " + connector.getPort() + " are served on virtual threads.");
+            }
+        });
+    }
+}
@@ -0,0 +1,56 @@
+package com.siteminder.challenge.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Lock-free token bucket. Holds up to one second worth of tokens, refilled at the given rate.
+ * Implemented as its equivalent GCRA (generic cell rate algorithm): instead of a token count, the bucket keeps
+ * the time at which it would be full again, as a single atomic value. Taking tokens moves that time forward
+ * by their emission interval, with one compare-and-set. Taking tokens which are not there yet reserves them,
+ * and the caller waits until they are due.
+ * More tokens than the capacity can be taken at once when the bucket is full. The bucket goes into debt then.
+ */
+public class TokenBucket {
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    private final double intervalNanos;
+    private final long capacity;
+    private final AtomicLong fullAt;
+    
+    public TokenBucket(double tokensPerSecond) {
+        this.intervalNanos = (double) SECOND_NANOS / tokensPerSecond;
+        this.capacity = Math.max(1, (long) tokensPerSecond);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+    
+    /*
+     * Reserves the given number of tokens, unless they are due later than maxWaitNanos from now.
+     * Returns the nanoseconds to wait before the tokens are due (0 when they are available now),
+     * or -1 when nothing is reserved.
+     */
+    public long tryReserve(long tokens, long maxWaitNanos) {
+        long cost = (long) (tokens * intervalNanos);
+        long fullCost = (long) (Math.min(tokens, capacity) * intervalNanos);
+        long burst = (long) (capacity * intervalNanos);
+        while(true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long start = current - now > 0 ? current : now;
+            long wait = start + fullCost - burst - now;
+            if(wait > maxWaitNanos) {
+                return -1;
+            }
+            if(fullAt.compareAndSet(current, start + cost)) {
+                return Math.max(wait, 0);
+            }
+        }
+    }
+    
+    /*
+     * Gives back tokens reserved but not used.
+     */
+    public void refund(long tokens) {
+        fullAt.addAndGet(-(long) (tokens * intervalNanos));
+    }
+}
@@ -0,0 +1,22 @@
+package com.siteminder.challenge.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * API response of storing attachments. Holds the id of every stored attachment, in the order they were given.
+ */
+public class AttachmentsApiResponse extends ApiResponse {
+    private List<StoredAttachmentInfo> attachments = new ArrayList<>();
+
+    public AttachmentsApiResponse(int statusCode, String message) {
+        super(statusCode, message);
+    }
+
+    public List<StoredAttachmentInfo> getAttachments() {
+        return attachments;
+    }
+    public void setAttachments(List<StoredAttachmentInfo> attachments) {
+        this.attachments = attachments;
+    }
+}
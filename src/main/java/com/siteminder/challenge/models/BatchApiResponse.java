@@ -0,0 +1,22 @@
+package com.siteminder.challenge.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * API response of a batch request. Holds the status of every email in the batch.
+ */
+public class BatchApiResponse extends ApiResponse {
+    private List<BatchItemResponse> results = new ArrayList<>();
+    
+    public BatchApiResponse(int statusCode, String message) {
+        super(statusCode, message);
+    }
+    
+    public List<BatchItemResponse> getResults() {
+        return results;
+    }
+    public void setResults(List<BatchItemResponse> results) {
+        this.results = results;
+    }
+}
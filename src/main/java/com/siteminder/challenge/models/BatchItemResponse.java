@@ -0,0 +1,20 @@
+package com.siteminder.challenge.models;
+
+/*
+ * Status of a single email of a batch request. Index is the position of the email in the batch.
+ */
+public class BatchItemResponse extends ApiResponse {
+    private int index;
+    
+    public BatchItemResponse(int index, int statusCode, String message) {
+        super(statusCode, message);
+        this.index = index;
+    }
+    
+    public int getIndex() {
+        return index;
+    }
+    public void setIndex(int index) {
+        this.index = index;
+    }
+}
@@ -1,5 +1,6 @@
 package com.siteminder.challenge.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
@@ -12,6 +13,10 @@ public class Email {
     @JsonProperty("email")
     private String email;
     
+    // Normalized form of the address. Set once the address is validated.
+    @JsonIgnore
+    private String normalizedEmail;
+    
     public Email() {
     }
     
@@ -30,4 +35,12 @@ public class Email {
     public void setEmail(String email) {
         this.email = email;
     }
+    
+    @JsonIgnore
+    public String getNormalizedEmail() {
+        return normalizedEmail;
+    }
+    public void setNormalizedEmail(String normalizedEmail) {
+        this.normalizedEmail = normalizedEmail;
+    }
 }
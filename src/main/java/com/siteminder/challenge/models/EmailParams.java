@@ -1,7 +1,9 @@
 package com.siteminder.challenge.models;
 
 import java.util.List;
+import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -26,6 +28,35 @@ public class EmailParams {
     @JsonProperty("message")
     private String message; 
     
+    // HTML alternative of the message. Either of them may be left out.
+    @JsonProperty("html")
+    private String html;
+    
+    // Filenames of the attachments shown inline in the HTML. They are referred to as cid:<filename>.
+    @JsonProperty("inline")
+    private List<String> inline;
+    
+    // Ids of stored attachments sent along with the uploaded ones.
+    @JsonProperty("attachment_ids")
+    private List<String> attachmentIds;
+    
+    // Id of a registered template. Subject and message are rendered from it, using the template variables.
+    @JsonProperty("template_id")
+    private String templateId;
+    
+    @JsonProperty("template_variables")
+    private Map<String, String> templateVariables;
+    
+    // Set once the params are validated, so that they are not validated again on every send attempt.
+    // Params must not be changed afterwards.
+    @JsonIgnore
+    private boolean validated;
+    
+    // Message-ID header of the email. Set when the email is accepted and kept in the outbox, so that
+    // every mail service and every retry sends the same Message-ID, and duplicates can be told apart.
+    @JsonIgnore
+    private String messageId;
+    
     public EmailParams() {
     }
     
@@ -76,4 +107,60 @@ public class EmailParams {
     public void setMessage(String message) {
         this.message = message;
     }
+    
+    @JsonProperty("html")
+    public String getHtml() {
+        return html;
+    }
+    public void setHtml(String html) {
+        this.html = html;
+    }
+    
+    @JsonProperty("inline")
+    public List<String> getInline() {
+        return inline;
+    }
+    public void setInline(List<String> inline) {
+        this.inline = inline;
+    }
+    
+    @JsonProperty("attachment_ids")
+    public List<String> getAttachmentIds() {
+        return attachmentIds;
+    }
+    public void setAttachmentIds(List<String> attachmentIds) {
+        this.attachmentIds = attachmentIds;
+    }
+    
+    @JsonProperty("template_id")
+    public String getTemplateId() {
+        return templateId;
+    }
+    public void setTemplateId(String templateId) {
+        this.templateId = templateId;
+    }
+    
+    @JsonProperty("template_variables")
+    public Map<String, String> getTemplateVariables() {
+        return templateVariables;
+    }
+    public void setTemplateVariables(Map<String, String> templateVariables) {
+        this.templateVariables = templateVariables;
+    }
+    
+    @JsonIgnore
+    public boolean isValidated() {
+        return validated;
+    }
+    public void setValidated(boolean validated) {
+        this.validated = validated;
+    }
+    
+    @JsonIgnore
+    public String getMessageId() {
+        return messageId;
+    }
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package com.siteminder.challenge.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/*
+ * Subject, message and HTML of an email template. Variables are written as {{name}}.
+ * Also holds a rendered subject, message and HTML, shared by the emails rendered with the same variables.
+ */
+@JsonInclude(Include.NON_NULL)
+public class EmailTemplate {
+    @JsonProperty("subject")
+    private String subject;
+
+    @JsonProperty("message")
+    private String message;
+
+    @JsonProperty("html")
+    private String html;
+
+    public EmailTemplate() {
+    }
+
+    public EmailTemplate(String subject, String message) {
+        this(subject, message, null);
+    }
+
+    public EmailTemplate(String subject, String message, String html) {
+        this.subject = subject;
+        this.message = message;
+        this.html = html;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getHtml() {
+        return html;
+    }
+    public void setHtml(String html) {
+        this.html = html;
+    }
+}
@@ -0,0 +1,51 @@
+package com.siteminder.challenge.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/*
+ * Describes a stored attachment. Id is the SHA-256 of its content, in hex.
+ * Written next to the content in the attachment store, and returned when attachments are stored.
+ */
+@JsonInclude(Include.NON_NULL)
+public class StoredAttachmentInfo {
+    private String id;
+    private String filename;
+    private String contentType;
+    private long size;
+
+    public StoredAttachmentInfo() {
+    }
+
+    public StoredAttachmentInfo(String id, String filename, String contentType, long size) {
+        this.id = id;
+        this.filename = filename;
+        this.contentType = contentType;
+        this.size = size;
+    }
+
+    public String getId() {
+        return id;
+    }
+    public void setId(String id) {
+        this.id = id;
+    }
+    public String getFilename() {
+        return filename;
+    }
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+    public String getContentType() {
+        return contentType;
+    }
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+    public long getSize() {
+        return size;
+    }
+    public void setSize(long size) {
+        this.size = size;
+    }
+}
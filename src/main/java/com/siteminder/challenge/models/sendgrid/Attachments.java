@@ -1,12 +1,19 @@
 package com.siteminder.challenge.models.sendgrid;
 
+import org.springframework.web.multipart.MultipartFile;
+
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
+/*
+ * Content is the attached file itself. It is Base64 encoded while the mail is written
+ * to the request, so the encoded attachment is never held in memory.
+ */
 @JsonInclude(Include.NON_NULL)
 public class Attachments {
-    private String content;
+    @JsonSerialize(using = Base64ContentSerializer.class) private MultipartFile content;
     private String type;
     private String filename;
     private String disposition;
@@ -16,7 +23,7 @@ public class Attachments {
         
     }
     
-    public Attachments(String content, String type, String filename, String disposition, String contentId) {
+    public Attachments(MultipartFile content, String type, String filename, String disposition, String contentId) {
         this.content = content;
         this.type = type;
         this.filename = filename;
@@ -24,10 +31,11 @@ public class Attachments {
         this.contentId = contentId;
     }
     
-    public String getContent() {
+    @JsonSerialize(using = Base64ContentSerializer.class)
+    public MultipartFile getContent() {
         return content;
     }
-    public void setContent(String content) {
+    public void setContent(MultipartFile content) {
         this.content = content;
     }
     public String getType() {
@@ -0,0 +1,34 @@
+package com.siteminder.challenge.models.sendgrid;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import com.siteminder.challenge.attachments.StoredAttachment;
+
+/*
+ * Writes the content of an attached file as a Base64 string.
+ * Content is read and encoded in small chunks straight into the JSON output.
+ * Stored attachments are encoded once and their cached encoding is written as it is.
+ */
+public class Base64ContentSerializer extends JsonSerializer<MultipartFile> {
+    @Override
+    public void serialize(MultipartFile file, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        if(file instanceof StoredAttachment) {
+            byte[] encoded = ((StoredAttachment) file).getBase64();
+            if(encoded != null) {
+                // Base64 needs no escaping.
+                gen.writeRawUTF8String(encoded, 0, encoded.length);
+                return;
+            }
+        }
+        try(InputStream iStream = file.getInputStream()) {
+            gen.writeBinary(iStream, (int) file.getSize());
+        }
+    }
+}
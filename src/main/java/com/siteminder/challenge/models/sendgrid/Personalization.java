@@ -1,6 +1,7 @@
 package com.siteminder.challenge.models.sendgrid;
 
 import java.util.List;
+import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
@@ -12,6 +13,7 @@ public class Personalization {
     private List<Email> cc;
     private List<Email> bcc;
     private String subject;
+    private Map<String, String> headers;
     
     public Personalization() {
         
@@ -48,4 +50,10 @@ public class Personalization {
     public void setSubject(String subject) {
         this.subject = subject;
     }
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = headers;
+    }
 }
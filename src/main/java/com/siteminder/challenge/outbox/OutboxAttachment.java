@@ -0,0 +1,137 @@
+package com.siteminder.challenge.outbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.springframework.web.multipart.MultipartFile;
+
+/*
+ * Attachment whose content lives in an outbox journal segment.
+ * Content is read from the segment on demand, so journaled emails don't hold their attachments in heap.
+ */
+public class OutboxAttachment implements MultipartFile {
+    private final String name;
+    private final String originalFilename;
+    private final String contentType;
+    private final long size;
+    private final Path segment;
+    private final long position;
+
+    public OutboxAttachment(OutboxEntry.AttachmentInfo info, Path segment, long position) {
+        this.name = info.getName();
+        this.originalFilename = info.getFilename();
+        this.contentType = info.getContentType();
+        this.size = info.getSize();
+        this.segment = segment;
+        this.position = position;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        byte[] content = new byte[(int) size];
+        try(InputStream in = getInputStream()) {
+            int offset = 0;
+            while(offset < content.length) {
+                int read = in.read(content, offset, content.length - offset);
+                if(read < 0) {
+                    throw new IOException("Unexpected end of outbox segment.");
+                }
+                offset += read;
+            }
+        }
+        return content;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new SegmentInputStream(FileChannel.open(segment, StandardOpenOption.READ), position, size);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        try(FileChannel source = FileChannel.open(segment, StandardOpenOption.READ);
+            FileChannel target = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long transferred = 0;
+            while(transferred < size) {
+                transferred += source.transferTo(position + transferred, size - transferred, target);
+            }
+        }
+    }
+
+    /*
+     * Reads a slice of a segment file using positional reads.
+     */
+    private static class SegmentInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        SegmentInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if(remaining <= 0) {
+                return -1;
+            }
+            int toRead = (int) Math.min(length, remaining);
+            int read = channel.read(ByteBuffer.wrap(buffer, offset, toRead), position);
+            if(read < 0) {
+                return -1;
+            }
+            position += read;
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
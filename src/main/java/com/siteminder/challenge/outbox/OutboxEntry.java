@@ -0,0 +1,115 @@
+package com.siteminder.challenge.outbox;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.siteminder.challenge.models.EmailParams;
+
+/*
+ * Header of an accepted email in the outbox journal.
+ * Attachment contents follow the header in the journal record, in the same order.
+ */
+@JsonInclude(Include.NON_NULL)
+public class OutboxEntry {
+    @JsonProperty("email_params")
+    private EmailParams emailParams;
+
+    @JsonProperty("attachments")
+    private List<AttachmentInfo> attachments;
+
+    // Message-ID given to the email when it was accepted. Retries and recovered emails are sent with it again.
+    @JsonProperty("message_id")
+    private String messageId;
+
+    public OutboxEntry() {
+    }
+
+    public OutboxEntry(EmailParams emailParams, List<AttachmentInfo> attachments) {
+        this.emailParams = emailParams;
+        this.attachments = attachments;
+        this.messageId = emailParams.getMessageId();
+    }
+
+    @JsonProperty("email_params")
+    public EmailParams getEmailParams() {
+        return emailParams;
+    }
+    public void setEmailParams(EmailParams emailParams) {
+        this.emailParams = emailParams;
+    }
+
+    @JsonProperty("attachments")
+    public List<AttachmentInfo> getAttachments() {
+        return attachments;
+    }
+    public void setAttachments(List<AttachmentInfo> attachments) {
+        this.attachments = attachments;
+    }
+
+    @JsonProperty("message_id")
+    public String getMessageId() {
+        return messageId;
+    }
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    @JsonInclude(Include.NON_NULL)
+    public static class AttachmentInfo {
+        @JsonProperty("name")
+        private String name;
+
+        @JsonProperty("filename")
+        private String filename;
+
+        @JsonProperty("content_type")
+        private String contentType;
+
+        @JsonProperty("size")
+        private long size;
+
+        public AttachmentInfo() {
+        }
+
+        public AttachmentInfo(String name, String filename, String contentType, long size) {
+            this.name = name;
+            this.filename = filename;
+            this.contentType = contentType;
+            this.size = size;
+        }
+
+        @JsonProperty("name")
+        public String getName() {
+            return name;
+        }
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @JsonProperty("filename")
+        public String getFilename() {
+            return filename;
+        }
+        public void setFilename(String filename) {
+            this.filename = filename;
+        }
+
+        @JsonProperty("content_type")
+        public String getContentType() {
+            return contentType;
+        }
+        public void setContentType(String contentType) {
+            this.contentType = contentType;
+        }
+
+        @JsonProperty("size")
+        public long getSize() {
+            return size;
+        }
+        public void setSize(long size) {
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,659 @@
+package com.siteminder.challenge.outbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.web.multipart.MultipartFile;
+
+/*
+ * Append-only journal of the outbox, split into segment files.
+ * Each record is framed as [payload length][crc32][type][id][payload].
+ * Space of a record is reserved under a lock, and its content is written outside of it, so that appends of large
+ * attachments do not hold up each other. Records are published in the order they are reserved.
+ * Published appends are made durable by a single sync thread, so that appends arriving close together share one
+ * fsync (group commit). A record is only acknowledged once every record reserved before it is durable as well,
+ * so that a crash never leaves an acknowledged record behind a torn one.
+ * Segments are deleted oldest first, once every email accepted in them is completed.
+ */
+public class OutboxJournal implements Closeable {
+    public static final byte ACCEPTED = 1;
+    public static final byte COMPLETED = 2;
+    // Space of an append which failed while its content was written. Its payload is skipped on recovery.
+    public static final byte ABORTED = 3;
+
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 1 + 8;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_SYNC_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final Log log = LogFactory.getLog(OutboxJournal.class);
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long syncIntervalNanos;
+    private final int syncBatchSize;
+
+    // All the fields below are guarded by this journal's monitor.
+    private final TreeMap<Long, Integer> openEntriesBySegment = new TreeMap<>();
+    private final Map<Long, Record> recordById = new HashMap<>();
+    private final byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+    private Segment active;
+    // Segments rolled over, which are closed by the sync thread once their writes are over and durable.
+    private final List<Segment> retiring = new ArrayList<>();
+    private long nextId = 1;
+    // Sequences of the appends: reserved, published without a gap, and durable.
+    private long reservedCount;
+    private long appendedCount;
+    private long syncedCount;
+    // Sequences published ahead of an append still being written.
+    private final TreeSet<Long> publishedAhead = new TreeSet<>();
+    // Sequences covered by failed syncs, as (first sequence - 1) to last sequence.
+    private final TreeMap<Long, Long> failedSyncs = new TreeMap<>();
+    private IOException writeFailure;
+    private boolean closed;
+
+    private Thread syncThread;
+
+    public OutboxJournal(Path directory, long segmentSize, long syncInterval, int syncBatchSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncInterval);
+        this.syncBatchSize = syncBatchSize;
+    }
+
+    /*
+     * Replays the existing segments and starts a fresh segment for new appends.
+     * Returns the accepted records which are not completed yet, in the order they were accepted.
+     */
+    public synchronized List<Record> open() throws IOException {
+        Files.createDirectories(directory);
+        List<Long> segments = listSegments();
+        Map<Long, Record> pending = new LinkedHashMap<>();
+
+        for(int i = 0; i < segments.size(); i++) {
+            long segment = segments.get(i);
+            readSegment(segment, i == segments.size() - 1, pending);
+            openEntriesBySegment.put(segment, 0);
+        }
+
+        for(Record record : pending.values()) {
+            openEntriesBySegment.merge(record.getSegment(), 1, Integer::sum);
+            recordById.put(record.getId(), record);
+        }
+
+        active = openSegment(segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1);
+        openEntriesBySegment.put(active.number, 0);
+        deleteCompletedSegments();
+
+        syncThread = new Thread(this::syncLoop, "sm-outbox-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+
+        return new ArrayList<>(pending.values());
+    }
+
+    /*
+     * Appends an accepted email. The payload is the given header followed by the content of every body.
+     * Returns once the record is durable on disk.
+     */
+    public Record appendAccepted(byte[] header, List<MultipartFile> bodies) throws IOException {
+        return appendAccepted(header, bodies, true);
+    }
+
+    /*
+     * Appends an accepted email. When durable is false, returns as soon as the record is written.
+     * Use awaitDurable to wait for a group of such records with a single wait.
+     * A durable append which cannot be synced is completed, so that it is not recovered after restart.
+     */
+    public Record appendAccepted(byte[] header, List<MultipartFile> bodies, boolean durable) throws IOException {
+        long payloadLength = 4L + header.length;
+        for(MultipartFile body : bodies) {
+            payloadLength += body.getSize();
+        }
+        if(payloadLength > Integer.MAX_VALUE) {
+            throw new IOException("Outbox record of " + payloadLength + " bytes is too large.");
+        }
+
+        Segment segment;
+        long id;
+        long start;
+        long sequence;
+        synchronized(this) {
+            ensureOpen();
+            rollSegmentIfNeeded(RECORD_HEADER_SIZE + payloadLength);
+            segment = active;
+            id = nextId++;
+            start = segment.end;
+            segment.end += RECORD_HEADER_SIZE + payloadLength;
+            segment.writers++;
+            sequence = ++reservedCount;
+            // Counted as open right away, so that the segment is not deleted while being written.
+            openEntriesBySegment.merge(segment.number, 1, Integer::sum);
+        }
+
+        IOException failure = null;
+        try {
+            writeAccepted(segment.channel, start, id, header, bodies, (int) payloadLength);
+        } catch(IOException ioEx) {
+            failure = ioEx;
+        }
+
+        Record record = null;
+        synchronized(this) {
+            segment.writers--;
+            if(failure == null) {
+                record = new Record(id, segment.number, segment.path, start + RECORD_HEADER_SIZE, payloadLength, sequence);
+                recordById.put(id, record);
+            } else {
+                abort(segment, start, (int) payloadLength, id);
+            }
+            publish(sequence);
+            if(failure != null) {
+                throw failure;
+            }
+            if(durable) {
+                try {
+                    awaitSync(sequence);
+                } catch(IOException ioEx) {
+                    completeUnacknowledged(id);
+                    throw ioEx;
+                }
+            }
+            return record;
+        }
+    }
+
+    /*
+     * Waits until the given record, and every record appended before it, is durable on disk.
+     */
+    public synchronized void awaitDurable(Record record) throws IOException {
+        awaitSync(record.sequence);
+    }
+
+    /*
+     * Returns the accepted record with the given id. Null when it is completed already.
+     */
+    public synchronized Record getRecord(long id) {
+        return recordById.get(id);
+    }
+
+    /*
+     * Marks an accepted email as completed. Does not wait for the record to be durable;
+     * losing it in a crash only means that the email is delivered once more after restart.
+     */
+    public synchronized void appendCompleted(long id) throws IOException {
+        ensureOpen();
+        rollSegmentIfNeeded(RECORD_HEADER_SIZE);
+
+        long start = active.end;
+        CRC32 crc = new CRC32();
+        updateChecksum(crc, COMPLETED, id);
+        writeRecordHeader(active.channel, start, 0, crc, COMPLETED, id);
+        active.end += RECORD_HEADER_SIZE;
+        publish(++reservedCount);
+
+        Record record = recordById.remove(id);
+        if(record != null) {
+            openEntriesBySegment.merge(record.getSegment(), -1, Integer::sum);
+            deleteCompletedSegments();
+        }
+    }
+
+    /*
+     * Flushes the pending appends and closes the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized(this) {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            for(Segment segment : retiring) {
+                closeSegment(segment);
+            }
+            retiring.clear();
+            if(active != null) {
+                active.channel.force(false);
+                active.channel.close();
+            }
+            syncedCount = appendedCount;
+            notifyAll();
+        }
+
+        if(syncThread != null) {
+            try {
+                syncThread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch(InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+     * Sync thread. Waits for appends, lets them gather for the configured interval
+     * (or until the batch size is reached) and then makes all of them durable with a single fsync.
+     * A failed sync fails the appends waiting on it, and is tried again after the sync interval.
+     */
+    private void syncLoop() {
+        while(true) {
+            List<Segment> segments;
+            List<Segment> closable = new ArrayList<>();
+            long from;
+            long target;
+            synchronized(this) {
+                try {
+                    while(!closed && syncedCount == appendedCount) {
+                        wait();
+                    }
+                    long deadline = System.nanoTime() + syncIntervalNanos;
+                    while(!closed && appendedCount - syncedCount < syncBatchSize) {
+                        long remaining = deadline - System.nanoTime();
+                        if(remaining <= 0) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                } catch(InterruptedException intEx) {
+                    return;
+                }
+                if(closed) {
+                    return;
+                }
+                segments = new ArrayList<>(retiring);
+                segments.add(active);
+                for(Segment segment : retiring) {
+                    if(segment.writers == 0) {
+                        closable.add(segment);
+                    }
+                }
+                from = syncedCount;
+                target = appendedCount;
+            }
+
+            IOException failure = null;
+            for(Segment segment : segments) {
+                try {
+                    force(segment.channel);
+                } catch(ClosedChannelException ccEx) {
+                    // Segment deleted meanwhile, as every email in it is completed.
+                } catch(IOException ioEx) {
+                    failure = ioEx;
+                    break;
+                }
+            }
+
+            synchronized(this) {
+                if(failure != null) {
+                    log.error("Unable to sync the outbox journal. Appends waiting on it are failed.", failure);
+                    failedSyncs.merge(from, target, Math::max);
+                    notifyAll();
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, Math.max(syncIntervalNanos, MIN_SYNC_RETRY_NANOS));
+                    } catch(InterruptedException intEx) {
+                        return;
+                    }
+                    continue;
+                }
+
+                syncedCount = Math.max(syncedCount, target);
+                failedSyncs.values().removeIf(last -> last <= syncedCount);
+                for(Segment segment : closable) {
+                    if(retiring.remove(segment)) {
+                        closeSegment(segment);
+                    }
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /*
+     * Forces the content of a segment to disk.
+     */
+    void force(FileChannel channel) throws IOException {
+        channel.force(false);
+    }
+
+    // Waits until the sync thread has made the append of the given sequence durable. Caller holds the monitor.
+    // Fails when a sync covering the append fails.
+    private void awaitSync(long sequence) throws IOException {
+        while(syncedCount < sequence) {
+            Map.Entry<Long, Long> failed = failedSyncs.lowerEntry(sequence);
+            if(failed != null && failed.getValue() >= sequence) {
+                throw new IOException("Outbox journal could not be synced.");
+            }
+            if(closed) {
+                throw new IOException("Outbox journal is closed.");
+            }
+            try {
+                wait();
+            } catch(InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the outbox journal sync.");
+            }
+        }
+    }
+
+    // Completes an accepted record whose append was not acknowledged, so that it is not recovered after restart.
+    // Caller holds the monitor.
+    private void completeUnacknowledged(long id) {
+        try {
+            appendCompleted(id);
+        } catch(IOException ioEx) {
+            log.error("Unable to complete unacknowledged outbox entry " + id + ". It may be delivered after restart.", ioEx);
+        }
+    }
+
+    // Publishes a written append. Appends count as appended only up to the first one still being written.
+    // Caller holds the monitor.
+    private void publish(long sequence) {
+        if(sequence != appendedCount + 1) {
+            publishedAhead.add(sequence);
+            return;
+        }
+        appendedCount = sequence;
+        while(!publishedAhead.isEmpty() && publishedAhead.first() == appendedCount + 1) {
+            appendedCount = publishedAhead.pollFirst();
+        }
+        notifyAll();
+    }
+
+    // Writes the payload and then the header of an accepted record into its reserved space.
+    // Called without the monitor. Positional writes do not interfere with the other appends.
+    private void writeAccepted(FileChannel channel, long start, long id, byte[] header, List<MultipartFile> bodies,
+                                int payloadLength) throws IOException {
+        CRC32 crc = new CRC32();
+        updateChecksum(crc, ACCEPTED, id);
+        long position = start + RECORD_HEADER_SIZE;
+
+        ByteBuffer prefix = ByteBuffer.allocate(4 + header.length);
+        prefix.putInt(header.length).put(header).flip();
+        crc.update(prefix.array(), 0, prefix.limit());
+        position = writeFully(channel, prefix, position);
+
+        byte[] buffer = bodies.isEmpty() ? null : new byte[COPY_BUFFER_SIZE];
+        for(MultipartFile body : bodies) {
+            long bodyEnd = position + body.getSize();
+            try(InputStream in = body.getInputStream()) {
+                int read;
+                while((read = in.read(buffer, 0, (int) Math.min(buffer.length, Math.max(bodyEnd - position, 1)))) > 0) {
+                    if(position + read > bodyEnd) {
+                        throw new IOException("Attachment " + body.getOriginalFilename() + " changed while being journaled.");
+                    }
+                    crc.update(buffer, 0, read);
+                    position = writeFully(channel, ByteBuffer.wrap(buffer, 0, read), position);
+                }
+            }
+            if(position != bodyEnd) {
+                throw new IOException("Attachment " + body.getOriginalFilename() + " changed while being journaled.");
+            }
+        }
+
+        writeRecordHeader(channel, start, payloadLength, crc, ACCEPTED, id);
+    }
+
+    // Marks the reserved space of a failed append as aborted, so that recovery skips it and reads on.
+    // When even that fails, the segment cannot be read past this point, so no further appends are taken.
+    // Caller holds the monitor.
+    private void abort(Segment segment, long start, int payloadLength, long id) {
+        openEntriesBySegment.merge(segment.number, -1, Integer::sum);
+        try {
+            CRC32 crc = new CRC32();
+            updateChecksum(crc, ABORTED, id);
+            writeRecordHeader(segment.channel, start, payloadLength, crc, ABORTED, id);
+        } catch(IOException ioEx) {
+            log.error("Unable to write to the outbox journal. No further emails are accepted.", ioEx);
+            writeFailure = ioEx;
+        }
+    }
+
+    // Reads the records of a segment into the pending map. A torn tail of the last segment is truncated.
+    private void readSegment(long segment, boolean last, /*out*/ Map<Long, Record> pending) throws IOException {
+        Path path = segmentPath(segment);
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+            while(position + RECORD_HEADER_SIZE <= size) {
+                header.clear();
+                readFully(channel, header, position);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                byte type = header.get();
+                long id = header.getLong();
+
+                long payloadPosition = position + RECORD_HEADER_SIZE;
+                // Payload of an aborted append is not checksummed, as it was never completely written.
+                int checkedLength = type == ABORTED ? 0 : length;
+                if(length < 0 || payloadPosition + length > size
+                        || checksum != checksum(channel, type, id, payloadPosition, checkedLength)) {
+                    break;
+                }
+
+                nextId = Math.max(nextId, id + 1);
+                if(type == ACCEPTED) {
+                    pending.put(id, new Record(id, segment, path, payloadPosition, length, 0));
+                } else if(type == COMPLETED) {
+                    pending.remove(id);
+                }
+                position = payloadPosition + length;
+            }
+
+            if(position < size) {
+                log.error("Ignoring torn or corrupted outbox records in " + path + " from offset " + position);
+                if(last) {
+                    channel.truncate(position);
+                }
+            }
+        }
+    }
+
+    // Computes the checksum of a record already on disk.
+    private int checksum(FileChannel channel, byte type, long id, long position, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        updateChecksum(crc, type, id);
+        ByteBuffer buffer = ByteBuffer.wrap(copyBuffer);
+        long end = position + length;
+        while(position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            readFully(channel, buffer, position);
+            crc.update(copyBuffer, 0, buffer.limit());
+            position += buffer.limit();
+        }
+        return (int) crc.getValue();
+    }
+
+    private void updateChecksum(CRC32 crc, byte type, long id) {
+        crc.update(type);
+        for(int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (id >>> shift));
+        }
+    }
+
+    // Writes the record header in front of a payload which is already written.
+    private void writeRecordHeader(FileChannel channel, long position, int length, CRC32 crc, byte type, long id)
+                                    throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        header.putInt(length).putInt((int) crc.getValue()).put(type).putLong(id).flip();
+        writeFully(channel, header, position);
+    }
+
+    // Writes the whole buffer at the given position. Returns the position right after it.
+    private long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if(read < 0) {
+                throw new IOException("Unexpected end of outbox segment.");
+            }
+            position += read;
+        }
+    }
+
+    // Starts a new segment when the record does not fit in the active one.
+    // The active segment is closed by the sync thread, once the appends still being written into it are over.
+    private void rollSegmentIfNeeded(long recordSize) throws IOException {
+        if(active.end == 0 || active.end + recordSize <= segmentSize) {
+            return;
+        }
+
+        Segment next = openSegment(active.number + 1);
+        retiring.add(active);
+        active = next;
+        openEntriesBySegment.put(active.number, 0);
+        deleteCompletedSegments();
+    }
+
+    // Deletes the oldest segments as long as all the emails accepted in them are completed.
+    private void deleteCompletedSegments() {
+        while(!openEntriesBySegment.isEmpty()) {
+            Map.Entry<Long, Integer> oldest = openEntriesBySegment.firstEntry();
+            if(oldest.getKey() == active.number || oldest.getValue() > 0) {
+                return;
+            }
+            openEntriesBySegment.pollFirstEntry();
+            // Nothing is being written into it, as every append into it is counted as open until written.
+            for(Iterator<Segment> it = retiring.iterator(); it.hasNext(); ) {
+                Segment segment = it.next();
+                if(segment.number == oldest.getKey()) {
+                    it.remove();
+                    closeSegment(segment);
+                }
+            }
+            try {
+                Files.deleteIfExists(segmentPath(oldest.getKey()));
+            } catch(IOException ioEx) {
+                log.error("Unable to delete the completed outbox segment " + oldest.getKey(), ioEx);
+            }
+        }
+    }
+
+    private void closeSegment(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch(IOException ioEx) {
+            log.error("Unable to close the outbox segment " + segment.number, ioEx);
+        }
+    }
+
+    private Segment openSegment(long number) throws IOException {
+        Path path = segmentPath(number);
+        return new Segment(number, path, FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for(Path path : stream) {
+                String name = path.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private void ensureOpen() throws IOException {
+        if(closed || active == null) {
+            throw new IOException("Outbox journal is not open.");
+        }
+        if(writeFailure != null) {
+            throw new IOException("Outbox journal could not be written.", writeFailure);
+        }
+    }
+
+    // Segment file being appended to. Guarded by the journal's monitor, except for the writes into its channel.
+    private static final class Segment {
+        private final long number;
+        private final Path path;
+        private final FileChannel channel;
+        // End of the space reserved so far.
+        private long end;
+        // Appends reserved in this segment and still being written.
+        private int writers;
+
+        Segment(long number, Path path, FileChannel channel) {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    /*
+     * Location of an accepted record's payload in the journal.
+     */
+    public static class Record {
+        private final long id;
+        private final long segment;
+        private final Path path;
+        private final long payloadPosition;
+        private final long payloadLength;
+        private final long sequence;
+
+        Record(long id, long segment, Path path, long payloadPosition, long payloadLength, long sequence) {
+            this.id = id;
+            this.segment = segment;
+            this.path = path;
+            this.payloadPosition = payloadPosition;
+            this.payloadLength = payloadLength;
+            this.sequence = sequence;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getSegment() {
+            return segment;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getPayloadPosition() {
+            return payloadPosition;
+        }
+
+        public long getPayloadLength() {
+            return payloadLength;
+        }
+    }
+}
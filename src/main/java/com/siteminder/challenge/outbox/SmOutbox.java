@@ -0,0 +1,275 @@
+package com.siteminder.challenge.outbox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.SmOutboxConfig;
+import com.siteminder.challenge.attachments.SmAttachmentStore;
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.commons.JsonMappers;
+import com.siteminder.challenge.commons.Utils;
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.core.EmailDelivery;
+import com.siteminder.challenge.models.EmailParams;
+import com.siteminder.challenge.spool.SmAttachmentSpool;
+
+/*
+ * Durable outbox of accepted emails.
+ * Every accepted email (parameters and attachment contents) is written to the outbox journal
+ * before it is acknowledged, and marked completed once its delivery is over.
+ * Emails which are not completed are recovered from the journal on startup.
+ * Stored attachments are not written to the journal. Emails keep their ids, and they are looked up again on recovery.
+ * When the outbox is disabled, accepted emails are only held in memory, and their attachments in the attachment spool.
+ */
+@Component
+public class SmOutbox {
+    private static final Log log = LogFactory.getLog(SmOutbox.class);
+
+    @Autowired
+    SmAppConfig appConfig;
+
+    @Autowired
+    SmAttachmentStore attachmentStore;
+
+    @Autowired
+    SmAttachmentSpool attachmentSpool;
+
+    private OutboxJournal journal;
+    private List<EmailDelivery> recovered = new ArrayList<>();
+
+    /*
+     * Opens the journal and recovers the emails which were accepted but not delivered.
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        SmOutboxConfig outboxConfig = appConfig.getOutbox();
+        if(!outboxConfig.isEnabled()) {
+            log.info("Outbox is disabled. Accepted emails are held only in memory until delivered.");
+            return;
+        }
+
+        journal = new OutboxJournal(Paths.get(outboxConfig.getDirectory()), outboxConfig.getSegmentSize(),
+                                    outboxConfig.getSyncInterval(), outboxConfig.getSyncBatchSize());
+        for(OutboxJournal.Record record : journal.open()) {
+            try {
+                recovered.add(readDelivery(record));
+            } catch(IOException ioEx) {
+                log.error("Dropping unreadable outbox entry " + record.getId(), ioEx);
+                journal.appendCompleted(record.getId());
+            }
+        }
+        log.info("Recovered " + recovered.size() + " undelivered emails from the outbox.");
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if(journal != null) {
+            journal.close();
+        }
+    }
+
+    /*
+     * Returns the emails recovered on startup. Subsequent calls return an empty list.
+     */
+    public synchronized List<EmailDelivery> takeRecovered() {
+        List<EmailDelivery> deliveries = recovered;
+        recovered = new ArrayList<>();
+        return deliveries;
+    }
+
+    /*
+     * Records an accepted email in the outbox. Returns once the email is durable.
+     */
+    public EmailDelivery accept(EmailParams params, List<MultipartFile> attachments) throws ApiResException {
+        List<MultipartFile> files = attachments != null ? attachments : Collections.emptyList();
+        List<MultipartFile> stored = attachmentStore.resolve(params);
+        assignMessageId(params);
+        if(journal == null) {
+            return new EmailDelivery(0, params, withStored(detachAttachments(files), stored));
+        }
+
+        try {
+            List<OutboxEntry.AttachmentInfo> infos = new ArrayList<>();
+            for(MultipartFile file : files) {
+                infos.add(new OutboxEntry.AttachmentInfo(file.getName(), file.getOriginalFilename(),
+                                                            file.getContentType(), file.getSize()));
+            }
+            OutboxEntry entry = new OutboxEntry(params, infos);
+            byte[] header = JsonMappers.OUTBOX_ENTRY_WRITER.writeValueAsBytes(entry);
+            OutboxJournal.Record record = journal.appendAccepted(header, files);
+            return toDelivery(record, entry, header.length, stored);
+        } catch(IOException ioEx) {
+            log.error(Constants.ApiStatusMessages.OUTBOX_FAILURE, ioEx);
+            throw new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.OUTBOX_FAILURE);
+        }
+    }
+
+    /*
+     * Records a batch of accepted emails without attachments in the outbox.
+     * All of them share a single wait for durability.
+     */
+    public List<EmailDelivery> acceptAll(List<EmailParams> paramsList) throws ApiResException {
+        List<EmailDelivery> deliveries = new ArrayList<>();
+        List<List<MultipartFile>> storedList = new ArrayList<>(paramsList.size());
+        for(EmailParams params : paramsList) {
+            storedList.add(attachmentStore.resolve(params));
+            assignMessageId(params);
+        }
+        if(journal == null) {
+            for(int i = 0; i < paramsList.size(); i++) {
+                deliveries.add(new EmailDelivery(0, paramsList.get(i), storedList.get(i)));
+            }
+            return deliveries;
+        }
+
+        try {
+            OutboxJournal.Record last = null;
+            for(int i = 0; i < paramsList.size(); i++) {
+                OutboxEntry entry = new OutboxEntry(paramsList.get(i), Collections.emptyList());
+                byte[] header = JsonMappers.OUTBOX_ENTRY_WRITER.writeValueAsBytes(entry);
+                last = journal.appendAccepted(header, Collections.emptyList(), false);
+                deliveries.add(toDelivery(last, entry, header.length, storedList.get(i)));
+            }
+            if(last != null) {
+                journal.awaitDurable(last);
+            }
+            return deliveries;
+        } catch(IOException ioEx) {
+            log.error(Constants.ApiStatusMessages.OUTBOX_FAILURE, ioEx);
+            // Entries written before the failure are not acknowledged, so they must not be delivered.
+            for(EmailDelivery delivery : deliveries) {
+                complete(delivery);
+            }
+            throw new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.OUTBOX_FAILURE);
+        }
+    }
+
+    /*
+     * Whether accepted emails are kept in the journal, so that they can be dropped from memory and read back later.
+     */
+    public boolean isJournaled() {
+        return journal != null;
+    }
+
+    /*
+     * Reads an accepted email back from the journal. Returns null when it is completed already.
+     * An email which cannot be read any more is completed, and null is returned.
+     */
+    public EmailDelivery reload(long id) {
+        OutboxJournal.Record record = journal.getRecord(id);
+        if(record == null) {
+            return null;
+        }
+        try {
+            return readDelivery(record);
+        } catch(IOException ioEx) {
+            log.error("Dropping unreadable outbox entry " + id, ioEx);
+            complete(new EmailDelivery(id, null, null));
+            return null;
+        }
+    }
+
+    /*
+     * Marks the email as completed, so that it is not recovered again after restart.
+     */
+    public void complete(EmailDelivery delivery) {
+        if(journal == null) {
+            attachmentSpool.release(delivery.getAttachments());
+            return;
+        }
+
+        try {
+            journal.appendCompleted(delivery.getId());
+        } catch(IOException ioEx) {
+            log.error("Unable to complete outbox entry " + delivery.getId() + ". It will be delivered again after restart.", ioEx);
+        }
+    }
+
+    // Reads the header of a journaled email. Attachments stay in the journal and are read on demand.
+    private EmailDelivery readDelivery(OutboxJournal.Record record) throws IOException {
+        try(FileChannel channel = FileChannel.open(record.getPath(), StandardOpenOption.READ)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(channel, length, record.getPayloadPosition());
+            length.flip();
+
+            ByteBuffer header = ByteBuffer.allocate(length.getInt());
+            readFully(channel, header, record.getPayloadPosition() + 4);
+            OutboxEntry entry = JsonMappers.OUTBOX_ENTRY_READER.readValue(header.array());
+            entry.getEmailParams().setMessageId(entry.getMessageId());
+            try {
+                return toDelivery(record, entry, header.capacity(), attachmentStore.resolve(entry.getEmailParams()));
+            } catch(ApiResException apiEx) {
+                throw new IOException("Stored attachment of the email is missing.", apiEx);
+            }
+        }
+    }
+
+    // Builds the delivery of a journaled email. Attachment contents follow the header in the record.
+    // Stored attachments the email refers to come after them.
+    private EmailDelivery toDelivery(OutboxJournal.Record record, OutboxEntry entry, int headerLength,
+                                        List<MultipartFile> stored) {
+        List<MultipartFile> attachments = new ArrayList<>();
+        long position = record.getPayloadPosition() + 4 + headerLength;
+        if(entry.getAttachments() != null) {
+            for(OutboxEntry.AttachmentInfo info : entry.getAttachments()) {
+                attachments.add(new OutboxAttachment(info, record.getPath(), position));
+                position += info.getSize();
+            }
+        }
+        return new EmailDelivery(record.getId(), entry.getEmailParams(), withStored(attachments, stored));
+    }
+
+    // Message-ID is given once, when the email is accepted, and kept with the email in the outbox.
+    private void assignMessageId(EmailParams params) {
+        if(params.getMessageId() == null) {
+            params.setMessageId(Utils.generateMessageId(params.getFrom().getEmail()));
+        }
+    }
+
+    private List<MultipartFile> withStored(List<MultipartFile> attachments, List<MultipartFile> stored) {
+        if(stored.isEmpty()) {
+            return attachments;
+        }
+        List<MultipartFile> all = new ArrayList<>(attachments);
+        all.addAll(stored);
+        return all;
+    }
+
+    // Copies the uploaded attachments into the spool, as uploads are cleaned up once the request completes.
+    // They are released once the email is completed.
+    private List<MultipartFile> detachAttachments(List<MultipartFile> attachments) throws ApiResException {
+        try {
+            return attachmentSpool.spoolAll(attachments);
+        } catch(IOException ioEx) {
+            log.error(Constants.ApiStatusMessages.ATTACHMENT_FAILED, ioEx);
+            throw new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.ATTACHMENT_FAILED);
+        }
+    }
+
+    private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if(read < 0) {
+                throw new IOException("Unexpected end of outbox segment.");
+            }
+            position += read;
+        }
+    }
+}
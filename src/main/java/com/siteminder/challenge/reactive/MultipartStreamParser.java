@@ -0,0 +1,207 @@
+package com.siteminder.challenge.reactive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.core.ApiResException;
+
+/*
+ * Push parser of a multipart/form-data body, fed with the body as it arrives.
+ * Part contents are handed over in slices of the fed buffers, so that no part is ever held as a whole.
+ * Only the bytes which may start a boundary are held back between two buffers.
+ * Boundaries are searched with Knuth-Morris-Pratt, so every byte is looked at once.
+ */
+public class MultipartStreamParser {
+    // Headers of a part larger than this are rejected, as they are held in memory.
+    private static final int MAX_HEADERS_SIZE = 16 * 1024;
+
+    private enum State { BODY, DELIMITER, HEADERS, DONE }
+
+    public interface Listener {
+        void partStarted(HttpHeaders headers) throws IOException, ApiResException;
+
+        void partContent(ByteBuffer content) throws IOException, ApiResException;
+
+        void partEnded() throws IOException, ApiResException;
+    }
+
+    private final Listener listener;
+
+    // "\r\n--" + boundary and its KMP failure table.
+    private final byte[] delimiter;
+    private final int[] failure;
+
+    private State state = State.BODY;
+    private boolean inPart = false;
+    // Number of delimiter bytes matched so far. These bytes are held back, as they may be content still.
+    // Parsing starts as if "\r\n" was seen, since the first delimiter need not follow a line break.
+    private int matched = 2;
+    // Bytes seen after a delimiter, before the line break or the closing "--".
+    private int delimiterSuffix = 0;
+    private byte previous = 0;
+    private final ByteArrayOutputStream headers = new ByteArrayOutputStream();
+
+    public MultipartStreamParser(String boundary, Listener listener) {
+        this.listener = listener;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        this.failure = new int[delimiter.length];
+        for(int i = 1, k = 0; i < delimiter.length; i++) {
+            while(k > 0 && delimiter[i] != delimiter[k]) {
+                k = failure[k - 1];
+            }
+            if(delimiter[i] == delimiter[k]) {
+                k++;
+            }
+            failure[i] = k;
+        }
+    }
+
+    /*
+     * Parses the next buffer of the body. Content of the buffer is handed to the listener before this returns,
+     * apart from the few bytes held back, so the buffer can be released right after.
+     */
+    public void feed(ByteBuffer buffer) throws IOException, ApiResException {
+        byte[] array;
+        int offset;
+        int end;
+        if(buffer.hasArray()) {
+            array = buffer.array();
+            offset = buffer.arrayOffset() + buffer.position();
+            end = buffer.arrayOffset() + buffer.limit();
+        } else {
+            array = new byte[buffer.remaining()];
+            buffer.duplicate().get(array);
+            offset = 0;
+            end = array.length;
+        }
+
+        // Held back bytes at the start of this buffer are delimiter[0, carried). Those released as content so far
+        // are delimiter[0, released). Content of this buffer is handed over from contentStart.
+        int carried = state == State.BODY ? matched : 0;
+        int released = 0;
+        int contentStart = offset;
+        for(int i = offset; i < end; i++) {
+            byte b = array[i];
+            switch(state) {
+                case BODY:
+                    while(matched > 0 && delimiter[matched] != b) {
+                        matched = failure[matched - 1];
+                    }
+                    if(delimiter[matched] == b) {
+                        matched++;
+                    }
+                    // Held back bytes are the last matched bytes. Older ones of the previous buffer are content.
+                    int stillCarried = Math.max(0, matched - (i + 1 - offset));
+                    if(carried - stillCarried > released) {
+                        emit(ByteBuffer.wrap(delimiter, released, carried - stillCarried - released));
+                        released = carried - stillCarried;
+                    }
+                    if(matched == delimiter.length) {
+                        int contentEnd = i + 1 - delimiter.length;
+                        if(contentEnd > contentStart) {
+                            emit(ByteBuffer.wrap(array, contentStart, contentEnd - contentStart));
+                        }
+                        if(inPart) {
+                            listener.partEnded();
+                            inPart = false;
+                        }
+                        matched = 0;
+                        carried = 0;
+                        released = 0;
+                        delimiterSuffix = 0;
+                        state = State.DELIMITER;
+                    }
+                    break;
+                case DELIMITER:
+                    // Either "--" closing the body, or optional padding and a line break starting the next part.
+                    delimiterSuffix++;
+                    if(delimiterSuffix == 2 && previous == '-' && b == '-') {
+                        state = State.DONE;
+                    } else if(b == '\n' && previous == '\r') {
+                        headers.reset();
+                        state = State.HEADERS;
+                    } else if(b != '-' && b != '\r' && b != ' ' && b != '\t') {
+                        throw malformed();
+                    }
+                    break;
+                case HEADERS:
+                    headers.write(b);
+                    if(headers.size() > MAX_HEADERS_SIZE) {
+                        throw malformed();
+                    }
+                    if(b == '\n' && endsWithBlankLine()) {
+                        listener.partStarted(parseHeaders());
+                        inPart = true;
+                        state = State.BODY;
+                        contentStart = i + 1;
+                    }
+                    break;
+                case DONE:
+                    // Epilogue is ignored.
+                    return;
+            }
+            previous = b;
+            if(state != State.BODY) {
+                contentStart = i + 1;
+            }
+        }
+
+        if(state == State.BODY) {
+            // Content up to the bytes which may start a delimiter is handed over.
+            int contentEnd = end - Math.min(matched, end - offset);
+            if(contentEnd > contentStart) {
+                emit(ByteBuffer.wrap(array, contentStart, contentEnd - contentStart));
+            }
+        }
+    }
+
+    /*
+     * Checks that the body ended with the closing delimiter.
+     */
+    public void finish() throws ApiResException {
+        if(state != State.DONE) {
+            throw malformed();
+        }
+    }
+
+    // Preamble before the first delimiter is not handed over.
+    private void emit(ByteBuffer content) throws IOException, ApiResException {
+        if(inPart && content.hasRemaining()) {
+            listener.partContent(content);
+        }
+    }
+
+    private boolean endsWithBlankLine() {
+        byte[] bytes = headers.toByteArray();
+        int length = bytes.length;
+        return length == 2 && bytes[0] == '\r'
+                || length >= 4 && bytes[length - 4] == '\r' && bytes[length - 3] == '\n' && bytes[length - 2] == '\r';
+    }
+
+    // Header values are read as UTF-8, as browsers send file names that way.
+    private HttpHeaders parseHeaders() throws ApiResException {
+        HttpHeaders partHeaders = new HttpHeaders();
+        String block = new String(headers.toByteArray(), StandardCharsets.UTF_8);
+        for(String line : block.split("\r\n")) {
+            if(line.isEmpty()) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if(colon <= 0) {
+                throw malformed();
+            }
+            partHeaders.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+        return partHeaders;
+    }
+
+    private static ApiResException malformed() {
+        return new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.MALFORMED_FORM_DATA);
+    }
+}
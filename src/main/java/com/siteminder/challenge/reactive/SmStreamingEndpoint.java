@@ -0,0 +1,45 @@
+package com.siteminder.challenge.reactive;
+
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ServletHttpHandlerAdapter;
+
+/*
+ * Reactive endpoints under /stream, next to the servlet ones. They are served by the same Tomcat, through the
+ * Servlet 3.1 non-blocking I/O adapter of WebFlux, so that the servlet controllers are left as they are.
+ * Rest of the paths are still handled by the dispatcher servlet.
+ * Requests are handed to the handlers as they are. Form data is parsed by the handlers themselves, as the
+ * multipart readers of WebFlux hold every part in memory or in a temporary file first.
+ */
+@Configuration
+public class SmStreamingEndpoint {
+    public static final String PATH = "/stream";
+
+    @Bean
+    public ServletRegistrationBean<ServletHttpHandlerAdapter> streamingServlet(SmStreamingMailHandler mailHandler) {
+        HttpHandler router = (request, response) -> {
+            // Path within the application does not hold the servlet path.
+            String path = request.getPath().pathWithinApplication().value();
+            if("/emails".equals(path)) {
+                if(request.getMethod() == HttpMethod.POST) {
+                    return mailHandler.sendEmail(request, response);
+                }
+                response.setStatusCode(HttpStatus.METHOD_NOT_ALLOWED);
+            } else {
+                response.setStatusCode(HttpStatus.NOT_FOUND);
+            }
+            return response.setComplete();
+        };
+
+        ServletRegistrationBean<ServletHttpHandlerAdapter> registration
+                            = new ServletRegistrationBean<>(new ServletHttpHandlerAdapter(router), PATH + "/*");
+        registration.setName("smStreamingServlet");
+        registration.setAsyncSupported(true);
+        registration.setLoadOnStartup(1);
+        return registration;
+    }
+}
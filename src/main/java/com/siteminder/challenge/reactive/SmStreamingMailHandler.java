@@ -0,0 +1,198 @@
+package com.siteminder.challenge.reactive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.commons.JsonMappers;
+import com.siteminder.challenge.commons.Utils;
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.core.SmMailService;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Schedulers;
+
+/*
+ * Streaming variant of the send email API. Takes the same form data (email_params and attachments).
+ * Request body is read without blocking and parsed as it arrives. Attachment contents are written straight
+ * to a file per attachment, a few buffers at a time, and the rest of the body is not read until they are written.
+ * So neither the heap nor a servlet thread is held by a slow or large upload.
+ */
+@Component
+public class SmStreamingMailHandler {
+    private static final Log log = LogFactory.getLog(SmStreamingMailHandler.class);
+
+    private static final String EMAIL_PARAMS = "email_params";
+    private static final String ATTACHMENTS = "attachments";
+
+    // Body buffers read ahead of the parser. Reading of the body is paused when they are all taken.
+    private static final int PREFETCH = 4;
+
+    @Autowired
+    private SmMailService mailService;
+
+    /*
+     * Streams the attachments out of the request, then validates and queues the email as the send email API does.
+     * Email parameters and attachments are parsed on a worker thread, which also writes the attachment files
+     * and records the email in the outbox.
+     */
+    public Mono<Void> sendEmail(ServerHttpRequest request, ServerHttpResponse response) {
+        String boundary = Optional.ofNullable(request.getHeaders().getContentType())
+                                .filter(MediaType.MULTIPART_FORM_DATA::includes)
+                                .map(contentType -> contentType.getParameter("boundary"))
+                                .map(SmStreamingMailHandler::unquote)
+                                .orElse(null);
+        if(boundary == null || boundary.isEmpty()) {
+            return writeResponse(response, Utils.buildApiResponse(HttpStatus.BAD_REQUEST,
+                                                                    Constants.ApiStatusMessages.MALFORMED_FORM_DATA));
+        }
+
+        StreamedEmail email = new StreamedEmail();
+        MultipartStreamParser parser = new MultipartStreamParser(boundary, email);
+        return request.getBody()
+                    .publishOn(Schedulers.elastic(), PREFETCH)
+                    .handle((DataBuffer buffer, SynchronousSink<Void> sink) -> {
+                        try {
+                            parser.feed(buffer.asByteBuffer());
+                        } catch(IOException | ApiResException ex) {
+                            sink.error(ex);
+                        } finally {
+                            DataBufferUtils.release(buffer);
+                        }
+                    })
+                    .then(Mono.<ResponseEntity<?>>fromCallable(() -> {
+                        parser.finish();
+                        return mailService.sendEmail(email.getEmailParams(), email.getAttachments());
+                    }))
+                    .onErrorResume(ApiResException.class,
+                                    apiEx -> Mono.just(Utils.buildApiResponse(apiEx.getStatus(), apiEx.getMessage())))
+                    .onErrorResume(IOException.class, ioEx -> {
+                        log.error("Error in streaming the attachments. Returning appropriate error.", ioEx);
+                        return Mono.just(Utils.buildApiResponse(HttpStatus.INTERNAL_SERVER_ERROR,
+                                                                Constants.ApiStatusMessages.ATTACHMENT_FAILED));
+                    })
+                    // Accepted attachments are copied into the outbox by now.
+                    .doFinally(signal -> email.discard())
+                    .flatMap(apiResponse -> writeResponse(response, apiResponse));
+    }
+
+    private Mono<Void> writeResponse(ServerHttpResponse response, ResponseEntity<?> apiResponse) {
+        byte[] json;
+        try {
+            json = JsonMappers.JSON_WRITER.writeValueAsBytes(apiResponse.getBody());
+        } catch(JsonProcessingException jsonEx) {
+            return Mono.error(jsonEx);
+        }
+        response.setStatusCode(apiResponse.getStatusCode());
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON_UTF8);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(json)));
+    }
+
+    private static String unquote(String value) {
+        if(value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    /*
+     * Collects the parts of a streamed email. Parts other than email_params and attachments are skipped.
+     */
+    private static class StreamedEmail implements MultipartStreamParser.Listener {
+        private final ByteArrayOutputStream emailParams = new ByteArrayOutputStream();
+        private final List<StreamedAttachment> attachments = new ArrayList<>();
+        private boolean emailParamsFound = false;
+        private boolean inEmailParams = false;
+        private StreamedAttachment attachment;
+        private long attachmentsSize = 0;
+
+        @Override
+        public void partStarted(HttpHeaders headers) throws IOException, ApiResException {
+            String disposition = headers.getFirst(HttpHeaders.CONTENT_DISPOSITION);
+            if(disposition == null) {
+                throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.MALFORMED_FORM_DATA);
+            }
+
+            ContentDisposition contentDisposition;
+            try {
+                contentDisposition = ContentDisposition.parse(disposition);
+            } catch(IllegalArgumentException iaEx) {
+                throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.MALFORMED_FORM_DATA);
+            }
+            String name = contentDisposition.getName();
+            if(EMAIL_PARAMS.equals(name) && !emailParamsFound) {
+                emailParamsFound = true;
+                inEmailParams = true;
+            } else if(ATTACHMENTS.equals(name)) {
+                attachment = new StreamedAttachment(name, contentDisposition.getFilename(),
+                                                    headers.getFirst(HttpHeaders.CONTENT_TYPE));
+                attachments.add(attachment);
+            }
+        }
+
+        /*
+         * Rejects the email as soon as its attachments alone cross the mail size limit, without reading the rest.
+         */
+        @Override
+        public void partContent(ByteBuffer content) throws IOException, ApiResException {
+            if(inEmailParams) {
+                if(emailParams.size() + content.remaining() >= Constants.Limitations.MAX_MAIL_SIZE) {
+                    throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.MAIL_SIZE_EXCEEDED);
+                }
+                emailParams.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+            } else if(attachment != null) {
+                attachmentsSize += content.remaining();
+                if(Utils.getBase64Size(attachmentsSize) >= Constants.Limitations.MAX_MAIL_SIZE) {
+                    throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.MAIL_SIZE_EXCEEDED);
+                }
+                attachment.write(content);
+            }
+        }
+
+        @Override
+        public void partEnded() throws IOException {
+            if(attachment != null) {
+                attachment.complete();
+            }
+            inEmailParams = false;
+            attachment = null;
+        }
+
+        public String getEmailParams() {
+            return emailParamsFound ? new String(emailParams.toByteArray(), StandardCharsets.UTF_8) : null;
+        }
+
+        public List<MultipartFile> getAttachments() {
+            return new ArrayList<>(attachments);
+        }
+
+        public void discard() {
+            for(StreamedAttachment streamed : attachments) {
+                streamed.discard();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.siteminder.challenge.reactive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.web.multipart.MultipartFile;
+
+/*
+ * Attachment streamed out of a request body into a temporary file, as its parts arrive.
+ * Content is never held in heap. File is deleted once the attachment is discarded.
+ */
+public class StreamedAttachment implements MultipartFile {
+    private static final Log log = LogFactory.getLog(StreamedAttachment.class);
+
+    private final String name;
+    private final String originalFilename;
+    private final String contentType;
+    private final Path file;
+    private FileChannel channel;
+    private long size;
+
+    public StreamedAttachment(String name, String originalFilename, String contentType) throws IOException {
+        this.name = name;
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.file = Files.createTempFile("sm-upload-", ".tmp");
+        this.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+    }
+
+    /*
+     * Appends the next slice of content.
+     */
+    public void write(ByteBuffer content) throws IOException {
+        while(content.hasRemaining()) {
+            size += channel.write(content);
+        }
+    }
+
+    /*
+     * Closes the file once the whole content is written.
+     */
+    public void complete() throws IOException {
+        if(channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /*
+     * Deletes the file. Content cannot be read afterwards.
+     */
+    public void discard() {
+        try {
+            complete();
+            Files.deleteIfExists(file);
+        } catch(IOException ioEx) {
+            log.error("Unable to delete the uploaded attachment " + file, ioEx);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        return Files.readAllBytes(file);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Files.newInputStream(file);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        Files.copy(file, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
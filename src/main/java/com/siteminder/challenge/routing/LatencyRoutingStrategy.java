@@ -0,0 +1,89 @@
+package com.siteminder.challenge.routing;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Weights the traffic towards the fastest healthy mailing services.
+ * Score of a mailing service is its success rate divided by its latency (moving averages, see MailServiceStats).
+ * The first mailing service is picked at random in proportion to the scores, rather than always
+ * picking the best one. So slower mailing services keep getting some traffic, and their stats stay current.
+ * A mailing service without any completed call yet gets the best score, so that it is tried soon.
+ * Score of a mailing service never falls below a share of the best score. Otherwise a mailing service whose
+ * success rate decayed close to 0 would stop getting traffic, and never get the chance to recover.
+ * The rest are tried in the order of their scores.
+ */
+public class LatencyRoutingStrategy implements RoutingStrategy {
+    // Latencies below this are treated as equal. In milliseconds.
+    private static final double MIN_LATENCY = 1;
+    // Lowest score of a mailing service, as a share of the best score.
+    private static final double MIN_SCORE_SHARE = 0.05;
+    
+    private final Random random;
+    
+    public LatencyRoutingStrategy() {
+        this(null);
+    }
+    
+    // Random is only given by the tests. ThreadLocalRandom is used otherwise.
+    LatencyRoutingStrategy(Random random) {
+        this.random = random;
+    }
+    
+    @Override
+    public List<MailServiceStats> route(List<MailServiceStats> services) {
+        int count = services.size();
+        double[] scores = new double[count];
+        double bestScore = 0;
+        for(int i = 0; i < count; i++) {
+            MailServiceStats service = services.get(i);
+            if(service.getCalls() > 0) {
+                scores[i] = service.getSuccessRate() / Math.max(service.getLatency(), MIN_LATENCY);
+                bestScore = Math.max(bestScore, scores[i]);
+            } else {
+                scores[i] = -1;
+            }
+        }
+        
+        double total = 0;
+        for(int i = 0; i < count; i++) {
+            if(scores[i] < 0) {
+                scores[i] = bestScore > 0 ? bestScore : 1;
+            } else {
+                scores[i] = Math.max(scores[i], bestScore * MIN_SCORE_SHARE);
+            }
+            total += scores[i];
+        }
+        
+        List<Integer> order = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingDouble(i -> -scores[i]));
+        
+        if(total > 0) {
+            double point = nextDouble() * total;
+            for(int i = 0; i < count; i++) {
+                point -= scores[i];
+                if(point < 0) {
+                    order.remove(Integer.valueOf(i));
+                    order.add(0, i);
+                    break;
+                }
+            }
+        }
+        
+        List<MailServiceStats> routed = new ArrayList<>(count);
+        for(int i : order) {
+            routed.add(services.get(i));
+        }
+        return routed;
+    }
+    
+    private double nextDouble() {
+        return random != null ? random.nextDouble() : ThreadLocalRandom.current().nextDouble();
+    }
+}
@@ -0,0 +1,104 @@
+package com.siteminder.challenge.routing;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.siteminder.challenge.SmMailServiceConfig;
+
+/*
+ * Live statistics of a mailing service, used to route the emails.
+ * Latency and success rate are exponentially weighted moving averages (EWMA) of the completed calls,
+ * so recent calls count the most and old ones fade out.
+ * Durations of the most recent successful calls are kept as well, to find the latency percentiles.
+ */
+public class MailServiceStats {
+    private static final int LATENCY_SAMPLES = 128;
+    
+    private final SmMailServiceConfig config;
+    private final double alpha;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    
+    private long calls;
+    private double latency;
+    private double successRate = 1;
+    
+    // Ring buffer of the durations of the most recent successful calls.
+    private final long[] latencySamples = new long[LATENCY_SAMPLES];
+    private int nextSample;
+    private int sampleCount;
+    
+    public MailServiceStats(SmMailServiceConfig config, double alpha) {
+        this.config = config;
+        this.alpha = alpha;
+    }
+    
+    public SmMailServiceConfig getConfig() {
+        return config;
+    }
+    
+    /*
+     * Marks the start of a call to the mailing service.
+     * Every call started must be followed by a call to end.
+     */
+    public void begin() {
+        inFlight.incrementAndGet();
+    }
+    
+    /*
+     * Marks the end of a call and adds its outcome to the moving averages.
+     * The first call sets the averages right away.
+     */
+    public synchronized void end(boolean failure, long durationMillis) {
+        inFlight.decrementAndGet();
+        double success = failure ? 0 : 1;
+        if(calls++ == 0) {
+            latency = durationMillis;
+            successRate = success;
+        } else {
+            latency += alpha * (durationMillis - latency);
+            successRate += alpha * (success - successRate);
+        }
+        
+        if(!failure) {
+            latencySamples[nextSample] = durationMillis;
+            nextSample = (nextSample + 1) % LATENCY_SAMPLES;
+            sampleCount = Math.min(sampleCount + 1, LATENCY_SAMPLES);
+        }
+    }
+    
+    /*
+     * Returns the given percentile (between 0 and 100) of the durations of the most recent successful calls.
+     * Returns -1 until minimumSamples calls have succeeded.
+     */
+    public long getLatencyPercentile(double percentile, int minimumSamples) {
+        long[] samples;
+        synchronized(this) {
+            if(sampleCount == 0 || sampleCount < minimumSamples) {
+                return -1;
+            }
+            samples = Arrays.copyOf(latencySamples, sampleCount);
+        }
+        
+        Arrays.sort(samples);
+        int rank = (int) Math.ceil(percentile / 100 * samples.length);
+        return samples[Math.min(Math.max(rank - 1, 0), samples.length - 1)];
+    }
+    
+    public int getInFlight() {
+        return inFlight.get();
+    }
+    
+    public synchronized long getCalls() {
+        return calls;
+    }
+    
+    // Moving average of the call duration in milliseconds. 0 until the first call ends.
+    public synchronized double getLatency() {
+        return latency;
+    }
+    
+    // Moving average of the successful calls, between 0 and 1. 1 until the first call ends.
+    public synchronized double getSuccessRate() {
+        return successRate;
+    }
+}
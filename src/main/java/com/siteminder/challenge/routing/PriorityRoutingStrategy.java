@@ -0,0 +1,13 @@
+package com.siteminder.challenge.routing;
+
+import java.util.List;
+
+/*
+ * Mailing services are always tried in their configured order.
+ */
+public class PriorityRoutingStrategy implements RoutingStrategy {
+    @Override
+    public List<MailServiceStats> route(List<MailServiceStats> services) {
+        return services;
+    }
+}
@@ -0,0 +1,16 @@
+package com.siteminder.challenge.routing;
+
+import java.util.List;
+
+/*
+ * Decides the order in which the mailing services are tried for the next emails.
+ * The first mailing service gets the emails. The rest are the failover order.
+ * Called concurrently by the delivery workers.
+ */
+public interface RoutingStrategy {
+    /*
+     * Returns the input mailing services in the order to be tried.
+     * Input holds the mailing services in their configured order. It must not be modified.
+     */
+    List<MailServiceStats> route(List<MailServiceStats> services);
+}
@@ -0,0 +1,120 @@
+package com.siteminder.challenge.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.SmMailServiceConfig;
+import com.siteminder.challenge.SmRoutingConfig;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/*
+ * Routes the emails to the mailing services using the configured routing strategy.
+ * Keeps the live stats of every configured mailing service. Callers report each call to a mailing service
+ * through begin and end. Latency, success rate and in-flight calls of each mailing service are exposed as metrics.
+ */
+@Component
+public class SmMailServiceRouter {
+    private static final Log log = LogFactory.getLog(SmMailServiceRouter.class);
+    
+    @Autowired
+    SmAppConfig appConfig;
+    
+    private RoutingStrategy strategy;
+    private List<MailServiceStats> services;
+    private final Map<String, MailServiceStats> servicesByName = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    public void init() {
+        SmRoutingConfig routingConfig = appConfig.getRouting();
+        strategy = createStrategy(routingConfig);
+        log.info("Mail services are routed using the " + routingConfig.getStrategy() + " strategy.");
+        
+        List<MailServiceStats> stats = new ArrayList<>();
+        for(SmMailServiceConfig config : appConfig.getSmMailServiceConfig()) {
+            MailServiceStats serviceStats = new MailServiceStats(config, routingConfig.getEwmaAlpha());
+            stats.add(serviceStats);
+            registerMetrics(serviceStats);
+            servicesByName.put(config.getServiceName().toLowerCase(), serviceStats);
+        }
+        services = Collections.unmodifiableList(stats);
+    }
+    
+    /*
+     * Returns the mailing services in the order to be tried for the next emails.
+     */
+    public List<SmMailServiceConfig> route() {
+        List<MailServiceStats> routed = strategy.route(services);
+        List<SmMailServiceConfig> configs = new ArrayList<>(routed.size());
+        for(MailServiceStats serviceStats : routed) {
+            configs.add(serviceStats.getConfig());
+        }
+        return configs;
+    }
+    
+    /*
+     * Marks the start of a call to the input mailing service.
+     */
+    public void begin(SmMailServiceConfig config) {
+        getStats(config).begin();
+    }
+    
+    /*
+     * Marks the end of a call to the input mailing service, along with its outcome.
+     */
+    public void end(SmMailServiceConfig config, boolean failure, long durationMillis) {
+        getStats(config).end(failure, durationMillis);
+    }
+    
+    /*
+     * Returns the given percentile of the recent latencies of the input mailing service. See MailServiceStats.
+     */
+    public long getLatencyPercentile(SmMailServiceConfig config, double percentile, int minimumSamples) {
+        return getStats(config).getLatencyPercentile(percentile, minimumSamples);
+    }
+    
+    private MailServiceStats getStats(SmMailServiceConfig config) {
+        return servicesByName.get(config.getServiceName().toLowerCase());
+    }
+    
+    private RoutingStrategy createStrategy(SmRoutingConfig routingConfig) {
+        switch(routingConfig.getStrategy()) {
+            case LATENCY:
+                return new LatencyRoutingStrategy();
+            case WEIGHTED_ROUND_ROBIN:
+                return new WeightedRoundRobinRoutingStrategy();
+            case SPILLOVER:
+                return new SpilloverRoutingStrategy(routingConfig.getSpilloverInFlight());
+            default:
+                return new PriorityRoutingStrategy();
+        }
+    }
+    
+    private void registerMetrics(MailServiceStats serviceStats) {
+        String serviceName = serviceStats.getConfig().getServiceName().toLowerCase();
+        Gauge.builder("smchallenge.mail.service.latency.ewma", serviceStats, MailServiceStats::getLatency)
+                .description("Moving average of the call duration of the mail service in milliseconds")
+                .tag("service", serviceName)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("smchallenge.mail.service.success.rate.ewma", serviceStats, MailServiceStats::getSuccessRate)
+                .description("Moving average of the successful calls of the mail service, between 0 and 1")
+                .tag("service", serviceName)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("smchallenge.mail.service.inflight", serviceStats, MailServiceStats::getInFlight)
+                .description("Calls in flight on the mail service")
+                .tag("service", serviceName)
+                .register(Metrics.globalRegistry);
+    }
+}
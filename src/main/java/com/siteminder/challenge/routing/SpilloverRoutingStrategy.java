@@ -0,0 +1,33 @@
+package com.siteminder.challenge.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Mailing services are tried in their configured order, but a mailing service with the in-flight limit
+ * reached goes behind the ones below it. So the first mailing service (the primary) takes all the traffic
+ * it can, and the rest only takes what spills over.
+ */
+public class SpilloverRoutingStrategy implements RoutingStrategy {
+    private final int maxInFlight;
+    
+    public SpilloverRoutingStrategy(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+    
+    @Override
+    public List<MailServiceStats> route(List<MailServiceStats> services) {
+        List<MailServiceStats> order = new ArrayList<>(services.size());
+        List<MailServiceStats> saturated = new ArrayList<>();
+        for(MailServiceStats service : services) {
+            if(service.getInFlight() < maxInFlight) {
+                order.add(service);
+            } else {
+                saturated.add(service);
+            }
+        }
+        
+        order.addAll(saturated);
+        return order;
+    }
+}
@@ -0,0 +1,52 @@
+package com.siteminder.challenge.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Spreads the traffic across the mailing services in proportion to their configured weights.
+ * Smooth weighted round-robin: on every pick, each mailing service earns its weight, the richest one
+ * is picked and pays the total weight. Picks of a mailing service are spread out instead of bunched up.
+ * Mailing services with zero weight are only used for failover.
+ */
+public class WeightedRoundRobinRoutingStrategy implements RoutingStrategy {
+    private int[] currentWeights = new int[0];
+    
+    @Override
+    public List<MailServiceStats> route(List<MailServiceStats> services) {
+        int picked = pick(services);
+        List<MailServiceStats> order = new ArrayList<>(services.size());
+        if(picked >= 0) {
+            order.add(services.get(picked));
+        }
+        for(int i = 0; i < services.size(); i++) {
+            if(i != picked) {
+                order.add(services.get(i));
+            }
+        }
+        return order;
+    }
+    
+    // Index of the picked mailing service. -1 when every weight is zero.
+    private synchronized int pick(List<MailServiceStats> services) {
+        if(currentWeights.length != services.size()) {
+            currentWeights = new int[services.size()];
+        }
+        
+        int total = 0;
+        int picked = -1;
+        for(int i = 0; i < services.size(); i++) {
+            int weight = services.get(i).getConfig().getWeight();
+            currentWeights[i] += weight;
+            total += weight;
+            if(weight > 0 && (picked < 0 || currentWeights[i] > currentWeights[picked])) {
+                picked = i;
+            }
+        }
+        
+        if(picked >= 0) {
+            currentWeights[picked] -= total;
+        }
+        return picked;
+    }
+}
@@ -0,0 +1,191 @@
+package com.siteminder.challenge.spool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.SmSpoolConfig;
+import com.siteminder.challenge.commons.DirectBuffers;
+
+/*
+ * Holds the uploaded attachments of accepted emails off heap, from the request until their delivery is over.
+ * Attachments up to the memory threshold are copied into direct memory, as long as the memory limit allows.
+ * The rest are copied into spool files, which are memory mapped. Mailing service clients read both in place.
+ * Storage is reclaimed as soon as the last reference to an attachment is released: direct memory is freed,
+ * and spool files are unmapped and deleted. Garbage collector is not involved in either.
+ */
+@Component
+public class SmAttachmentSpool {
+    private static final Log log = LogFactory.getLog(SmAttachmentSpool.class);
+
+    private static final String FILE_PREFIX = "spool-";
+    private static final String FILE_SUFFIX = ".tmp";
+
+    @Autowired
+    SmAppConfig appConfig;
+
+    private Path directory;
+    private long memoryThreshold;
+    private long memoryLimit;
+
+    // Bytes of direct memory held by spooled attachments.
+    private final AtomicLong memoryUsed = new AtomicLong();
+
+    /*
+     * Creates the spool directory. Spool files left by an earlier run are deleted, as nothing refers to them.
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        SmSpoolConfig spoolConfig = appConfig.getSpool();
+        directory = Paths.get(spoolConfig.getDirectory());
+        memoryThreshold = spoolConfig.getMemoryThreshold();
+        memoryLimit = spoolConfig.getMemoryLimit();
+        Files.createDirectories(directory);
+
+        try(DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for(Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    /*
+     * Copies the uploaded attachments into the spool. Attachments already spooled are released,
+     * when one of them cannot be spooled.
+     */
+    public List<MultipartFile> spoolAll(List<MultipartFile> files) throws IOException {
+        List<MultipartFile> spooled = new ArrayList<>(files.size());
+        try {
+            for(MultipartFile file : files) {
+                spooled.add(spool(file));
+            }
+        } catch(IOException | RuntimeException ex) {
+            release(spooled);
+            throw ex;
+        }
+        return spooled;
+    }
+
+    /*
+     * Copies an uploaded attachment into the spool. Returned attachment holds a reference, to be released
+     * once the attachment is no longer needed.
+     */
+    public SpooledAttachment spool(MultipartFile file) throws IOException {
+        long size = file.getSize();
+        if(size > Integer.MAX_VALUE) {
+            throw new IOException("Attachment " + file.getOriginalFilename() + " is too large to spool.");
+        }
+
+        if(size <= memoryThreshold && reserveMemory(size)) {
+            ByteBuffer content = null;
+            try {
+                content = ByteBuffer.allocateDirect((int) size);
+                try(InputStream iStream = file.getInputStream();
+                    ReadableByteChannel source = Channels.newChannel(iStream)) {
+                    while(content.hasRemaining()) {
+                        if(source.read(content) < 0) {
+                            throw new IOException("Unexpected end of attachment " + file.getOriginalFilename());
+                        }
+                    }
+                }
+                content.flip();
+                return new SpooledAttachment(file, content, null, this);
+            } catch(IOException | RuntimeException | OutOfMemoryError ex) {
+                DirectBuffers.free(content);
+                memoryUsed.addAndGet(-size);
+                throw ex;
+            }
+        }
+
+        Path spoolFile = Files.createTempFile(directory, FILE_PREFIX, FILE_SUFFIX);
+        try {
+            MappedByteBuffer content;
+            try(InputStream iStream = file.getInputStream();
+                ReadableByteChannel source = Channels.newChannel(iStream);
+                FileChannel channel = FileChannel.open(spoolFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long position = 0;
+                while(position < size) {
+                    long transferred = channel.transferFrom(source, position, size - position);
+                    if(transferred <= 0) {
+                        throw new IOException("Unexpected end of attachment " + file.getOriginalFilename());
+                    }
+                    position += transferred;
+                }
+                // Mapping stays valid after the channel is closed.
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return new SpooledAttachment(file, content, spoolFile, this);
+        } catch(IOException | RuntimeException ex) {
+            Files.deleteIfExists(spoolFile);
+            throw ex;
+        }
+    }
+
+    /*
+     * Releases the spooled attachments of the list. Rest of the attachments are ignored.
+     */
+    public void release(List<MultipartFile> files) {
+        if(files == null) {
+            return;
+        }
+        for(MultipartFile file : files) {
+            if(file instanceof SpooledAttachment) {
+                ((SpooledAttachment) file).release();
+            }
+        }
+    }
+
+    // Bytes of direct memory held by spooled attachments.
+    public long getMemoryUsed() {
+        return memoryUsed.get();
+    }
+
+    /*
+     * Frees the storage of an attachment, once its last reference is released.
+     */
+    void reclaim(SpooledAttachment attachment) {
+        DirectBuffers.free(attachment.getBuffer());
+        Path file = attachment.getFile();
+        if(file == null) {
+            memoryUsed.addAndGet(-attachment.getSize());
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch(IOException ioEx) {
+            log.error("Unable to delete the spool file " + file, ioEx);
+        }
+    }
+
+    private boolean reserveMemory(long size) {
+        long used;
+        do {
+            used = memoryUsed.get();
+            if(used + size > memoryLimit) {
+                return false;
+            }
+        } while(!memoryUsed.compareAndSet(used, used + size));
+        return true;
+    }
+}
@@ -0,0 +1,187 @@
+package com.siteminder.challenge.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.web.multipart.MultipartFile;
+
+/*
+ * Uploaded attachment held off heap by the attachment spool, in direct memory or in a memory mapped spool file.
+ * Readers get views of the same content, which are never copied into heap as a whole.
+ * Content is reference counted. Email holds the first reference, and every open input stream holds another,
+ * so that a call still writing the content (a hedged one, for instance) keeps it after the email is delivered.
+ * Storage is reclaimed by the spool once the last reference is released.
+ */
+public class SpooledAttachment implements MultipartFile {
+    private final String name;
+    private final String originalFilename;
+    private final String contentType;
+    private final ByteBuffer content;
+    private final Path file;
+    private final SmAttachmentSpool spool;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    SpooledAttachment(MultipartFile source, ByteBuffer content, Path file, SmAttachmentSpool spool) {
+        this.name = source.getName();
+        this.originalFilename = source.getOriginalFilename();
+        this.contentType = source.getContentType();
+        this.content = content;
+        this.file = file;
+        this.spool = spool;
+    }
+
+    /*
+     * Read only view of the whole content. Valid only while a reference is held.
+     */
+    public ByteBuffer getContent() {
+        return content.asReadOnlyBuffer();
+    }
+
+    // True when the content is in a memory mapped spool file. False when it is in direct memory.
+    public boolean isMapped() {
+        return file != null;
+    }
+
+    /*
+     * Takes another reference to the content. Returns false when the content is already reclaimed.
+     */
+    public boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if(count <= 0) {
+                return false;
+            }
+        } while(!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /*
+     * Releases a reference. Content is reclaimed when the last one is released.
+     */
+    public void release() {
+        if(references.decrementAndGet() == 0) {
+            spool.reclaim(this);
+        }
+    }
+
+    ByteBuffer getBuffer() {
+        return content;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return content.capacity() == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return content.capacity();
+    }
+
+    /*
+     * Copies the content into heap. Prefer the input stream, which reads the content in place.
+     */
+    @Override
+    public byte[] getBytes() throws IOException {
+        byte[] bytes = new byte[content.capacity()];
+        try(ContentInputStream iStream = new ContentInputStream()) {
+            iStream.view.get(bytes);
+        }
+        return bytes;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new ContentInputStream();
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        try(ContentInputStream iStream = new ContentInputStream();
+            FileChannel target = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while(iStream.view.hasRemaining()) {
+                target.write(iStream.view);
+            }
+        }
+    }
+
+    /*
+     * Reads the content in place, through a view of its own. Holds a reference until closed.
+     */
+    private class ContentInputStream extends InputStream {
+        private final ByteBuffer view;
+        private boolean closed;
+
+        ContentInputStream() throws IOException {
+            if(!retain()) {
+                throw new IOException("Attachment " + originalFilename + " is already released.");
+            }
+            view = getContent();
+        }
+
+        @Override
+        public int read() {
+            return view.hasRemaining() ? view.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if(length == 0) {
+                return 0;
+            }
+            if(!view.hasRemaining()) {
+                return -1;
+            }
+            int toRead = Math.min(length, view.remaining());
+            view.get(buffer, offset, toRead);
+            return toRead;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, view.remaining()));
+            view.position(view.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return view.remaining();
+        }
+
+        @Override
+        public void close() {
+            if(!closed) {
+                closed = true;
+                release();
+            }
+        }
+    }
+}
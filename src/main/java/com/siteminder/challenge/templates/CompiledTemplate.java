@@ -0,0 +1,114 @@
+package com.siteminder.challenge.templates;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Template text split once into its literal parts and the variables between them, so that rendering
+ * only appends them in turn. Variables are written as {{name}}. Spaces around the name are ignored.
+ */
+public class CompiledTemplate {
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    // Always one more literal than variables. Variable i comes between literals i and i + 1.
+    private final String[] literals;
+    private final String[] variables;
+    private final int literalsLength;
+
+    private CompiledTemplate(String[] literals, String[] variables) {
+        this.literals = literals;
+        this.variables = variables;
+        int length = 0;
+        for(String literal : literals) {
+            length += literal.length();
+        }
+        this.literalsLength = length;
+    }
+
+    /*
+     * Compiles the template text. Throws IllegalArgumentException when a variable is not closed or has no name.
+     */
+    public static CompiledTemplate compile(String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        int start = 0;
+        int open;
+        while((open = text.indexOf(OPEN, start)) >= 0) {
+            int close = text.indexOf(CLOSE, open + OPEN.length());
+            if(close < 0) {
+                throw new IllegalArgumentException("Variable at " + open + " is not closed.");
+            }
+            String name = text.substring(open + OPEN.length(), close).trim();
+            if(name.isEmpty()) {
+                throw new IllegalArgumentException("Variable at " + open + " has no name.");
+            }
+            literals.add(text.substring(start, open));
+            variables.add(name);
+            start = close + CLOSE.length();
+        }
+        literals.add(text.substring(start));
+        return new CompiledTemplate(literals.toArray(new String[0]), variables.toArray(new String[0]));
+    }
+
+    /*
+     * Appends the rendered template to the buffer. Returns the name of the first variable missing in
+     * the values, leaving the buffer partly written. Returns null once the whole template is rendered.
+     */
+    public String renderTo(Map<String, String> values, /*out*/ StringBuilder buffer) {
+        return renderTo(values, false, buffer);
+    }
+
+    /*
+     * Same as above. Values are HTML escaped when escapeHtml is set, so that markup in a variable
+     * shows up as text in an HTML template. Literals of the template are appended as they are.
+     */
+    public String renderTo(Map<String, String> values, boolean escapeHtml, /*out*/ StringBuilder buffer) {
+        if(variables.length == 0) {
+            buffer.append(literals[0]);
+            return null;
+        }
+        buffer.ensureCapacity(buffer.length() + literalsLength);
+        buffer.append(literals[0]);
+        for(int i = 0; i < variables.length; i++) {
+            String value = values != null ? values.get(variables[i]) : null;
+            if(value == null) {
+                return variables[i];
+            }
+            if(escapeHtml) {
+                appendEscaped(value, buffer);
+            } else {
+                buffer.append(value);
+            }
+            buffer.append(literals[i + 1]);
+        }
+        return null;
+    }
+
+    // Escapes the characters which can start markup, or end an attribute value.
+    private static void appendEscaped(String value, /*out*/ StringBuilder buffer) {
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '&':
+                    buffer.append("&amp;");
+                    break;
+                case '<':
+                    buffer.append("&lt;");
+                    break;
+                case '>':
+                    buffer.append("&gt;");
+                    break;
+                case '"':
+                    buffer.append("&quot;");
+                    break;
+                case '\'':
+                    buffer.append("&#39;");
+                    break;
+                default:
+                    buffer.append(c);
+            }
+        }
+    }
+}
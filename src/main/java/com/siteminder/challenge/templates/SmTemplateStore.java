@@ -0,0 +1,260 @@
+package com.siteminder.challenge.templates;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.SmTemplatesConfig;
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.commons.JsonMappers;
+import com.siteminder.challenge.commons.Utils;
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.models.EmailParams;
+import com.siteminder.challenge.models.EmailTemplate;
+
+/*
+ * Email templates registered once by id, so that callers send only the template id and its variables.
+ * Templates are kept as files, one per id, and compiled on first use. Compiled templates are held in
+ * a cache bounded by count, least recently used ones being dropped first.
+ * Subject, message and HTML of an email are rendered from its template when the email is accepted,
+ * so the outbox and the mailing services see an ordinary email.
+ * Variables are HTML escaped in the HTML of the email, as they usually come from guests and bookings.
+ * Subject and message are plain text, so they get the values as they are.
+ */
+@Component
+public class SmTemplateStore {
+    private static final Log log = LogFactory.getLog(SmTemplateStore.class);
+
+    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String FILE_SUFFIX = ".json";
+
+    // Render buffers grown beyond this many chars are not kept for the next render.
+    private static final int MAX_RETAINED_BUFFER = 256 * 1024;
+
+    // Every thread renders into a buffer of its own, reused across renders.
+    private static final ThreadLocal<StringBuilder> renderBuffer = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    @Autowired
+    SmAppConfig appConfig;
+
+    private Path directory;
+
+    // Guarded by its own monitor.
+    private Map<String, Compiled> compiled;
+
+    @PostConstruct
+    public void open() throws IOException {
+        SmTemplatesConfig templatesConfig = appConfig.getTemplates();
+        directory = Paths.get(templatesConfig.getDirectory());
+        Files.createDirectories(directory);
+
+        int cacheSize = templatesConfig.getCacheSize();
+        compiled = new LinkedHashMap<String, Compiled>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Compiled> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /*
+     * Stores the template under the given id, replacing the template stored before.
+     * Body is the JSON of the template, holding its subject, and its message or HTML or both.
+     */
+    public ResponseEntity<?> storeTemplate(String id, String body) {
+        try {
+            if(id == null || !ID_PATTERN.matcher(id).matches()) {
+                throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_TEMPLATE_ID);
+            }
+            EmailTemplate template = readTemplate(body);
+            store(id, template);
+        } catch(ApiResException apiEx) {
+            return Utils.buildApiResponse(apiEx.getStatus(), apiEx.getMessage());
+        } catch(IOException ioEx) {
+            log.error("Unable to store the template " + id + ". Returning appropriate error.", ioEx);
+            return Utils.buildApiResponse(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.TEMPLATE_FAILED);
+        }
+        return Utils.buildApiResponse(HttpStatus.CREATED, Constants.ApiStatusMessages.TEMPLATE_STORED);
+    }
+
+    /*
+     * Compiles and stores the template. File is moved into place only when complete.
+     */
+    public void store(String id, EmailTemplate template) throws ApiResException, IOException {
+        Compiled compiledTemplate = compile(template);
+        Path file = Files.createTempFile(directory, "template-", ".tmp");
+        try {
+            Files.write(file, JsonMappers.EMAIL_TEMPLATE_WRITER.writeValueAsBytes(template));
+            synchronized(compiled) {
+                Files.move(file, templatePath(id), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                compiled.put(id, compiledTemplate);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /*
+     * Renders the subject, message and HTML of the email from its template, if it has one.
+     */
+    public void render(EmailParams params) throws ApiResException {
+        render(params, null);
+    }
+
+    /*
+     * Renders the subject, message and HTML of the email from its template, if it has one.
+     * Emails rendered from the same template with the same variables share the rendered content,
+     * through the given map. It is held by the caller for the emails of a batch.
+     */
+    public void render(/*in-out*/ EmailParams params, /*in-out*/ Map<List<Object>, EmailTemplate> rendered)
+                            throws ApiResException {
+        String id = params.getTemplateId();
+        if(id == null) {
+            return;
+        }
+
+        Map<String, String> variables = params.getTemplateVariables();
+        List<Object> key = Arrays.asList(id, variables);
+        EmailTemplate result = rendered != null ? rendered.get(key) : null;
+        if(result == null) {
+            Compiled template = get(id);
+            if(template == null) {
+                log.error("Unknown template id " + id + ". Returning appropriate error.");
+                throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.UNKNOWN_TEMPLATE);
+            }
+            result = new EmailTemplate(render(template.subject, variables, false),
+                                        render(template.message, variables, false),
+                                        render(template.html, variables, true));
+            if(rendered != null) {
+                rendered.put(key, result);
+            }
+        }
+        params.setSubject(result.getSubject());
+        params.setMessage(result.getMessage());
+        params.setHtml(result.getHtml());
+        // Not needed once rendered. Outbox does not journal them.
+        params.setTemplateVariables(null);
+    }
+
+    /*
+     * Returns the compiled template with the given id, from the cache or compiled from its file. Null when there is none.
+     */
+    Compiled get(String id) {
+        if(!ID_PATTERN.matcher(id).matches()) {
+            return null;
+        }
+        synchronized(compiled) {
+            Compiled template = compiled.get(id);
+            if(template == null) {
+                template = load(id);
+                if(template != null) {
+                    compiled.put(id, template);
+                }
+            }
+            return template;
+        }
+    }
+
+    private Compiled load(String id) {
+        try {
+            return compile(JsonMappers.EMAIL_TEMPLATE_READER.readValue(Files.readAllBytes(templatePath(id))));
+        } catch(NoSuchFileException nsfEx) {
+            return null;
+        } catch(IOException | ApiResException ex) {
+            log.error("Unable to read the template " + id, ex);
+            return null;
+        }
+    }
+
+    private EmailTemplate readTemplate(String body) throws ApiResException {
+        try {
+            EmailTemplate template = JsonMappers.EMAIL_TEMPLATE_READER.readValue(body);
+            if(template == null) {
+                throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_TEMPLATE);
+            }
+            return template;
+        } catch(IOException ioEx) {
+            throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_TEMPLATE);
+        }
+    }
+
+    private static Compiled compile(EmailTemplate template) throws ApiResException {
+        if(isBlank(template.getSubject()) || (isBlank(template.getMessage()) && isBlank(template.getHtml()))) {
+            throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_TEMPLATE);
+        }
+        try {
+            return new Compiled(compileText(template.getSubject()), compileText(template.getMessage()),
+                                compileText(template.getHtml()));
+        } catch(IllegalArgumentException iaEx) {
+            throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_TEMPLATE);
+        }
+    }
+
+    // Text left out of the template stays null.
+    private static CompiledTemplate compileText(String text) {
+        return !isBlank(text) ? CompiledTemplate.compile(text) : null;
+    }
+
+    private static String render(CompiledTemplate template, Map<String, String> variables, boolean escapeHtml)
+                                    throws ApiResException {
+        if(template == null) {
+            return null;
+        }
+        StringBuilder buffer = renderBuffer.get();
+        try {
+            String missing = template.renderTo(variables, escapeHtml, buffer);
+            if(missing != null) {
+                log.error("Template variable " + missing + " is missing. Returning appropriate error.");
+                throw new ApiResException(HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.MISSING_TEMPLATE_VARIABLE);
+            }
+            return buffer.toString();
+        } finally {
+            if(buffer.capacity() > MAX_RETAINED_BUFFER) {
+                renderBuffer.remove();
+            } else {
+                buffer.setLength(0);
+            }
+        }
+    }
+
+    private static boolean isBlank(String text) {
+        return text == null || text.trim().isEmpty();
+    }
+
+    private Path templatePath(String id) {
+        return directory.resolve(id + FILE_SUFFIX);
+    }
+
+    // Compiled subject, message and HTML of a template. Message or HTML may be null.
+    static class Compiled {
+        final CompiledTemplate subject;
+        final CompiledTemplate message;
+        final CompiledTemplate html;
+
+        Compiled(CompiledTemplate subject, CompiledTemplate message, CompiledTemplate html) {
+            this.subject = subject;
+            this.message = message;
+            this.html = html;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.siteminder.challenge.attachments;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.models.EmailParams;
+
+public class SmAttachmentStoreTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SmAttachmentStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = newStore();
+    }
+
+    @Test
+    public void sameContentIsStoredOnceUnderItsHash() throws Exception {
+        StoredAttachment first = store.store(attachment("terms.pdf", "terms"));
+        StoredAttachment second = store.store(attachment("terms-copy.pdf", "terms"));
+
+        assertEquals(sha256Hex("terms"), first.getId());
+        assertEquals(first.getId(), second.getId());
+        assertEquals(2, Files.list(folder.getRoot().toPath()).count());
+        // Emails referring to the id keep the description it was first stored with.
+        assertEquals("terms.pdf", second.getOriginalFilename());
+
+        // Looked up from the files by a store opened later.
+        StoredAttachment reopened = newStore().get(first.getId());
+        assertEquals("terms.pdf", reopened.getOriginalFilename());
+        assertEquals(5, reopened.getSize());
+        assertArrayEquals("terms".getBytes(StandardCharsets.UTF_8), reopened.getBytes());
+    }
+
+    @Test
+    public void referencedAttachmentsFollowTheUploadedOnes() throws Exception {
+        StoredAttachment stored = store.store(attachment("logo.png", "logo"));
+        MultipartFile uploaded = attachment("a.txt", "a");
+        EmailParams params = new EmailParams();
+        params.setAttachmentIds(Collections.singletonList(stored.getId()));
+
+        List<MultipartFile> all = store.withStoredAttachments(params, Collections.singletonList(uploaded));
+        assertEquals(Arrays.asList(uploaded, stored), all);
+
+        params.setAttachmentIds(Arrays.asList(stored.getId(), String.join("", Collections.nCopies(64, "a"))));
+        try {
+            store.resolve(params);
+            fail("Unknown ids must be rejected.");
+        } catch(ApiResException apiEx) {
+            assertEquals(HttpStatus.BAD_REQUEST, apiEx.getStatus());
+        }
+        assertNull(store.get("../" + stored.getId()));
+    }
+
+    @Test
+    public void encodingIsCachedUntilEvicted() throws Exception {
+        EncodedAttachmentCache cache = new EncodedAttachmentCache(16);
+        Path file = folder.newFile().toPath();
+        Files.write(file, "aaaaaa".getBytes(StandardCharsets.UTF_8));
+        StoredAttachment a = new StoredAttachment("a", "a.txt", "text/plain", file, 6, cache);
+
+        byte[] encoded = a.getBase64();
+        assertEquals(Base64.getEncoder().encodeToString("aaaaaa".getBytes(StandardCharsets.UTF_8)),
+                        new String(encoded, StandardCharsets.US_ASCII));
+        assertSame(encoded, a.getBase64());
+        assertEquals(1, cache.getHits());
+
+        cache.put("b", new byte[8]);
+        cache.put("c", new byte[8]);
+        assertNull(cache.get("a"));
+        assertEquals(16, cache.getSize());
+
+        // Too large to be cached. Encoded as a stream instead.
+        StoredAttachment large = new StoredAttachment("large", "l.txt", "text/plain", file, 13, cache);
+        assertNull(large.getBase64());
+    }
+
+    private SmAttachmentStore newStore() throws Exception {
+        SmAppConfig appConfig = new SmAppConfig();
+        appConfig.getAttachments().setDirectory(folder.getRoot().getPath());
+        SmAttachmentStore attachmentStore = new SmAttachmentStore();
+        attachmentStore.appConfig = appConfig;
+        attachmentStore.open();
+        return attachmentStore;
+    }
+
+    private static MultipartFile attachment(String filename, String content) {
+        return new MockMultipartFile("attachments", filename, "application/pdf", content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256Hex(String content) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+        return Hex.encodeHexString(digest);
+    }
+}
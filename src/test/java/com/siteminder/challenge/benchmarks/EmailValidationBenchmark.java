@@ -0,0 +1,57 @@
+package com.siteminder.challenge.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.validator.GenericValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.siteminder.challenge.commons.EmailAddressScanner;
+
+/*
+ * Throughput of email address validation: EmailAddressScanner against commons-validator (GenericValidator.isEmail).
+ * Run with: mvn -P benchmarks test-compile exec:exec -Dbenchmark=EmailValidation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmailValidationBenchmark {
+    private static final String[] ADDRESSES = {
+        "john.doe@example.com",
+        "first.last+newsletter@mail.sub.example.co.uk",
+        "reservations@grand-hotel.com.au",
+        "x@example.org",
+        "invalid..dots@example.com",
+        "missing-domain@",
+        "user@[192.168.0.1]",
+        "very.long.local.part.with.many.atoms@a.very.long.domain.name.example.com",
+    };
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void scanner(Blackhole blackhole) {
+        for(String address : ADDRESSES) {
+            blackhole.consume(EmailAddressScanner.isValid(address));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void genericValidator(Blackhole blackhole) {
+        for(String address : ADDRESSES) {
+            blackhole.consume(GenericValidator.isEmail(address));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.siteminder.challenge.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.slf4j.LoggerFactory;
+
+import com.siteminder.challenge.commons.VirtualThreads;
+
+import ch.qos.logback.classic.Logger;
+
+/*
+ * Load of many concurrent, slow mailing service calls made with the blocking HTTP client.
+ * platform: calls run on a fixed pool of platform threads, sized like the default Tomcat pool (200).
+ * virtual: every call runs on its own virtual thread. Needs Java 21 or later.
+ * Mailing service is a local stub answering after the given latency.
+ * Run with: mvn -P benchmarks test-compile exec:exec -Dbenchmark=ProviderCallThreads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ProviderCallThreadsBenchmark {
+    private static final int PLATFORM_THREADS = 200;
+    private static final byte[] RESPONSE = "HTTP/1.1 202 Accepted\r\nContent-Length: 2\r\n\r\n{}"
+                                                .getBytes(StandardCharsets.US_ASCII);
+
+    @Param({ "platform", "virtual" })
+    String threads;
+
+    @Param({ "1000", "5000" })
+    int concurrentCalls;
+
+    @Param({ "50" })
+    int latencyMillis;
+
+    ServerSocket server;
+    ExecutorService serverExecutor;
+    CloseableHttpClient httpClient;
+    ExecutorService executor;
+    String endPoint;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // Benchmark JVM has no logging config. Debug logs of the HTTP client would be measured otherwise.
+        ((Logger) LoggerFactory.getLogger("org.apache.http")).setLevel(ch.qos.logback.classic.Level.WARN);
+
+        if("virtual".equals(threads)) {
+            executor = VirtualThreads.newThreadPerTaskExecutor("bench-call-");
+        } else {
+            executor = Executors.newFixedThreadPool(PLATFORM_THREADS);
+        }
+
+        server = new ServerSocket(0, concurrentCalls, InetAddress.getLoopbackAddress());
+        serverExecutor = Executors.newCachedThreadPool();
+        serverExecutor.execute(this::acceptConnections);
+        endPoint = "http://127.0.0.1:" + server.getLocalPort() + "/send";
+
+        // Pool is large enough for every call, so that only the threads differ.
+        PoolingHttpClientConnectionManager connManager = new PoolingHttpClientConnectionManager();
+        connManager.setMaxTotal(concurrentCalls);
+        connManager.setDefaultMaxPerRoute(concurrentCalls);
+        httpClient = HttpClients.custom().setConnectionManager(connManager).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        httpClient.close();
+        server.close();
+        serverExecutor.shutdownNow();
+    }
+
+    // Time to complete all the concurrent calls.
+    @Benchmark
+    public int concurrentCalls() throws Exception {
+        List<Future<Integer>> calls = new ArrayList<>(concurrentCalls);
+        for(int i = 0; i < concurrentCalls; i++) {
+            calls.add(executor.submit(this::call));
+        }
+        int accepted = 0;
+        for(Future<Integer> call : calls) {
+            accepted += call.get() == 202 ? 1 : 0;
+        }
+        return accepted;
+    }
+
+    /*
+     * Stub of the mailing service. A thread per kept alive connection, so that the stub is never the bottleneck.
+     * The stub is a bare HTTP/1.1 server, as the HTTP server of the JDK cannot keep up with the load.
+     */
+    private void acceptConnections() {
+        while(!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                serverExecutor.execute(() -> serveConnection(socket));
+            } catch(IOException ioEx) {
+                // Closed on tear down.
+            }
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try(Socket connection = socket) {
+            connection.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(connection.getInputStream());
+            OutputStream out = connection.getOutputStream();
+            while(true) {
+                int contentLength = -1;
+                for(String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+                    if(line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                        contentLength = Integer.parseInt(line.substring(15).trim());
+                    }
+                }
+                for(int i = 0; i < contentLength; i++) {
+                    in.read();
+                }
+                Thread.sleep(latencyMillis);
+                out.write(RESPONSE);
+                out.flush();
+            }
+        } catch(IOException | InterruptedException ex) {
+            // Connection closed by the client or on tear down.
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for(int c = in.read(); c != '\n'; c = in.read()) {
+            if(c == -1) {
+                throw new EOFException();
+            }
+            if(c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private int call() throws IOException {
+        HttpPost request = new HttpPost(endPoint);
+        request.setEntity(new StringEntity("{}"));
+        try(CloseableHttpResponse response = httpClient.execute(request)) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+}
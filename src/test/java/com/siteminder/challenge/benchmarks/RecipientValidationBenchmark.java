@@ -0,0 +1,98 @@
+package com.siteminder.challenge.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.siteminder.challenge.commons.Utils;
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.models.Email;
+import com.siteminder.challenge.models.EmailParams;
+
+/*
+ * Cost of validating the recipients of an email, split between to, cc and bcc.
+ * listContains is the former duplicate check (List.contains for every recipient), kept as the baseline.
+ * Run with: mvn -P benchmarks test-compile exec:exec -Dbenchmark=RecipientValidation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecipientValidationBenchmark {
+    @Param({ "10", "100", "1000" })
+    int recipients;
+
+    EmailParams params;
+
+    @Setup
+    public void setup() {
+        List<Email> to = new ArrayList<>();
+        List<Email> cc = new ArrayList<>();
+        List<Email> bcc = new ArrayList<>();
+        for(int i = 0; i < recipients; i++) {
+            List<Email> target = i % 3 == 0 ? to : (i % 3 == 1 ? cc : bcc);
+            target.add(email("recipient." + i + "@Example.com"));
+        }
+
+        params = new EmailParams();
+        params.setFrom(email("sender@example.com"));
+        params.setTo(to);
+        params.setCc(cc);
+        params.setBcc(bcc);
+        params.setSubject("subject");
+        params.setMessage("message");
+    }
+
+    @Benchmark
+    public Set<String> hashSet() throws ApiResException {
+        Set<String> activeRecipients = new HashSet<>((int) (recipients / 0.75f) + 1);
+        Utils.validateRecipientList(params.getTo(), "to", false, activeRecipients);
+        Utils.validateRecipientList(params.getCc(), "cc", false, activeRecipients);
+        Utils.validateRecipientList(params.getBcc(), "bcc", false, activeRecipients);
+        return activeRecipients;
+    }
+
+    @Benchmark
+    public List<String> listContains() throws ApiResException {
+        List<String> activeRecipients = new ArrayList<>();
+        addAll(params.getTo(), activeRecipients);
+        addAll(params.getCc(), activeRecipients);
+        addAll(params.getBcc(), activeRecipients);
+        return activeRecipients;
+    }
+
+    private void addAll(List<Email> emails, List<String> activeRecipients) throws ApiResException {
+        for(Email emailEntry : emails) {
+            String email = emailEntry.getEmail();
+            if(!Utils.isValidEmailFormat(email)) {
+                throw new ApiResException(null, email);
+            }
+            if(activeRecipients.contains(email)) {
+                throw new ApiResException(null, email);
+            }
+            activeRecipients.add(email);
+        }
+    }
+
+    private static Email email(String address) {
+        Email email = new Email();
+        email.setEmail(address);
+        return email;
+    }
+}
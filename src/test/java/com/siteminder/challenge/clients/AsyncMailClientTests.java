@@ -0,0 +1,153 @@
+package com.siteminder.challenge.clients;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.siteminder.challenge.SmMailServiceConfig;
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.models.Email;
+import com.siteminder.challenge.models.EmailParams;
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncMailClientTests {
+    private HttpServer server;
+    private CloseableHttpAsyncClient asyncClient;
+    private final AtomicInteger status = new AtomicInteger(202);
+    private final AtomicReference<byte[]> received = new AtomicReference<>();
+    private final AtomicReference<String> retryAfter = new AtomicReference<>("3");
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/send", exchange -> {
+            received.set(readAll(exchange.getRequestBody()));
+            exchange.getResponseHeaders().add("Retry-After", retryAfter.get());
+            exchange.sendResponseHeaders(status.get(), -1);
+            exchange.close();
+        });
+        server.start();
+        asyncClient = HttpAsyncClients.createDefault();
+        asyncClient.start();
+    }
+
+    @After
+    public void stop() throws IOException {
+        asyncClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void emailIsSentWithoutBlocking() throws Exception {
+        SendGridClient client = client();
+        client.sendEmailAsync().get(10, TimeUnit.SECONDS);
+
+        JsonNode json = new ObjectMapper().readTree(received.get());
+        assertEquals("subject", json.get("subject").asText());
+        assertEquals("to@example.com", json.get("personalizations").get(0).get("to").get(0).get("email").asText());
+    }
+
+    @Test
+    public void rateLimitedResponseCarriesRetryAfter() throws Exception {
+        status.set(429);
+        try {
+            client().sendEmailAsync().get(10, TimeUnit.SECONDS);
+            fail("429 must fail the email.");
+        } catch(ExecutionException exEx) {
+            assertTrue(exEx.getCause() instanceof ApiResException);
+            ApiResException apiEx = (ApiResException) exEx.getCause();
+            assertEquals(HttpStatus.TOO_MANY_REQUESTS, apiEx.getStatus());
+            assertEquals(3000, apiEx.getRetryAfter());
+        }
+    }
+
+    @Test
+    public void hugeRetryAfterIsCutDownToADay() throws Exception {
+        status.set(429);
+        retryAfter.set(String.valueOf(Long.MAX_VALUE / 100));
+        try {
+            client().sendEmailAsync().get(10, TimeUnit.SECONDS);
+            fail("429 must fail the email.");
+        } catch(ExecutionException exEx) {
+            ApiResException apiEx = (ApiResException) exEx.getCause();
+            assertEquals(Constants.Limitations.MAX_RETRY_AFTER, apiEx.getRetryAfter());
+        }
+    }
+
+    @Test
+    public void unknownStatusCodeFailsTheEmail() throws Exception {
+        status.set(520);
+        try {
+            client().sendEmailAsync().get(10, TimeUnit.SECONDS);
+            fail("520 must fail the email.");
+        } catch(ExecutionException exEx) {
+            assertTrue(exEx.getCause() instanceof ApiResException);
+            ApiResException apiEx = (ApiResException) exEx.getCause();
+            assertEquals(HttpStatus.BAD_GATEWAY, apiEx.getStatus());
+            assertTrue(apiEx.isRetryable());
+        }
+    }
+
+    @Test
+    public void stoppedClientFailsTheEmail() throws Exception {
+        asyncClient.close();
+        try {
+            client().sendEmailAsync().get(10, TimeUnit.SECONDS);
+            fail("A stopped client must fail the email.");
+        } catch(ExecutionException exEx) {
+            assertTrue(exEx.getCause() instanceof ApiResException);
+        }
+    }
+
+    private SendGridClient client() {
+        SmMailServiceConfig config = new SmMailServiceConfig();
+        config.setServiceName("sendgrid");
+        config.setEndPoint("http://localhost:" + server.getAddress().getPort() + "/send");
+        config.setApiKey("key");
+
+        EmailParams params = new EmailParams();
+        params.setFrom(email("from@example.com"));
+        params.setTo(Collections.singletonList(email("to@example.com")));
+        params.setSubject("subject");
+        params.setMessage("message");
+
+        SendGridClient client = new SendGridClient(params, null, config, null);
+        client.setAsyncClient(asyncClient);
+        return client;
+    }
+
+    private Email email(String address) {
+        Email email = new Email();
+        email.setEmail(address);
+        return email;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for(int read; (read = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
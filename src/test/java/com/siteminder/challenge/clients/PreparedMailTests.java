@@ -0,0 +1,109 @@
+package com.siteminder.challenge.clients;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.models.Email;
+import com.siteminder.challenge.models.EmailParams;
+
+public class PreparedMailTests {
+
+    @Test
+    public void sizeIsBasedOnBase64SizeOfAttachments() throws ApiResException {
+        EmailParams params = emailParams("to@example.com");
+        PreparedMail mail = PreparedMail.prepare(params, attachment(new byte[10]));
+
+        assertTrue(params.isValidated());
+        assertEquals("subject".length() + "message".length() + 16, mail.getSize());
+    }
+
+    @Test
+    public void mailsExceedingTheSizeLimitAreRejected() {
+        byte[] content = new byte[(int) (Constants.Limitations.MAX_MAIL_SIZE * 3 / 4)];
+        try {
+            PreparedMail.prepare(emailParams("to@example.com"), attachment(content));
+            fail("Mail size must be limited.");
+        } catch(ApiResException apiEx) {
+            assertEquals(HttpStatus.BAD_REQUEST, apiEx.getStatus());
+            assertEquals(Constants.ApiStatusMessages.MAIL_SIZE_EXCEEDED, apiEx.getMessage());
+        }
+    }
+
+    @Test
+    public void batchSharesTheContentOfTheFirstMail() throws ApiResException {
+        List<MultipartFile> attachments = attachment(new byte[] { 1 });
+        PreparedMail first = PreparedMail.prepare(emailParams("a@example.com"), attachments);
+        PreparedMail second = PreparedMail.prepare(emailParams("b@example.com"), attachments);
+
+        PreparedMail batch = PreparedMail.batch(Arrays.asList(first, second));
+        assertEquals(2, batch.getBatch().size());
+        assertEquals(first.getSize(), batch.getSize());
+        assertEquals(attachments, batch.getAttachments());
+        assertEquals("a@example.com", batch.getEmailParams().getTo().get(0).getEmail());
+    }
+
+    @Test
+    public void mailIsKeptWithTheCopiesOfItsAttachments() throws ApiResException {
+        EmailParams params = emailParams("to@example.com");
+        PreparedMail uploaded = PreparedMail.prepare(params, attachment(new byte[10]));
+        List<MultipartFile> copies = attachment(new byte[10]);
+
+        PreparedMail copied = uploaded.withAttachments(copies);
+        assertSame(params, copied.getEmailParams());
+        assertSame(copies, copied.getAttachments());
+        assertEquals(uploaded.getSize(), copied.getSize());
+    }
+
+    @Test
+    public void htmlIsCountedAndInlineAttachmentsMustBeAttached() throws ApiResException {
+        EmailParams params = emailParams("to@example.com");
+        params.setMessage(null);
+        params.setHtml("<img src=\"cid:a.bin\">");
+        params.setInline(Collections.singletonList("a.bin"));
+        PreparedMail mail = PreparedMail.prepare(params, attachment(new byte[3]));
+        assertEquals("subject".length() + params.getHtml().length() + 4, mail.getSize());
+        assertTrue(PreparedMail.isInline(params, mail.getAttachments().get(0)));
+
+        EmailParams missing = emailParams("to@example.com");
+        missing.setInline(Collections.singletonList("logo.png"));
+        try {
+            PreparedMail.prepare(missing, attachment(new byte[3]));
+            fail("Inline attachments must be attached.");
+        } catch(ApiResException apiEx) {
+            assertEquals(HttpStatus.BAD_REQUEST, apiEx.getStatus());
+            assertEquals(Constants.ApiStatusMessages.UNKNOWN_INLINE_ATTACHMENT, apiEx.getMessage());
+        }
+    }
+
+    private List<MultipartFile> attachment(byte[] content) {
+        return Collections.singletonList(new MockMultipartFile("attachments", "a.bin", "application/octet-stream", content));
+    }
+
+    private EmailParams emailParams(String to) {
+        EmailParams params = new EmailParams();
+        params.setFrom(email("from@example.com"));
+        params.setTo(Collections.singletonList(email(to)));
+        params.setSubject("subject");
+        params.setMessage("message");
+        return params;
+    }
+
+    private Email email(String address) {
+        Email email = new Email();
+        email.setEmail(address);
+        return email;
+    }
+}
@@ -0,0 +1,132 @@
+package com.siteminder.challenge.clients;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+public class SpooledEntityTests {
+
+    @Test
+    public void smallContentIsKeptInMemory() throws IOException {
+        byte[] content = content(1000);
+        SpooledEntity entity = SpooledEntity.spool(new ByteArrayEntity(content, ContentType.APPLICATION_JSON), 4096);
+
+        assertTrue(entity.isInMemory());
+        assertEquals(1000, entity.getContentLength());
+        assertEquals(ContentType.APPLICATION_JSON.toString(), entity.getContentType().getValue());
+        assertArrayEquals(content, produce(entity));
+    }
+
+    @Test
+    public void largeContentIsSpooledToFile() throws IOException {
+        byte[] content = content(300_000);
+        SpooledEntity entity = SpooledEntity.spool(new ByteArrayEntity(content), 4096);
+
+        assertFalse(entity.isInMemory());
+        assertEquals(300_000, entity.getContentLength());
+        assertArrayEquals(content, produce(entity));
+        // Produced again from the start once closed.
+        entity.close();
+        assertArrayEquals(content, produce(entity));
+        assertArrayEquals(content, EntityUtils.toByteArray(entity));
+
+        entity.discard();
+        try {
+            entity.getContent();
+            fail("Spooled file must be deleted once discarded.");
+        } catch(NoSuchFileException nsfEx) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void failedWritesLeaveNothingBehind() throws IOException {
+        long spooledFiles = countSpooledFiles();
+        ByteArrayEntity failing = new ByteArrayEntity(content(10_000)) {
+            @Override
+            public void writeTo(OutputStream outStream) throws IOException {
+                super.writeTo(outStream);
+                throw new IOException("Attachment could not be read.");
+            }
+        };
+        try {
+            SpooledEntity.spool(failing, 4096);
+            fail("Spooling must fail when the entity cannot be written.");
+        } catch(IOException ioEx) {
+            assertEquals("Attachment could not be read.", ioEx.getMessage());
+        }
+        assertEquals(spooledFiles, countSpooledFiles());
+    }
+
+    // Produces the content like an I/O thread would, with a connection taking a few bytes at a time.
+    private byte[] produce(SpooledEntity entity) throws IOException {
+        LimitedEncoder encoder = new LimitedEncoder(1000);
+        for(int i = 0; !encoder.isCompleted(); i++) {
+            if(i > 1_000_000) {
+                fail("Content is never completed.");
+            }
+            entity.produceContent(encoder, null);
+        }
+        return encoder.out.toByteArray();
+    }
+
+    private long countSpooledFiles() throws IOException {
+        try(Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("sm-spool-")).count();
+        }
+    }
+
+    private byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(1).nextBytes(content);
+        return content;
+    }
+
+    private static class LimitedEncoder implements ContentEncoder {
+        private final int limit;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private boolean completed;
+
+        LimitedEncoder(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = Math.min(limit, src.remaining());
+            for(int i = 0; i < count; i++) {
+                out.write(src.get());
+            }
+            return count;
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return completed;
+        }
+    }
+}
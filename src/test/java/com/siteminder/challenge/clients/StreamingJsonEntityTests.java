@@ -0,0 +1,43 @@
+package com.siteminder.challenge.clients;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.siteminder.challenge.models.sendgrid.Attachments;
+import com.siteminder.challenge.models.sendgrid.SgMail;
+
+public class StreamingJsonEntityTests {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void attachmentsAreWrittenAsBase64() throws Exception {
+        byte[] content = new byte[100_001];
+        new Random(1).nextBytes(content);
+        Attachments attachment = new Attachments(new MockMultipartFile("attachments", "a.bin", "application/octet-stream",
+                                                                        content), "application/octet-stream", "a.bin",
+                                                    null, null);
+        SgMail sgMail = new SgMail();
+        sgMail.setSubject("subject");
+        sgMail.setAttachments(Collections.singletonList(attachment));
+
+        StreamingJsonEntity entity = new StreamingJsonEntity(mapper.writerFor(SgMail.class), sgMail);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        // Entity can be written again, as the attachment is read on every write.
+        entity.writeTo(new ByteArrayOutputStream());
+
+        JsonNode json = mapper.readTree(out.toByteArray());
+        assertEquals("subject", json.get("subject").asText());
+        assertEquals(Base64.encodeBase64String(content), json.get("attachments").get(0).get("content").asText());
+        assertEquals(-1, entity.getContentLength());
+    }
+}
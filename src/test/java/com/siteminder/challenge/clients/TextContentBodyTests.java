@@ -0,0 +1,45 @@
+package com.siteminder.challenge.clients;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.entity.ContentType;
+import org.junit.Test;
+
+public class TextContentBodyTests {
+
+    @Test
+    public void lengthMatchesTheWrittenUtf8Bytes() throws Exception {
+        StringBuilder html = new StringBuilder();
+        for(int i = 0; i < 5000; i++) {
+            // 1, 2, 3 and 4 byte characters, larger than the buffer of the encoder.
+            html.append("<p>aé€😀</p>");
+        }
+        assertWritten(html.toString());
+
+        StringBuilder split = new StringBuilder();
+        for(int i = 0; i < 5000; i++) {
+            // Some surrogate pairs are split across the chunks written to the encoder.
+            split.append("a😀");
+        }
+        assertWritten(split.toString());
+    }
+
+    @Test
+    public void unpairedSurrogatesAreCountedAsReplaced() {
+        String text = "a\ud83d" + "b\ude00";
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length, TextContentBody.utf8Length(text));
+    }
+
+    private static void assertWritten(String text) throws Exception {
+        TextContentBody body = new TextContentBody(text, ContentType.TEXT_HTML);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        body.writeTo(written);
+        assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), written.toByteArray());
+        assertEquals(written.size(), body.getContentLength());
+        assertEquals("text/html; charset=UTF-8", body.getContentType().toString());
+    }
+}
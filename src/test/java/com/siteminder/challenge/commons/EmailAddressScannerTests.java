@@ -0,0 +1,88 @@
+package com.siteminder.challenge.commons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.validator.GenericValidator;
+import org.junit.Test;
+
+public class EmailAddressScannerTests {
+    private static final String[] VALID = {
+        "a@example.com",
+        "John.Doe@Example.COM",
+        "first.last+tag@sub.example.co.uk",
+        "o'reilly@example.com",
+        "x_y-z@e-xample.org",
+        "\"john doe\"@example.com",
+        "user@[192.168.0.1]",
+        "user@xn--bcher-kva.example",
+    };
+
+    private static final String[] INVALID = {
+        "",
+        "plain",
+        "@example.com",
+        "a@",
+        "a@@example.com",
+        ".a@example.com",
+        "a.@example.com",
+        "a..b@example.com",
+        "a@example",
+        "a@-example.com",
+        "a@example-.com",
+        "a@example..com",
+        "a@example.com.",
+        "a@example.123",
+        "a b@example.com",
+        "a@exa mple.com",
+        "\"unterminated@example.com",
+        "user@[256.1.1.1]",
+        "user@[1.2.3]",
+    };
+
+    @Test
+    public void validAddressesAreAccepted() {
+        for(String address : VALID) {
+            assertTrue(address, EmailAddressScanner.isValid(address));
+        }
+    }
+
+    @Test
+    public void invalidAddressesAreRejected() {
+        assertFalse(EmailAddressScanner.isValid(null));
+        for(String address : INVALID) {
+            assertFalse(address, EmailAddressScanner.isValid(address));
+        }
+    }
+
+    @Test
+    public void lengthLimitsAreEnforced() {
+        String local64 = repeat('a', 64);
+        assertTrue(EmailAddressScanner.isValid(local64 + "@example.com"));
+        assertFalse(EmailAddressScanner.isValid(local64 + "a@example.com"));
+        assertFalse(EmailAddressScanner.isValid("a@" + repeat('b', 64) + ".com"));
+        assertFalse(EmailAddressScanner.isValid("a@" + repeat(repeat('b', 60) + ".", 5) + "com"));
+    }
+
+    @Test
+    public void commonAddressesAgreeWithCommonsValidator() {
+        String[] addresses = { "a@example.com", "first.last+tag@sub.example.co.uk", "a@example", "a..b@example.com",
+                                "a@example..com", "a b@example.com", "user@[192.168.0.1]" };
+        for(String address : addresses) {
+            assertEquals(address, GenericValidator.isEmail(address), EmailAddressScanner.isValid(address));
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        return repeat(String.valueOf(c), count);
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package com.siteminder.challenge.commons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SmMetricsTests {
+    private SimpleMeterRegistry registry;
+
+    @Before
+    public void addRegistry() {
+        registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+    }
+
+    @After
+    public void removeRegistry() {
+        Metrics.removeRegistry(registry);
+    }
+
+    @Test
+    public void errorReasonsByStatusCode() {
+        assertEquals(SmMetrics.REASON_AUTH, SmMetrics.reasonOf(401));
+        assertEquals(SmMetrics.REASON_AUTH, SmMetrics.reasonOf(403));
+        assertEquals(SmMetrics.REASON_RATE_LIMITED, SmMetrics.reasonOf(429));
+        assertEquals(SmMetrics.REASON_REJECTED, SmMetrics.reasonOf(400));
+        assertEquals(SmMetrics.REASON_UNAVAILABLE, SmMetrics.reasonOf(503));
+    }
+
+    @Test
+    public void serviceCallsAreTimedByOutcomeAndErrorsCountedByReason() {
+        long start = System.nanoTime();
+        SmMetrics.recordServiceCall("MetricsTest", start, null);
+        SmMetrics.recordServiceCall("MetricsTest", start, null);
+        SmMetrics.recordServiceCall("MetricsTest", start, SmMetrics.REASON_RATE_LIMITED);
+
+        assertEquals(2, registry.get("smchallenge.mail.service.request")
+                                .tags("service", "metricstest", "outcome", SmMetrics.SUCCESS).timer().count());
+        assertEquals(1, registry.get("smchallenge.mail.service.request")
+                                .tags("service", "metricstest", "outcome", SmMetrics.ERROR).timer().count());
+        assertEquals(1, registry.get("smchallenge.mail.service.errors")
+                                .tags("service", "metricstest", "reason", SmMetrics.REASON_RATE_LIMITED)
+                                .counter().count(), 0);
+        assertNull(registry.find("smchallenge.mail.service.errors")
+                                .tags("service", "metricstest", "reason", SmMetrics.REASON_IO).counter());
+    }
+
+    @Test
+    public void failoverCountsEmailsAndMarksTheLastService() {
+        SmMetrics.recordFailover("MetricsTestA", "MetricsTestB", 3);
+        SmMetrics.recordFailover("MetricsTestB", null, 2);
+
+        assertEquals(3, registry.get("smchallenge.mail.service.failover")
+                                .tags("from", "metricstesta", "to", "metricstestb").counter().count(), 0);
+        assertEquals(2, registry.get("smchallenge.mail.service.failover")
+                                .tags("from", "metricstestb", "to", "none").counter().count(), 0);
+    }
+
+    @Test
+    public void firstUsesOfAMeterFromManyThreadsAreAllRecorded() throws Exception {
+        for(int round = 0; round < 50; round++) {
+            String service = "MetricsTestRace" + round;
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            Runnable build = () -> {
+                try {
+                    barrier.await();
+                } catch(Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+                SmMetrics.recordRequestBuild(service, System.nanoTime());
+            };
+            Thread first = new Thread(build);
+            Thread second = new Thread(build);
+            first.start();
+            second.start();
+            first.join();
+            second.join();
+
+            assertEquals(2, registry.get("smchallenge.mail.request.build")
+                                    .tags("service", service.toLowerCase()).timer().count());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.siteminder.challenge.commons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.models.Email;
+import com.siteminder.challenge.models.EmailParams;
+
+public class UtilsTests {
+
+    @Test
+    public void duplicateRecipientsDifferingInDomainCaseAreRejected() throws ApiResException {
+        EmailParams params = emailParams(Arrays.asList("a@example.com"), Arrays.asList("a@EXAMPLE.com"));
+        assertRejected(params, false);
+    }
+
+    @Test
+    public void localPartCaseIsOnlyIgnoredOnRequest() throws ApiResException {
+        EmailParams params = emailParams(Arrays.asList("a@example.com", "A@example.com"), null);
+        Utils.validateEmailParams(params, false);
+        assertRejected(params, true);
+    }
+
+    @Test
+    public void normalizeEmailLowerCasesDomain() {
+        assertEquals("John.Doe@example.com", Utils.normalizeEmail("John.Doe@Example.COM", false));
+        assertEquals("john.doe@example.com", Utils.normalizeEmail("John.Doe@Example.COM", true));
+    }
+
+    @Test
+    public void messageIdsAreUniqueAndUseTheSenderDomain() {
+        String first = Utils.generateMessageId("john@example.com");
+        String second = Utils.generateMessageId("john@example.com");
+        assertTrue(first.matches("<[0-9a-f.]+@example\\.com>"));
+        assertNotEquals(first, second);
+    }
+
+    private void assertRejected(EmailParams params, boolean ignoreLocalPartCase) {
+        try {
+            Utils.validateEmailParams(params, ignoreLocalPartCase);
+            fail("Duplicate recipients must be rejected.");
+        } catch(ApiResException apiEx) {
+            assertEquals(HttpStatus.BAD_REQUEST, apiEx.getStatus());
+        }
+    }
+
+    private EmailParams emailParams(List<String> to, List<String> cc) {
+        EmailParams params = new EmailParams();
+        params.setFrom(email("from@example.com"));
+        params.setTo(emails(to));
+        if(cc != null) {
+            params.setCc(emails(cc));
+        }
+        params.setSubject("subject");
+        params.setMessage("message");
+        return params;
+    }
+
+    private List<Email> emails(List<String> addresses) {
+        List<Email> emails = new ArrayList<>();
+        for(String address : addresses) {
+            emails.add(email(address));
+        }
+        return emails;
+    }
+
+    private Email email(String address) {
+        Email email = new Email();
+        email.setEmail(address);
+        return email;
+    }
+}
@@ -0,0 +1,35 @@
+package com.siteminder.challenge.commons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class VirtualThreadsTests {
+
+    @Test
+    public void disabledFallsBackToPlatformThreads() {
+        assertNull(VirtualThreads.newExecutorIfEnabled(false, "test-"));
+    }
+
+    @Test
+    public void enabledUsesVirtualThreadsWhenSupported() throws Exception {
+        ExecutorService executor = VirtualThreads.newExecutorIfEnabled(true, "test-");
+        if(!VirtualThreads.isSupported()) {
+            assertNull(executor);
+            return;
+        }
+
+        assertNotNull(executor);
+        Thread thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+        assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+        assertEquals("test-0", thread.getName());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,101 @@
+package com.siteminder.challenge.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.siteminder.challenge.SmCircuitBreakerConfig;
+
+public class CircuitBreakerTests {
+
+    @Test
+    public void circuitOpensOnceFailureRateCrossesThreshold() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("sendgrid", config());
+        for(int i = 0; i < 3; i++) {
+            assertTrue(circuitBreaker.allowRequest());
+            circuitBreaker.record(i % 2 == 0, 1);
+        }
+        // 2 of 3 calls failed, but the minimum number of calls is not reached yet.
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        circuitBreaker.record(false, 1);
+        circuitBreaker.record(true, 1);
+        // 3 of 5 calls failed.
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void slowCallsOpenTheCircuit() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("sendgrid", config());
+        for(int i = 0; i < 5; i++) {
+            circuitBreaker.record(false, 100);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void successfulProbeAndTrialCallsCloseTheCircuit() throws InterruptedException {
+        CircuitBreaker circuitBreaker = openCircuit();
+        Thread.sleep(20);
+        assertTrue(circuitBreaker.isProbeDue());
+
+        circuitBreaker.recordProbe(true);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+        assertTrue(circuitBreaker.allowRequest());
+        // Only the configured number of trial calls are allowed.
+        assertFalse(circuitBreaker.allowRequest());
+
+        circuitBreaker.record(false, 1);
+        circuitBreaker.record(false, 1);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getFailureRate(), 0);
+    }
+
+    @Test
+    public void failedTrialCallOpensTheCircuitAgain() throws InterruptedException {
+        CircuitBreaker circuitBreaker = openCircuit();
+        Thread.sleep(20);
+        circuitBreaker.recordProbe(true);
+
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.record(true, 1);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.isProbeDue());
+    }
+
+    @Test
+    public void disabledCircuitAlwaysAllowsCalls() {
+        SmCircuitBreakerConfig config = config();
+        config.setEnabled(false);
+        CircuitBreaker circuitBreaker = new CircuitBreaker("sendgrid", config);
+        for(int i = 0; i < 10; i++) {
+            circuitBreaker.record(true, 1);
+        }
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    private CircuitBreaker openCircuit() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("sendgrid", config());
+        for(int i = 0; i < 5; i++) {
+            circuitBreaker.record(true, 1);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        return circuitBreaker;
+    }
+
+    private SmCircuitBreakerConfig config() {
+        SmCircuitBreakerConfig config = new SmCircuitBreakerConfig();
+        config.setWindowSize(10);
+        config.setMinimumCalls(5);
+        config.setFailureRateThreshold(50);
+        config.setSlowCallDuration(50);
+        config.setSlowCallRateThreshold(100);
+        config.setOpenDuration(10);
+        config.setHalfOpenCalls(2);
+        return config;
+    }
+}
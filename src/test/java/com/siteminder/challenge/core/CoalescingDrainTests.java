@@ -0,0 +1,113 @@
+package com.siteminder.challenge.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.siteminder.challenge.models.Email;
+import com.siteminder.challenge.models.EmailParams;
+
+public class CoalescingDrainTests {
+
+    @Test
+    public void onlyEmailsSharingTheContentOfTheFirstAreTaken() throws Exception {
+        BlockingQueue<EmailDelivery> queue = new ArrayBlockingQueue<>(10);
+        queue.add(delivery("a"));
+        queue.add(delivery("a"));
+        queue.add(delivery("a"));
+        queue.add(delivery("b"));
+        queue.add(delivery("a"));
+
+        CoalescingDrain drain = new CoalescingDrain(queue, 100);
+        assertEquals(3, drain.take(0, TimeUnit.MILLISECONDS).size());
+        assertTrue(drain.isHolding());
+
+        List<EmailDelivery> held = drain.take(0, TimeUnit.MILLISECONDS);
+        assertEquals(1, held.size());
+        assertEquals("b", held.get(0).getEmailParams().getSubject());
+        assertEquals(1, drain.take(0, TimeUnit.MILLISECONDS).size());
+        assertFalse(drain.isHolding());
+        assertTrue(drain.take(0, TimeUnit.MILLISECONDS).isEmpty());
+    }
+
+    @Test
+    public void takesAtMostTheCoalesceLimit() throws Exception {
+        BlockingQueue<EmailDelivery> queue = new ArrayBlockingQueue<>(10);
+        for(int i = 0; i < 5; i++) {
+            queue.add(delivery("a"));
+        }
+
+        CoalescingDrain drain = new CoalescingDrain(queue, 2);
+        assertEquals(2, drain.take(0, TimeUnit.MILLISECONDS).size());
+        assertFalse(drain.isHolding());
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void distinctEmailsAreSpreadAcrossWorkers() throws Exception {
+        int workers = 8;
+        BlockingQueue<EmailDelivery> queue = new ArrayBlockingQueue<>(100);
+        for(int i = 0; i < 2 * workers; i++) {
+            queue.add(delivery("subject " + i));
+        }
+
+        CyclicBarrier start = new CyclicBarrier(workers);
+        AtomicInteger delivered = new AtomicInteger();
+        List<Integer> deliveredByWorker = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for(int w = 0; w < workers; w++) {
+            Thread thread = new Thread(() -> {
+                CoalescingDrain drain = new CoalescingDrain(queue, 100);
+                int count = 0;
+                try {
+                    start.await();
+                    while(!queue.isEmpty() || drain.isHolding()) {
+                        List<EmailDelivery> deliveries = drain.take(10, TimeUnit.MILLISECONDS);
+                        assertTrue(deliveries.size() <= 1);
+                        count += deliveries.size();
+                        // Sending takes a while.
+                        Thread.sleep(50);
+                    }
+                } catch(Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+                delivered.addAndGet(count);
+                deliveredByWorker.add(count);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(2 * workers, delivered.get());
+        for(int count : deliveredByWorker) {
+            assertTrue("Every worker delivers some of the emails.", count > 0);
+        }
+    }
+
+    private EmailDelivery delivery(String subject) {
+        EmailParams params = new EmailParams();
+        Email from = new Email();
+        from.setEmail("from@example.com");
+        Email to = new Email();
+        to.setEmail("to@example.com");
+        params.setFrom(from);
+        params.setTo(Collections.singletonList(to));
+        params.setSubject(subject);
+        params.setMessage("message");
+        return new EmailDelivery(0, params, null);
+    }
+}
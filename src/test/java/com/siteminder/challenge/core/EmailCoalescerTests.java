@@ -0,0 +1,110 @@
+package com.siteminder.challenge.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.clients.MailGunClient;
+import com.siteminder.challenge.models.Email;
+import com.siteminder.challenge.models.EmailParams;
+
+public class EmailCoalescerTests {
+    // Every email goes to recipients of its own, unless a test says otherwise.
+    private int nextRecipient;
+
+    @Test
+    public void emailsWithSameContentAreBatched() {
+        List<EmailDelivery> deliveries = new ArrayList<>();
+        deliveries.add(delivery("subject", 1, null));
+        deliveries.add(delivery("other", 1, null));
+        deliveries.add(delivery("subject", 1, null));
+
+        List<List<EmailDelivery>> batches = EmailCoalescer.coalesce(deliveries, 1000);
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(1, batches.get(1).size());
+    }
+
+    @Test
+    public void batchesRespectBatchSizeAndRecipientLimit() {
+        List<EmailDelivery> deliveries = new ArrayList<>();
+        for(int i = 0; i < 5; i++) {
+            deliveries.add(delivery("subject", 300, null));
+        }
+
+        // 1000 recipients at most per batch.
+        assertEquals(2, EmailCoalescer.coalesce(deliveries, 1000).size());
+        assertEquals(3, EmailCoalescer.coalesce(deliveries, 2).size());
+        assertEquals(5, EmailCoalescer.coalesce(deliveries, 1).size());
+    }
+
+    @Test
+    public void emailsWithSameAttachmentsAreBatched() {
+        List<EmailDelivery> deliveries = new ArrayList<>();
+        deliveries.add(delivery("subject", 1, attachment(new byte[] { 1 })));
+        deliveries.add(delivery("subject", 1, attachment(new byte[] { 1 })));
+        deliveries.add(delivery("subject", 1, attachment(new byte[] { 2 })));
+
+        List<List<EmailDelivery>> batches = EmailCoalescer.coalesce(deliveries, 1000);
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+    }
+
+    @Test
+    public void onlyBatchableEmailsAreBatched() {
+        List<EmailDelivery> deliveries = new ArrayList<>();
+        deliveries.add(delivery("subject", 1, null));
+        deliveries.add(delivery("subject", 2, null));
+        deliveries.add(delivery("subject", 1, null));
+        deliveries.add(delivery("subject", 2, null));
+
+        List<List<EmailDelivery>> batches = EmailCoalescer.coalesce(deliveries, 1000, MailGunClient::isBatchable);
+        assertEquals(3, batches.size());
+    }
+
+    @Test
+    public void emailToARecipientAlreadyInTheBatchStartsTheNextBatch() {
+        List<EmailDelivery> deliveries = new ArrayList<>();
+        deliveries.add(delivery("subject", 1, null));
+        deliveries.add(delivery("subject", 2, null));
+        EmailDelivery sameRecipient = delivery("subject", 1, null);
+        sameRecipient.getEmailParams().getTo().get(0).setEmail("TO0@Example.com");
+        deliveries.add(sameRecipient);
+
+        List<List<EmailDelivery>> batches = EmailCoalescer.coalesce(deliveries, 1000);
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(1, batches.get(1).size());
+        assertTrue(batches.get(1).get(0) == sameRecipient);
+    }
+
+    private List<MultipartFile> attachment(byte[] content) {
+        return Collections.singletonList(new MockMultipartFile("attachments", "a.txt", "text/plain", content));
+    }
+
+    private EmailDelivery delivery(String subject, int recipients, List<MultipartFile> attachments) {
+        EmailParams params = new EmailParams();
+        params.setFrom(email("from@example.com"));
+        List<Email> to = new ArrayList<>();
+        for(int i = 0; i < recipients; i++) {
+            to.add(email("to" + nextRecipient++ + "@example.com"));
+        }
+        params.setTo(to);
+        params.setSubject(subject);
+        params.setMessage("message");
+        return new EmailDelivery(0, params, attachments);
+    }
+
+    private Email email(String address) {
+        Email email = new Email();
+        email.setEmail(address);
+        return email;
+    }
+}
@@ -0,0 +1,99 @@
+package com.siteminder.challenge.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.siteminder.challenge.SmRateLimitConfig;
+
+public class RateLimiterTests {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void bucketAllowsOneSecondBurstThenPaces() {
+        TokenBucket bucket = new TokenBucket(10);
+        for(int i = 0; i < 10; i++) {
+            assertEquals(0, bucket.tryReserve(1, 0));
+        }
+        // Next token is due in 100 ms.
+        assertEquals(-1, bucket.tryReserve(1, 50 * MS));
+        long wait = bucket.tryReserve(1, 1000 * MS);
+        assertTrue(wait > 90 * MS && wait <= 100 * MS);
+    }
+
+    @Test
+    public void refundedTokensCanBeTakenAgain() {
+        TokenBucket bucket = new TokenBucket(5);
+        assertEquals(0, bucket.tryReserve(5, 0));
+        bucket.refund(2);
+        assertEquals(0, bucket.tryReserve(2, 0));
+        assertEquals(-1, bucket.tryReserve(1, 0));
+    }
+
+    @Test
+    public void largerThanCapacityIsTakenFromAFullBucket() {
+        TokenBucket bucket = new TokenBucket(10);
+        assertEquals(0, bucket.tryReserve(30, 0));
+        // Bucket is in debt for 2 seconds.
+        long wait = bucket.tryReserve(1, 5000 * MS);
+        assertTrue(wait > 2000 * MS && wait <= 2100 * MS);
+    }
+
+    @Test
+    public void concurrentReservationsAreNeverLost() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000);
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for(int i = 0; i < 1000; i++) {
+                    bucket.tryReserve(1, Long.MAX_VALUE);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        // 8000 tokens at 1000 per second, with 1000 of them from the initial burst.
+        long wait = bucket.tryReserve(1, Long.MAX_VALUE);
+        assertTrue(wait > 6500 * MS && wait <= 7001 * MS);
+    }
+
+    @Test
+    public void pauseHoldsOffCallsUntilRetryAfter() throws InterruptedException {
+        SmRateLimitConfig config = new SmRateLimitConfig();
+        config.setMaxWait(100);
+        RateLimiter rateLimiter = new RateLimiter(config);
+        assertTrue(rateLimiter.acquire(1));
+
+        rateLimiter.pause(1000);
+        assertFalse(rateLimiter.acquire(1));
+
+        rateLimiter = new RateLimiter(config);
+        rateLimiter.pause(50);
+        long start = System.nanoTime();
+        assertTrue(rateLimiter.acquire(1));
+        assertTrue(System.nanoTime() - start >= 40 * MS);
+    }
+
+    @Test
+    public void messageLimitRefundsTheRequestToken() throws InterruptedException {
+        SmRateLimitConfig config = new SmRateLimitConfig();
+        config.setRequestsPerSecond(2);
+        config.setMessagesPerSecond(10);
+        config.setMaxWait(0);
+        RateLimiter rateLimiter = new RateLimiter(config);
+        assertTrue(rateLimiter.acquire(10));
+        assertFalse(rateLimiter.acquire(1));
+        // A message token is due after 100 ms. Without the refund, the next request token would take 500 ms.
+        Thread.sleep(120);
+        assertTrue(rateLimiter.acquire(1));
+    }
+}
@@ -0,0 +1,106 @@
+package com.siteminder.challenge.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+
+import com.siteminder.challenge.SmRetryConfig;
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.models.EmailParams;
+
+public class RetrySchedulerTests {
+
+    @Test
+    public void backoffGrowsExponentiallyWithJitterUpToTheMax() {
+        RetryScheduler scheduler = new RetryScheduler(config(), delivery -> { });
+        for(int i = 0; i < 100; i++) {
+            assertBetween(scheduler.getBackoff(1, -1), 50, 100);
+            assertBetween(scheduler.getBackoff(2, -1), 100, 200);
+            assertBetween(scheduler.getBackoff(3, -1), 200, 400);
+            assertBetween(scheduler.getBackoff(30, -1), 500, 1000);
+        }
+        // Retry-After of the mail service is the minimum.
+        assertEquals(5000, scheduler.getBackoff(1, 5000));
+    }
+
+    @Test
+    public void onlyTransientErrorsWithAttemptsLeftAreRetried() {
+        RetryScheduler scheduler = new RetryScheduler(config(), delivery -> { });
+        assertTrue(scheduler.isRetryable(delivery(HttpStatus.INTERNAL_SERVER_ERROR, 1)));
+        assertTrue(scheduler.isRetryable(delivery(HttpStatus.SERVICE_UNAVAILABLE, 1)));
+        assertTrue(scheduler.isRetryable(delivery(HttpStatus.TOO_MANY_REQUESTS, 1)));
+        assertFalse(scheduler.isRetryable(delivery(HttpStatus.BAD_REQUEST, 1)));
+        assertFalse(scheduler.isRetryable(delivery(HttpStatus.UNAUTHORIZED, 1)));
+        assertFalse(scheduler.isRetryable(delivery(HttpStatus.INTERNAL_SERVER_ERROR, 3)));
+    }
+
+    @Test
+    public void dueRetriesAreDispatchedInOrder() throws InterruptedException {
+        List<EmailDelivery> dispatched = new CopyOnWriteArrayList<>();
+        RetryScheduler scheduler = new RetryScheduler(config(), dispatched::add);
+        scheduler.start();
+        EmailDelivery later = delivery(HttpStatus.INTERNAL_SERVER_ERROR, 2);
+        EmailDelivery sooner = delivery(HttpStatus.INTERNAL_SERVER_ERROR, 1);
+        assertTrue(scheduler.schedule(later));
+        assertTrue(scheduler.schedule(sooner));
+        assertEquals(2, scheduler.getPendingCount());
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while(dispatched.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, dispatched.size());
+        assertTrue(dispatched.get(0) == sooner);
+        assertEquals(0, scheduler.getPendingCount());
+        scheduler.stop();
+    }
+
+    @Test
+    public void pendingRetriesAreBoundedAndReturnedOnStop() {
+        SmRetryConfig config = config();
+        config.setMaxPendingInMemory(2);
+        config.setInitialBackoff(60000);
+        config.setMaxBackoff(60000);
+        RetryScheduler scheduler = new RetryScheduler(config, delivery -> { });
+        scheduler.start();
+        assertTrue(scheduler.schedule(delivery(HttpStatus.INTERNAL_SERVER_ERROR, 1)));
+        assertTrue(scheduler.schedule(delivery(HttpStatus.INTERNAL_SERVER_ERROR, 1)));
+        assertFalse(scheduler.schedule(delivery(HttpStatus.INTERNAL_SERVER_ERROR, 1)));
+        assertEquals(2, scheduler.stop().size());
+    }
+
+    @Test
+    public void emailsHeldInMemoryAreGivenUpOnceStopped() {
+        RetryScheduler scheduler = new RetryScheduler(config(), delivery -> { });
+        scheduler.start();
+        scheduler.stop();
+        assertFalse(scheduler.schedule(delivery(HttpStatus.INTERNAL_SERVER_ERROR, 1)));
+    }
+
+    private void assertBetween(long value, long min, long max) {
+        assertTrue(value + " not in [" + min + ", " + max + "]", value >= min && value <= max);
+    }
+
+    private EmailDelivery delivery(HttpStatus status, int attempts) {
+        EmailDelivery delivery = new EmailDelivery(0, new EmailParams(), Collections.emptyList());
+        delivery.setError(new ApiResException(status, Constants.ApiStatusMessages.SERVICE_API_FAILURE));
+        delivery.setAttempts(attempts);
+        return delivery;
+    }
+
+    private SmRetryConfig config() {
+        SmRetryConfig config = new SmRetryConfig();
+        config.setMaxAttempts(3);
+        config.setInitialBackoff(100);
+        config.setMaxBackoff(1000);
+        config.setMultiplier(2);
+        return config;
+    }
+}
@@ -0,0 +1,168 @@
+package com.siteminder.challenge.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.attachments.SmAttachmentStore;
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.models.ApiResponse;
+import com.siteminder.challenge.models.BatchApiResponse;
+import com.siteminder.challenge.models.BatchItemResponse;
+import com.siteminder.challenge.models.EmailParams;
+import com.siteminder.challenge.outbox.SmOutbox;
+import com.siteminder.challenge.templates.SmTemplateStore;
+
+public class SmMailServiceBatchTests {
+
+    private static final String VALID = "{\"from\":{\"email\":\"from@example.com\"},"
+                                            + "\"to\":[{\"email\":\"to@example.com\"}],"
+                                            + "\"subject\":\"subject\",\"message\":\"message\"}";
+    private static final String INVALID = "{\"to\":[{\"email\":\"to@example.com\"}],"
+                                            + "\"subject\":\"subject\",\"message\":\"message\"}";
+
+    private SmAppConfig appConfig;
+    private InMemoryOutbox outbox;
+    private SmMailService service;
+
+    @Before
+    public void setUp() {
+        appConfig = new SmAppConfig();
+        outbox = new InMemoryOutbox();
+        service = new SmMailService();
+        service.appConfig = appConfig;
+        service.outbox = outbox;
+        service.attachmentStore = new SmAttachmentStore();
+        service.templateStore = new SmTemplateStore();
+    }
+
+    @Test
+    public void everyEmailGetsItsOwnStatus() {
+        start(10);
+        List<BatchItemResponse> results = sendBatch("[" + VALID + "," + INVALID + "," + VALID + "]");
+
+        assertEquals(3, results.size());
+        assertResult(results.get(0), 0, HttpStatus.ACCEPTED, Constants.ApiStatusMessages.SEND_SUCCESS);
+        assertEquals(1, results.get(1).getIndex());
+        assertEquals(HttpStatus.BAD_REQUEST.value(), results.get(1).getStatusCode());
+        assertResult(results.get(2), 2, HttpStatus.ACCEPTED, Constants.ApiStatusMessages.SEND_SUCCESS);
+        assertEquals(2, service.deliveryQueue.size());
+    }
+
+    @Test
+    public void emailsBeyondTheBatchLimitAreIgnored() {
+        appConfig.getDelivery().setBatchLimit(2);
+        start(10);
+        List<BatchItemResponse> results = sendBatch("[" + VALID + "," + VALID + "," + VALID + "," + VALID + "]");
+
+        assertEquals(3, results.size());
+        assertResult(results.get(1), 1, HttpStatus.ACCEPTED, Constants.ApiStatusMessages.SEND_SUCCESS);
+        assertResult(results.get(2), 2, HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.BATCH_LIMIT_EXCEEDED);
+        assertEquals(2, service.deliveryQueue.size());
+    }
+
+    @Test
+    public void malformedJsonIsReportedAtItsIndexAndEarlierEmailsAreQueued() {
+        start(10);
+        List<BatchItemResponse> results = sendBatch("[" + VALID + "," + VALID + ",{\"from\":]");
+
+        assertEquals(3, results.size());
+        assertResult(results.get(0), 0, HttpStatus.ACCEPTED, Constants.ApiStatusMessages.SEND_SUCCESS);
+        assertResult(results.get(1), 1, HttpStatus.ACCEPTED, Constants.ApiStatusMessages.SEND_SUCCESS);
+        assertResult(results.get(2), 2, HttpStatus.BAD_REQUEST, Constants.ApiStatusMessages.INVALID_MAIL_PARAMS);
+        assertEquals(2, service.deliveryQueue.size());
+    }
+
+    @Test
+    public void outboxFailureFailsEveryEmailOfTheChunk() {
+        outbox.failAcceptAll = true;
+        start(10);
+        List<BatchItemResponse> results = sendBatch("[" + VALID + "," + INVALID + "," + VALID + "]");
+
+        assertResult(results.get(0), 0, HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.OUTBOX_FAILURE);
+        assertEquals("Invalid email keeps its own status.", HttpStatus.BAD_REQUEST.value(), results.get(1).getStatusCode());
+        assertResult(results.get(2), 2, HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.OUTBOX_FAILURE);
+        assertEquals(0, service.deliveryQueue.size());
+    }
+
+    @Test
+    public void fullQueueRejectsTheEmailWith503() {
+        start(1);
+        ResponseEntity<?> accepted = service.sendEmail(VALID, null);
+        assertEquals(HttpStatus.ACCEPTED, accepted.getStatusCode());
+
+        ResponseEntity<?> rejected = service.sendEmail(VALID, null);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatusCode());
+        assertEquals(Constants.ApiStatusMessages.DELIVERY_QUEUE_FULL, ((ApiResponse) rejected.getBody()).getMessage());
+        // Caller retries the email, so it must not be recovered from the outbox too.
+        assertEquals(1, outbox.completed.size());
+    }
+
+    @Test
+    public void fullQueueRejectsTheRemainingEmailsOfTheBatch() {
+        start(1);
+        List<BatchItemResponse> results = sendBatch("[" + VALID + "," + VALID + "," + VALID + "]");
+
+        assertResult(results.get(0), 0, HttpStatus.ACCEPTED, Constants.ApiStatusMessages.SEND_SUCCESS);
+        assertResult(results.get(1), 1, HttpStatus.SERVICE_UNAVAILABLE, Constants.ApiStatusMessages.DELIVERY_QUEUE_FULL);
+        assertResult(results.get(2), 2, HttpStatus.SERVICE_UNAVAILABLE, Constants.ApiStatusMessages.DELIVERY_QUEUE_FULL);
+        assertEquals(2, outbox.completed.size());
+    }
+
+    // Queued emails stay in the queue, as no workers are started.
+    private void start(int queueCapacity) {
+        appConfig.getDelivery().setQueueCapacity(queueCapacity);
+        service.start(null, null, null);
+    }
+
+    private List<BatchItemResponse> sendBatch(String body) {
+        ResponseEntity<?> response = service.sendEmailBatch(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        return ((BatchApiResponse) response.getBody()).getResults();
+    }
+
+    private void assertResult(BatchItemResponse result, int index, HttpStatus status, String message) {
+        assertEquals(index, result.getIndex());
+        assertEquals(status.value(), result.getStatusCode());
+        assertEquals(message, result.getMessage());
+    }
+
+    // Outbox without a journal, which fails the emails of a batch on demand.
+    private static class InMemoryOutbox extends SmOutbox {
+        final List<EmailDelivery> completed = new ArrayList<>();
+        boolean failAcceptAll;
+
+        @Override
+        public EmailDelivery accept(EmailParams params, List<MultipartFile> attachments) {
+            return new EmailDelivery(0, params, attachments != null ? attachments : Collections.emptyList());
+        }
+
+        @Override
+        public List<EmailDelivery> acceptAll(List<EmailParams> paramsList) throws ApiResException {
+            if(failAcceptAll) {
+                throw new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.OUTBOX_FAILURE);
+            }
+            List<EmailDelivery> deliveries = new ArrayList<>();
+            for(EmailParams params : paramsList) {
+                deliveries.add(new EmailDelivery(0, params, Collections.emptyList()));
+            }
+            return deliveries;
+        }
+
+        @Override
+        public void complete(EmailDelivery delivery) {
+            completed.add(delivery);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.siteminder.challenge.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpPost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.SmMailServiceConfig;
+import com.siteminder.challenge.clients.PreparedMail;
+import com.siteminder.challenge.clients.SmMailClient;
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.models.Email;
+import com.siteminder.challenge.models.EmailParams;
+import com.siteminder.challenge.routing.SmMailServiceRouter;
+
+public class SmMailServiceHedgingTests {
+
+    private SmMailServiceConfig sendGrid;
+    private SmMailServiceConfig mailGun;
+    private ManualTimer timer;
+    private StubbedMailService service;
+
+    @Before
+    public void setUp() {
+        sendGrid = config("sendgrid");
+        mailGun = config("mailgun");
+        SmAppConfig appConfig = new SmAppConfig();
+        appConfig.setSmMailServiceConfig(Arrays.asList(sendGrid, mailGun));
+        appConfig.getHedging().setEnabled(true);
+
+        service = new StubbedMailService();
+        service.appConfig = appConfig;
+        service.router = new UnrecordedRouter();
+        service.circuitBreakers = new SmCircuitBreakers();
+        service.rateLimiters = new SmRateLimiters();
+        timer = new ManualTimer();
+        // Calls are made on the calling thread, and the hedge delay is up when the test says so.
+        service.start(new DirectExecutor(), new DirectExecutor(), timer);
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void answerWithinTheDelayIsNotHedged() throws Exception {
+        CompletableFuture<Void> result = service.sendEmailUsingService(sendGrid, batch(), mailGun);
+        assertEquals(1, service.clients.size());
+        assertFalse(result.isDone());
+
+        service.clients.get(0).response.complete(null);
+        assertNull(result.get(1, TimeUnit.SECONDS));
+        assertTrue(timer.scheduled.isCancelled());
+
+        timer.fire();
+        assertEquals("No hedge once answered.", 1, service.clients.size());
+    }
+
+    @Test
+    public void hedgeWinsAndThePrimaryIsAborted() throws Exception {
+        CompletableFuture<Void> result = service.sendEmailUsingService(sendGrid, batch(), mailGun);
+        timer.fire();
+        assertEquals(2, service.clients.size());
+        StubClient primary = service.clients.get(0);
+        StubClient hedge = service.clients.get(1);
+        assertSame(mailGun, hedge.getServiceConfig());
+
+        hedge.response.complete(null);
+        assertNull(result.get(1, TimeUnit.SECONDS));
+        assertTrue(primary.isAborted());
+        assertTrue(primary.response.isCompletedExceptionally());
+        assertFalse(hedge.isAborted());
+
+        // The primary only lost to the hedge. Its mailing service did not fail.
+        CircuitBreaker circuitBreaker = service.circuitBreakers.getCircuitBreaker(sendGrid);
+        assertEquals(0, circuitBreaker.getFailureRate(), 0);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void primaryErrorIsReturnedWhenBothFail() throws Exception {
+        CompletableFuture<Void> result = service.sendEmailUsingService(sendGrid, batch(), mailGun);
+        timer.fire();
+        assertEquals(2, service.clients.size());
+
+        service.clients.get(1).response.completeExceptionally(
+                new ApiResException(HttpStatus.BAD_GATEWAY, Constants.ApiStatusMessages.SERVICE_API_FAILURE));
+        assertFalse("Waits for the primary.", result.isDone());
+        service.clients.get(0).response.completeExceptionally(
+                new ApiResException(HttpStatus.SERVICE_UNAVAILABLE, Constants.ApiStatusMessages.SERVICE_API_FAILURE));
+
+        try {
+            result.get(1, TimeUnit.SECONDS);
+            fail("Both calls failed.");
+        } catch(ExecutionException exEx) {
+            assertTrue(exEx.getCause() instanceof ApiResException);
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, ((ApiResException) exEx.getCause()).getStatus());
+        }
+    }
+
+    @Test
+    public void abortBeforeTheClientIsSetAbortsTheClient() throws Exception {
+        ServiceCall call = new ServiceCall(sendGrid);
+        call.abort();
+        assertTrue(call.isAborted());
+
+        StubClient client = new StubClient(PreparedMail.prepare(params(), null), sendGrid);
+        call.setClient(client);
+        assertTrue(client.isAborted());
+        assertTrue(client.response.isCompletedExceptionally());
+    }
+
+    private List<EmailDelivery> batch() throws ApiResException {
+        EmailDelivery delivery = new EmailDelivery(0, params(), null);
+        delivery.setPreparedMail(PreparedMail.prepare(delivery.getEmailParams(), null));
+        return Collections.singletonList(delivery);
+    }
+
+    private EmailParams params() {
+        EmailParams params = new EmailParams();
+        Email from = new Email();
+        from.setEmail("from@example.com");
+        Email to = new Email();
+        to.setEmail("to@example.com");
+        params.setFrom(from);
+        params.setTo(Collections.singletonList(to));
+        params.setSubject("subject");
+        params.setMessage("message");
+        return params;
+    }
+
+    private SmMailServiceConfig config(String serviceName) {
+        SmMailServiceConfig config = new SmMailServiceConfig();
+        config.setServiceName(serviceName);
+        config.setEndPoint("http://localhost/" + serviceName);
+        config.setApiKey("key");
+        return config;
+    }
+
+    // Latencies are not recorded, so that the hedge delay is always the max delay.
+    private static class UnrecordedRouter extends SmMailServiceRouter {
+        @Override
+        public void begin(SmMailServiceConfig config) {
+        }
+
+        @Override
+        public void end(SmMailServiceConfig config, boolean failure, long durationMillis) {
+        }
+
+        @Override
+        public long getLatencyPercentile(SmMailServiceConfig config, double percentile, int minimumSamples) {
+            return -1;
+        }
+    }
+
+    // Hands out stub clients, in the order the calls are made.
+    private static class StubbedMailService extends SmMailService {
+        final List<StubClient> clients = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        SmMailClient newClient(SmMailServiceConfig config, PreparedMail mail) {
+            StubClient client = new StubClient(mail, config);
+            clients.add(client);
+            return client;
+        }
+    }
+
+    // Answers when the test completes its response. Fails the email once aborted, like the clients do.
+    private static class StubClient extends SmMailClient {
+        final CompletableFuture<Void> response = new CompletableFuture<>();
+
+        StubClient(PreparedMail mail, SmMailServiceConfig config) {
+            super(mail, config, null);
+        }
+
+        @Override
+        protected HttpPost buildRequest() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> sendEmailAsync() {
+            return response;
+        }
+
+        @Override
+        public void abort() {
+            super.abort();
+            response.completeExceptionally(
+                    new ApiResException(HttpStatus.INTERNAL_SERVER_ERROR, Constants.ApiStatusMessages.SERVICE_API_FAILURE));
+        }
+    }
+
+    private static class DirectExecutor extends AbstractExecutorService {
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return shutdown;
+        }
+    }
+
+    // Holds on to the hedge task, which runs when fired unless it was cancelled by then.
+    private static class ManualTimer extends ScheduledThreadPoolExecutor {
+        private Runnable command;
+        private ScheduledFuture<?> scheduled;
+
+        ManualTimer() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            this.command = command;
+            scheduled = super.schedule(() -> { }, 1, TimeUnit.DAYS);
+            return scheduled;
+        }
+
+        void fire() {
+            if(!scheduled.isCancelled()) {
+                command.run();
+            }
+        }
+    }
+}
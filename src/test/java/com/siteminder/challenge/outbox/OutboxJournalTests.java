@@ -0,0 +1,241 @@
+package com.siteminder.challenge.outbox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+
+public class OutboxJournalTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversOnlyEntriesWhichAreNotCompleted() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] content = "attachment".getBytes(StandardCharsets.UTF_8);
+        List<MultipartFile> bodies = Collections.singletonList(
+                new MockMultipartFile("attachments", "a.txt", "text/plain", content));
+
+        OutboxJournal journal = new OutboxJournal(dir, 1024 * 1024, 1, 16);
+        assertTrue(journal.open().isEmpty());
+        OutboxJournal.Record first = journal.appendAccepted(header("first"), bodies);
+        OutboxJournal.Record second = journal.appendAccepted(header("second"), Collections.emptyList());
+        journal.appendCompleted(first.getId());
+        journal.close();
+
+        OutboxJournal reopened = new OutboxJournal(dir, 1024 * 1024, 1, 16);
+        List<OutboxJournal.Record> pending = reopened.open();
+        assertEquals(1, pending.size());
+        assertEquals(second.getId(), pending.get(0).getId());
+
+        // New ids never collide with the recovered ones.
+        OutboxJournal.Record third = reopened.appendAccepted(header("third"), bodies);
+        assertTrue(third.getId() > second.getId());
+        reopened.close();
+    }
+
+    @Test
+    public void attachmentContentIsReadBackFromTheSegment() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] content = "attachment content".getBytes(StandardCharsets.UTF_8);
+        byte[] header = header("with attachment");
+        OutboxJournal journal = new OutboxJournal(dir, 1024 * 1024, 0, 1);
+        journal.open();
+        OutboxJournal.Record record = journal.appendAccepted(header,
+                Collections.singletonList(new MockMultipartFile("attachments", "a.txt", "text/plain", content)));
+
+        OutboxEntry.AttachmentInfo info = new OutboxEntry.AttachmentInfo("attachments", "a.txt", "text/plain", content.length);
+        OutboxAttachment attachment = new OutboxAttachment(info, record.getPath(),
+                record.getPayloadPosition() + 4 + header.length);
+        assertArrayEquals(content, attachment.getBytes());
+        journal.close();
+    }
+
+    @Test
+    public void tornTailIsDiscardedOnRecovery() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        OutboxJournal journal = new OutboxJournal(dir, 1024 * 1024, 1, 16);
+        journal.open();
+        OutboxJournal.Record record = journal.appendAccepted(header("complete record"), Collections.emptyList());
+        journal.close();
+
+        // Simulate a crash in the middle of the next append.
+        File segment = record.getPath().toFile();
+        try(RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(file.length());
+            file.write(new byte[] { 0, 0, 0, 50, 1, 2, 3 });
+        }
+
+        OutboxJournal reopened = new OutboxJournal(dir, 1024 * 1024, 1, 16);
+        List<OutboxJournal.Record> pending = reopened.open();
+        assertEquals(1, pending.size());
+        assertEquals(record.getId(), pending.get(0).getId());
+        assertEquals(record.getPayloadPosition() + record.getPayloadLength(), segment.length());
+        reopened.close();
+    }
+
+    @Test
+    public void completedSegmentsAreDeleted() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        OutboxJournal journal = new OutboxJournal(dir, 1024, 1, 16);
+        journal.open();
+
+        byte[] header = new byte[600];
+        Arrays.fill(header, (byte) '{');
+        OutboxJournal.Record first = journal.appendAccepted(header, Collections.emptyList());
+        OutboxJournal.Record second = journal.appendAccepted(header, Collections.emptyList());
+        assertFalse(first.getPath().equals(second.getPath()));
+
+        journal.appendCompleted(second.getId());
+        assertTrue(first.getPath().toFile().exists());
+
+        // Oldest segment goes once all of its entries are completed. The active segment stays.
+        journal.appendCompleted(first.getId());
+        assertFalse(first.getPath().toFile().exists());
+        assertTrue(second.getPath().toFile().exists());
+        journal.close();
+    }
+
+    @Test
+    public void concurrentAppendsAreAllRecovered() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        // Small segments, so that segments roll over while appends are being written into them.
+        OutboxJournal journal = new OutboxJournal(dir, 16 * 1024, 1, 16);
+        journal.open();
+
+        int threads = 8;
+        int appendsPerThread = 20;
+        CyclicBarrier start = new CyclicBarrier(threads);
+        Map<Long, byte[]> contents = new ConcurrentHashMap<>();
+        List<Thread> writers = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                    for(int i = 0; i < appendsPerThread; i++) {
+                        byte[] content = new byte[1000 + 500 * thread + i];
+                        Arrays.fill(content, (byte) (thread * appendsPerThread + i));
+                        OutboxJournal.Record record = journal.appendAccepted(header("concurrent"),
+                                Collections.singletonList(new MockMultipartFile("attachments", "a.bin", "text/plain", content)));
+                        contents.put(record.getId(), content);
+                    }
+                } catch(Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for(Thread writer : writers) {
+            writer.join();
+        }
+        journal.close();
+        assertEquals(threads * appendsPerThread, contents.size());
+
+        OutboxJournal reopened = new OutboxJournal(dir, 16 * 1024, 1, 16);
+        List<OutboxJournal.Record> pending = reopened.open();
+        assertEquals(threads * appendsPerThread, pending.size());
+        int headerLength = header("concurrent").length;
+        for(OutboxJournal.Record record : pending) {
+            byte[] content = contents.get(record.getId());
+            OutboxEntry.AttachmentInfo info = new OutboxEntry.AttachmentInfo("attachments", "a.bin", "text/plain",
+                                                                                content.length);
+            OutboxAttachment attachment = new OutboxAttachment(info, record.getPath(),
+                    record.getPayloadPosition() + 4 + headerLength);
+            assertArrayEquals(content, attachment.getBytes());
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void failedAppendIsSkippedOnRecovery() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        OutboxJournal journal = new OutboxJournal(dir, 1024 * 1024, 1, 16);
+        journal.open();
+
+        // Attachment shorter than it claims to be.
+        MockMultipartFile shrunk = new MockMultipartFile("attachments", "a.txt", "text/plain", new byte[100]) {
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(new byte[10]);
+            }
+        };
+        try {
+            journal.appendAccepted(header("failed"), Collections.singletonList(shrunk));
+            fail("Append of an attachment which changed must fail.");
+        } catch(IOException ioEx) {
+            // Expected.
+        }
+        OutboxJournal.Record next = journal.appendAccepted(header("next"), Collections.emptyList());
+        journal.close();
+
+        OutboxJournal reopened = new OutboxJournal(dir, 1024 * 1024, 1, 16);
+        List<OutboxJournal.Record> pending = reopened.open();
+        assertEquals(1, pending.size());
+        assertEquals(next.getId(), pending.get(0).getId());
+        reopened.close();
+    }
+
+    @Test
+    public void failedSyncOnlyFailsTheAppendsItCovers() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        AtomicBoolean failNextSync = new AtomicBoolean(true);
+        OutboxJournal journal = new OutboxJournal(dir, 1024 * 1024, 1, 16) {
+            @Override
+            void force(FileChannel channel) throws IOException {
+                if(failNextSync.getAndSet(false)) {
+                    throw new IOException("Transient sync failure.");
+                }
+                super.force(channel);
+            }
+        };
+        journal.open();
+
+        try {
+            journal.appendAccepted(header("not acknowledged"), Collections.emptyList());
+            fail("Append covered by a failed sync must fail.");
+        } catch(IOException ioEx) {
+            // Expected.
+        }
+        OutboxJournal.Record acknowledged = journal.appendAccepted(header("acknowledged"), Collections.emptyList());
+        journal.close();
+
+        // Append which failed is completed, so that it is not delivered after restart.
+        OutboxJournal reopened = new OutboxJournal(dir, 1024 * 1024, 1, 16);
+        List<OutboxJournal.Record> pending = reopened.open();
+        assertEquals(1, pending.size());
+        assertEquals(acknowledged.getId(), pending.get(0).getId());
+        reopened.close();
+    }
+
+    private byte[] header(String subject) {
+        return ("{\"email_params\":{\"subject\":\"" + subject + "\"}}").getBytes(StandardCharsets.UTF_8);
+    }
+}
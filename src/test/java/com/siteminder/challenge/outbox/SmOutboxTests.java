@@ -0,0 +1,137 @@
+package com.siteminder.challenge.outbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpStatus;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.SmRetryConfig;
+import com.siteminder.challenge.attachments.SmAttachmentStore;
+import com.siteminder.challenge.clients.PreparedMail;
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.core.EmailDelivery;
+import com.siteminder.challenge.core.RetryScheduler;
+import com.siteminder.challenge.models.Email;
+import com.siteminder.challenge.models.EmailParams;
+
+public class SmOutboxTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SmOutbox outbox;
+
+    @Before
+    public void open() throws Exception {
+        SmAppConfig appConfig = new SmAppConfig();
+        appConfig.getOutbox().setEnabled(true);
+        appConfig.getOutbox().setDirectory(folder.getRoot().getPath());
+        appConfig.getOutbox().setSyncInterval(1);
+        outbox = new SmOutbox();
+        outbox.appConfig = appConfig;
+        outbox.attachmentStore = new SmAttachmentStore();
+        outbox.open();
+    }
+
+    @After
+    public void close() throws Exception {
+        outbox.close();
+    }
+
+    @Test
+    public void acceptedEmailIsReadBackUntilCompleted() throws Exception {
+        EmailDelivery delivery = outbox.accept(params("subject"), null);
+        assertTrue(outbox.isJournaled());
+
+        EmailDelivery reloaded = outbox.reload(delivery.getId());
+        assertEquals(delivery.getId(), reloaded.getId());
+        assertEquals("subject", reloaded.getEmailParams().getSubject());
+
+        outbox.complete(delivery);
+        assertNull(outbox.reload(delivery.getId()));
+    }
+
+    @Test
+    public void retriesOfJournaledEmailsAreReadBackWhenDue() throws Exception {
+        SmRetryConfig retryConfig = new SmRetryConfig();
+        retryConfig.setInitialBackoff(10);
+        List<EmailDelivery> dispatched = new CopyOnWriteArrayList<>();
+        RetryScheduler scheduler = new RetryScheduler(retryConfig, outbox, dispatched::add);
+        scheduler.start();
+
+        EmailDelivery delivery = outbox.accept(params("subject"), null);
+        delivery.setAttempts(2);
+        delivery.setError(new ApiResException(HttpStatus.SERVICE_UNAVAILABLE, Constants.ApiStatusMessages.SERVICE_API_FAILURE));
+        assertTrue(scheduler.schedule(delivery));
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while(dispatched.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        scheduler.stop();
+
+        assertEquals(1, dispatched.size());
+        EmailDelivery retried = dispatched.get(0);
+        assertNotSame(delivery, retried);
+        assertEquals(delivery.getId(), retried.getId());
+        assertEquals(2, retried.getAttempts());
+        assertEquals("subject", retried.getEmailParams().getSubject());
+        assertEquals(delivery.getEmailParams().getMessageId(), retried.getEmailParams().getMessageId());
+    }
+
+    @Test
+    public void reloadedEmailKeepsItsMessageId() throws Exception {
+        EmailDelivery delivery = outbox.accept(params("subject"), null);
+        String messageId = delivery.getEmailParams().getMessageId();
+        assertNotNull(messageId);
+
+        EmailDelivery reloaded = outbox.reload(delivery.getId());
+        PreparedMail prepared = PreparedMail.prepare(reloaded.getEmailParams(), reloaded.getAttachments());
+        assertEquals(messageId, prepared.getEmailParams().getMessageId());
+
+        // Recovered after restart as well.
+        outbox.close();
+        outbox.open();
+        List<EmailDelivery> recovered = outbox.takeRecovered();
+        assertEquals(1, recovered.size());
+        assertEquals(messageId, recovered.get(0).getEmailParams().getMessageId());
+    }
+
+    @Test
+    public void journaledEmailsAreLeftToTheOutboxOnceRetriesAreStopped() throws Exception {
+        RetryScheduler scheduler = new RetryScheduler(new SmRetryConfig(), outbox, delivery -> { });
+        scheduler.start();
+        scheduler.stop();
+
+        EmailDelivery delivery = outbox.accept(params("subject"), null);
+        delivery.setError(new ApiResException(HttpStatus.SERVICE_UNAVAILABLE, Constants.ApiStatusMessages.SERVICE_API_FAILURE));
+        assertTrue(scheduler.schedule(delivery));
+        assertEquals("subject", outbox.reload(delivery.getId()).getEmailParams().getSubject());
+    }
+
+    private EmailParams params(String subject) {
+        EmailParams params = new EmailParams();
+        Email from = new Email();
+        from.setEmail("from@example.com");
+        Email to = new Email();
+        to.setEmail("to@example.com");
+        params.setFrom(from);
+        params.setTo(Collections.singletonList(to));
+        params.setSubject(subject);
+        params.setMessage("message");
+        return params;
+    }
+}
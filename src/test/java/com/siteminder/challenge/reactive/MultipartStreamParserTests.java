@@ -0,0 +1,117 @@
+package com.siteminder.challenge.reactive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import com.siteminder.challenge.core.ApiResException;
+
+public class MultipartStreamParserTests {
+    private static final String BOUNDARY = "----sm-boundary-42";
+
+    @Test
+    public void partsAreParsedWhateverTheBufferSplits() throws Exception {
+        // Content full of boundary prefixes, which must be handed over as content.
+        byte[] attachment = new byte[100_000];
+        new Random(7).nextBytes(attachment);
+        byte[] tricky = ("\r\n--" + BOUNDARY.substring(0, 10) + "\r\n\r\n--" + BOUNDARY.substring(0, BOUNDARY.length() - 1) + "x")
+                            .getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(tricky, 0, attachment, 500, tricky.length);
+        System.arraycopy(tricky, 0, attachment, attachment.length - tricky.length, tricky.length);
+        byte[] body = body("{\"subject\":\"hi\"}".getBytes(StandardCharsets.UTF_8), attachment);
+
+        Random random = new Random(11);
+        for(int run = 0; run < 50; run++) {
+            Parts parts = new Parts();
+            MultipartStreamParser parser = new MultipartStreamParser(BOUNDARY, parts);
+            int position = 0;
+            while(position < body.length) {
+                int length = Math.min(body.length - position, 1 + random.nextInt(run < 25 ? 8 : 8192));
+                parser.feed(ByteBuffer.wrap(body, position, length).slice());
+                position += length;
+            }
+            parser.finish();
+
+            assertEquals(2, parts.headers.size());
+            assertEquals("form-data; name=\"email_params\"",
+                            parts.headers.get(0).getFirst(HttpHeaders.CONTENT_DISPOSITION));
+            assertEquals("image/png", parts.headers.get(1).getFirst(HttpHeaders.CONTENT_TYPE));
+            assertEquals("{\"subject\":\"hi\"}", new String(parts.contents.get(0), StandardCharsets.UTF_8));
+            assertArrayEquals(attachment, parts.contents.get(1));
+        }
+    }
+
+    @Test
+    public void emptyPartsAndPreambleAreHandled() throws Exception {
+        byte[] body = ("preamble\r\n--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\n"
+                        + "\r\n--" + BOUNDARY + "--\r\nepilogue").getBytes(StandardCharsets.US_ASCII);
+        Parts parts = new Parts();
+        MultipartStreamParser parser = new MultipartStreamParser(BOUNDARY, parts);
+        parser.feed(ByteBuffer.wrap(body));
+        parser.finish();
+
+        assertEquals(1, parts.contents.size());
+        assertEquals(0, parts.contents.get(0).length);
+    }
+
+    @Test
+    public void truncatedBodyIsRejected() throws Exception {
+        byte[] body = body("{}".getBytes(StandardCharsets.UTF_8), new byte[10]);
+        MultipartStreamParser parser = new MultipartStreamParser(BOUNDARY, new Parts());
+        parser.feed(ByteBuffer.wrap(body, 0, body.length - 10));
+        try {
+            parser.finish();
+            fail("Truncated body must be rejected.");
+        } catch(ApiResException apiEx) {
+            assertEquals(HttpStatus.BAD_REQUEST, apiEx.getStatus());
+        }
+    }
+
+    private static byte[] body(byte[] emailParams, byte[] attachment) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"email_params\"\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+        body.write(emailParams);
+        body.write(("\r\n--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"attachments\"; filename=\"a.png\"\r\n"
+                    + "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        body.write(attachment);
+        body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return body.toByteArray();
+    }
+
+    private static class Parts implements MultipartStreamParser.Listener {
+        final List<HttpHeaders> headers = new ArrayList<>();
+        final List<byte[]> contents = new ArrayList<>();
+        private ByteArrayOutputStream content;
+
+        @Override
+        public void partStarted(HttpHeaders partHeaders) {
+            headers.add(partHeaders);
+            content = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void partContent(ByteBuffer partContent) {
+            byte[] bytes = new byte[partContent.remaining()];
+            partContent.get(bytes);
+            content.write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void partEnded() {
+            contents.add(content.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.siteminder.challenge.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.siteminder.challenge.SmMailServiceConfig;
+
+public class RoutingStrategyTests {
+
+    @Test
+    public void priorityKeepsTheConfiguredOrder() {
+        List<MailServiceStats> services = services(1, 1);
+        assertEquals(services, new PriorityRoutingStrategy().route(services));
+    }
+
+    @Test
+    public void weightedRoundRobinSpreadsTrafficByWeight() {
+        List<MailServiceStats> services = services(3, 1, 0);
+        RoutingStrategy strategy = new WeightedRoundRobinRoutingStrategy();
+        int[] picks = new int[3];
+        List<String> firstFour = new ArrayList<>();
+        for(int i = 0; i < 400; i++) {
+            List<MailServiceStats> order = strategy.route(services);
+            assertEquals(3, order.size());
+            picks[services.indexOf(order.get(0))]++;
+            if(i < 4) {
+                firstFour.add(order.get(0).getConfig().getServiceName());
+            }
+        }
+        assertEquals(300, picks[0]);
+        assertEquals(100, picks[1]);
+        assertEquals(0, picks[2]);
+        // Picks are interleaved rather than bunched up.
+        assertEquals(Arrays.asList("service0", "service0", "service1", "service0"), firstFour);
+    }
+
+    @Test
+    public void spilloverMovesOnOnceThePrimaryIsSaturated() {
+        List<MailServiceStats> services = services(1, 1);
+        RoutingStrategy strategy = new SpilloverRoutingStrategy(2);
+        services.get(0).begin();
+        assertSame(services.get(0), strategy.route(services).get(0));
+
+        services.get(0).begin();
+        List<MailServiceStats> order = strategy.route(services);
+        assertSame(services.get(1), order.get(0));
+        assertSame(services.get(0), order.get(1));
+
+        services.get(0).end(false, 10);
+        assertSame(services.get(0), strategy.route(services).get(0));
+    }
+
+    @Test
+    public void latencyFavoursTheFastestHealthyService() {
+        List<MailServiceStats> services = services(1, 1, 1);
+        RoutingStrategy strategy = new LatencyRoutingStrategy(new Random(7));
+        record(services.get(0), 400, false);
+        record(services.get(1), 100, false);
+        record(services.get(2), 100, true);
+
+        int[] picks = new int[3];
+        for(int i = 0; i < 1000; i++) {
+            List<MailServiceStats> order = strategy.route(services);
+            picks[services.indexOf(order.get(0))]++;
+            // Failover order follows the scores.
+            if(order.get(0) != services.get(1)) {
+                assertSame(services.get(1), order.get(1));
+            }
+        }
+        assertTrue(picks[1] > 650);
+        assertTrue(picks[0] > 100);
+        // Failing service still gets a little traffic, so that it can recover.
+        assertTrue(picks[2] > 0 && picks[2] < 100);
+    }
+
+    @Test
+    public void statsAreMovingAverages() {
+        MailServiceStats stats = services(1).get(0);
+        stats.begin();
+        stats.end(false, 100);
+        assertEquals(100, stats.getLatency(), 0.001);
+        assertEquals(1, stats.getSuccessRate(), 0.001);
+
+        stats.begin();
+        stats.end(true, 200);
+        assertEquals(150, stats.getLatency(), 0.001);
+        assertEquals(0.5, stats.getSuccessRate(), 0.001);
+        assertEquals(0, stats.getInFlight());
+    }
+
+    @Test
+    public void latencyPercentileNeedsEnoughSuccessfulCalls() {
+        MailServiceStats stats = services(1).get(0);
+        for(int i = 1; i <= 100; i++) {
+            stats.begin();
+            stats.end(false, i);
+            stats.begin();
+            stats.end(true, 1000);
+        }
+        assertEquals(95, stats.getLatencyPercentile(95, 20));
+        assertEquals(50, stats.getLatencyPercentile(50, 20));
+        assertEquals(-1, stats.getLatencyPercentile(95, 101));
+    }
+
+    @Test
+    public void latencyLetsAFailingServiceRecover() {
+        List<MailServiceStats> services = services(1, 1);
+        RoutingStrategy strategy = new LatencyRoutingStrategy(new Random(7));
+        record(services.get(0), 10, true);
+        record(services.get(1), 100, false);
+        assertTrue(services.get(0).getSuccessRate() < 0.001);
+
+        int failingPicks = 0;
+        for(int i = 0; i < 1000; i++) {
+            if(strategy.route(services).get(0) == services.get(0)) {
+                failingPicks++;
+            }
+        }
+        assertTrue(failingPicks > 0);
+
+        // Calls picked despite the failures succeed again, and the service wins back its traffic.
+        record(services.get(0), 10, false);
+        int recoveredPicks = 0;
+        for(int i = 0; i < 1000; i++) {
+            if(strategy.route(services).get(0) == services.get(0)) {
+                recoveredPicks++;
+            }
+        }
+        assertTrue(recoveredPicks > 800);
+    }
+
+    private void record(MailServiceStats stats, long latency, boolean failure) {
+        for(int i = 0; i < 10; i++) {
+            stats.begin();
+            stats.end(failure, latency);
+        }
+    }
+
+    private List<MailServiceStats> services(int... weights) {
+        List<MailServiceStats> services = new ArrayList<>();
+        for(int i = 0; i < weights.length; i++) {
+            SmMailServiceConfig config = new SmMailServiceConfig();
+            config.setServiceName("service" + i);
+            config.setWeight(weights[i]);
+            services.add(new MailServiceStats(config, 0.5));
+        }
+        return services;
+    }
+}
@@ -0,0 +1,105 @@
+package com.siteminder.challenge.spool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.siteminder.challenge.SmAppConfig;
+
+public class SmAttachmentSpoolTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SmAttachmentSpool spool;
+
+    @Before
+    public void setUp() throws Exception {
+        SmAppConfig appConfig = new SmAppConfig();
+        appConfig.getSpool().setDirectory(folder.getRoot().getPath());
+        appConfig.getSpool().setMemoryThreshold(16);
+        appConfig.getSpool().setMemoryLimit(24);
+        spool = new SmAttachmentSpool();
+        spool.appConfig = appConfig;
+        spool.open();
+    }
+
+    @Test
+    public void smallAttachmentsAreHeldInDirectMemoryUpToTheLimit() throws Exception {
+        List<MultipartFile> spooled = spool.spoolAll(Arrays.asList(attachment(10), attachment(10), attachment(10)));
+
+        // Third one does not fit in the memory limit, so it is spooled to a file.
+        assertFalse(((SpooledAttachment) spooled.get(0)).isMapped());
+        assertFalse(((SpooledAttachment) spooled.get(1)).isMapped());
+        assertTrue(((SpooledAttachment) spooled.get(2)).isMapped());
+        assertEquals(20, spool.getMemoryUsed());
+        for(MultipartFile file : spooled) {
+            try(InputStream iStream = file.getInputStream()) {
+                assertArrayEquals(content(10), StreamUtils.copyToByteArray(iStream));
+            }
+        }
+
+        spool.release(spooled);
+        assertEquals(0, spool.getMemoryUsed());
+        assertEquals(0, Files.list(folder.getRoot().toPath()).count());
+    }
+
+    @Test
+    public void largeAttachmentIsSpooledToMappedFileUntilReleased() throws Exception {
+        SpooledAttachment spooled = spool.spool(attachment(100));
+
+        assertTrue(spooled.isMapped());
+        assertEquals(100, spooled.getSize());
+        assertArrayEquals(content(100), spooled.getBytes());
+        assertEquals(1, Files.list(folder.getRoot().toPath()).count());
+
+        spooled.release();
+        assertEquals(0, Files.list(folder.getRoot().toPath()).count());
+        try {
+            spooled.getInputStream();
+            fail("Released attachment must not be readable.");
+        } catch(IOException ioEx) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void openStreamKeepsTheContentAfterRelease() throws Exception {
+        SpooledAttachment spooled = spool.spool(attachment(100));
+
+        try(InputStream iStream = spooled.getInputStream()) {
+            // Email is completed while a call is still writing the attachment.
+            spooled.release();
+            assertEquals(1, Files.list(folder.getRoot().toPath()).count());
+            assertArrayEquals(content(100), StreamUtils.copyToByteArray(iStream));
+        }
+        assertEquals(0, Files.list(folder.getRoot().toPath()).count());
+    }
+
+    private static MultipartFile attachment(int size) {
+        return new MockMultipartFile("attachments", "a.bin", "application/octet-stream", content(size));
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        for(int i = 0; i < size; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+}
@@ -0,0 +1,142 @@
+package com.siteminder.challenge.templates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpStatus;
+
+import com.siteminder.challenge.SmAppConfig;
+import com.siteminder.challenge.commons.Constants;
+import com.siteminder.challenge.core.ApiResException;
+import com.siteminder.challenge.models.EmailParams;
+import com.siteminder.challenge.models.EmailTemplate;
+
+public class SmTemplateStoreTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SmTemplateStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = newStore(1);
+        store.store("welcome", new EmailTemplate("Welcome {{ name }}", "Hi {{name}}, your room is {{room}}.{{name}}"));
+    }
+
+    @Test
+    public void subjectAndMessageAreRenderedFromTheTemplate() throws Exception {
+        EmailParams params = params("welcome", "Ann", "12");
+        store.render(params);
+
+        assertEquals("Welcome Ann", params.getSubject());
+        assertEquals("Hi Ann, your room is 12.Ann", params.getMessage());
+        assertNull(params.getTemplateVariables());
+
+        // Render buffer is reused by the next render.
+        EmailParams next = params("welcome", "Bo", "7");
+        store.render(next);
+        assertEquals("Hi Bo, your room is 7.Bo", next.getMessage());
+    }
+
+    @Test
+    public void variablesAreHtmlEscapedInTheHtmlOnly() throws Exception {
+        store.store("booking", new EmailTemplate("Booking of {{name}}", "Dear {{name}}",
+                                                    "<p title=\"{{name}}\">Dear {{name}}</p>"));
+        Map<String, String> variables = new HashMap<>();
+        variables.put("name", "<a href='http://evil.example'>Ann & \"Bob\"</a>");
+        EmailParams params = new EmailParams();
+        params.setTemplateId("booking");
+        params.setTemplateVariables(variables);
+        store.render(params);
+
+        String escaped = "&lt;a href=&#39;http://evil.example&#39;&gt;Ann &amp; &quot;Bob&quot;&lt;/a&gt;";
+        assertEquals("<p title=\"" + escaped + "\">Dear " + escaped + "</p>", params.getHtml());
+        assertEquals("Booking of <a href='http://evil.example'>Ann & \"Bob\"</a>", params.getSubject());
+        assertEquals("Dear <a href='http://evil.example'>Ann & \"Bob\"</a>", params.getMessage());
+    }
+
+    @Test
+    public void emailsOfABatchShareTheRenderedBody() throws Exception {
+        Map<List<Object>, EmailTemplate> rendered = new HashMap<>();
+        EmailParams first = params("welcome", "Ann", "12");
+        EmailParams second = params("welcome", "Ann", "12");
+        EmailParams third = params("welcome", "Bo", "12");
+        store.render(first, rendered);
+        store.render(second, rendered);
+        store.render(third, rendered);
+
+        assertSame(first.getMessage(), second.getMessage());
+        assertNotSame(first.getMessage(), third.getMessage());
+        assertEquals(2, rendered.size());
+    }
+
+    @Test
+    public void templatesDroppedFromTheCacheAreCompiledAgainFromTheirFiles() throws Exception {
+        store.store("reminder", new EmailTemplate("Reminder", "See you {{name}}."));
+        // Cache holds a single template, so welcome is compiled again from its file.
+        EmailParams params = params("welcome", "Ann", "12");
+        store.render(params);
+        assertEquals("Welcome Ann", params.getSubject());
+
+        EmailParams reopened = params("reminder", "Ann", null);
+        newStore(1).render(reopened);
+        assertEquals("See you Ann.", reopened.getMessage());
+    }
+
+    @Test
+    public void invalidTemplatesAndVariablesAreRejected() throws Exception {
+        assertRejected(() -> store.store("broken", new EmailTemplate("Hi {{name", "Message")),
+                        Constants.ApiStatusMessages.INVALID_TEMPLATE);
+        assertRejected(() -> store.render(params("unknown", "Ann", "12")), Constants.ApiStatusMessages.UNKNOWN_TEMPLATE);
+        assertRejected(() -> store.render(params("welcome", "Ann", null)),
+                        Constants.ApiStatusMessages.MISSING_TEMPLATE_VARIABLE);
+        assertEquals(HttpStatus.BAD_REQUEST, store.storeTemplate("../welcome", "{}").getStatusCode());
+    }
+
+    private SmTemplateStore newStore(int cacheSize) throws Exception {
+        SmAppConfig appConfig = new SmAppConfig();
+        appConfig.getTemplates().setDirectory(folder.getRoot().getPath());
+        appConfig.getTemplates().setCacheSize(cacheSize);
+        SmTemplateStore templateStore = new SmTemplateStore();
+        templateStore.appConfig = appConfig;
+        templateStore.open();
+        return templateStore;
+    }
+
+    private static EmailParams params(String templateId, String name, String room) {
+        Map<String, String> variables = new HashMap<>();
+        variables.put("name", name);
+        if(room != null) {
+            variables.put("room", room);
+        }
+        EmailParams params = new EmailParams();
+        params.setTemplateId(templateId);
+        params.setTemplateVariables(variables);
+        return params;
+    }
+
+    private static void assertRejected(Action action, String message) throws Exception {
+        try {
+            action.run();
+            fail("Expected to be rejected with " + message);
+        } catch(ApiResException apiEx) {
+            assertEquals(HttpStatus.BAD_REQUEST, apiEx.getStatus());
+            assertEquals(message, apiEx.getMessage());
+        }
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+}